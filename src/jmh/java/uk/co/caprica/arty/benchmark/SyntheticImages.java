@@ -0,0 +1,112 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.benchmark;
+
+import uk.co.caprica.arty.image.ArtImageWriter;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Synthetic cover art images for benchmarks.
+ * <p>
+ * Images are generated from a seed so that benchmark runs are reproducible and need no external files.
+ */
+public final class SyntheticImages {
+
+    private SyntheticImages() {
+    }
+
+    /**
+     * Create a synthetic image.
+     * <p>
+     * The image has a background gradient, overlapping translucent shapes and some fine lines, giving a reasonable mix
+     * of smooth areas and hard edges.
+     *
+     * @param size width and height of the image
+     * @param seed random seed
+     * @return image
+     */
+    public static BufferedImage create(int size, long seed) {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g2 = image.createGraphics();
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2.setPaint(new GradientPaint(0, 0, new Color(random.nextInt()), size, size, new Color(random.nextInt())));
+        g2.fillRect(0, 0, size, size);
+        for (int i = 0; i < 100; i++) {
+            g2.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256), 160));
+            int shapeSize = random.nextInt(size / 3) + 1;
+            g2.fillOval(random.nextInt(size), random.nextInt(size), shapeSize, shapeSize);
+        }
+        g2.setStroke(new BasicStroke(Math.max(1, size / 500f)));
+        for (int i = 0; i < 50; i++) {
+            g2.setColor(new Color(random.nextInt()));
+            g2.drawLine(random.nextInt(size), random.nextInt(size), random.nextInt(size), random.nextInt(size));
+        }
+        g2.dispose();
+        return image;
+    }
+
+    /**
+     * Create a synthetic image and write it to a file.
+     *
+     * @param file file to write
+     * @param size width and height of the image
+     * @param seed random seed
+     * @param format image format name
+     * @return the file
+     * @throws IOException if an error occurs
+     */
+    public static Path write(Path file, int size, long seed, String format) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (OutputStream output = Files.newOutputStream(file)) {
+            new ArtImageWriter(format, 0.9f, false).write(create(size, seed), output);
+        }
+        return file;
+    }
+
+    /**
+     * Recursively delete a directory.
+     *
+     * @param directory directory to delete
+     * @throws IOException if an error occurs
+     */
+    public static void delete(Path directory) throws IOException {
+        if (directory != null && Files.exists(directory)) {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.compositor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.co.caprica.arty.benchmark.SyntheticImages;
+import uk.co.caprica.arty.image.ArtImageWriter;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for composing complete grids, from source files to the composite image or the encoded composite image.
+ * <p>
+ * Run with the GC profiler to see the steady-state allocation per composite.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArtCompositorBenchmark {
+
+    /**
+     * Number of grid cells in each direction.
+     */
+    @Param({"1", "2", "3", "4"})
+    public int grid;
+
+    @Param({"256", "512", "1024"})
+    public int targetSize;
+
+    @Param({"1000"})
+    public int sourceSize;
+
+    private Path directory;
+
+    private List<Path> paths;
+
+    private ArtCompositor compositor;
+
+    private ArtImageWriter writer;
+
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("arty-compositor-benchmark");
+        paths = new ArrayList<>();
+        for (int i = 0; i < grid * grid; i++) {
+            paths.add(SyntheticImages.write(directory.resolve(i + ".jpg"), sourceSize, i, "jpg"));
+        }
+        compositor = new ArtCompositor();
+        writer = new ArtImageWriter("jpg", 0.9f, false);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        SyntheticImages.delete(directory);
+    }
+
+    @Benchmark
+    public BufferedImage compose() throws IOException {
+        return compositor.compose(paths, targetSize, grid * grid);
+    }
+
+    @Benchmark
+    public ByteBuffer composeEncoded() throws IOException {
+        buffer = compositor.compose(paths, targetSize, grid * grid, null, writer, buffer);
+        return buffer;
+    }
+}
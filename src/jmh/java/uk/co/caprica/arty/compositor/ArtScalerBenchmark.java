@@ -0,0 +1,86 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.compositor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.co.caprica.arty.benchmark.SyntheticImages;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for scaling an already decoded image into a grid cell, compared with the legacy
+ * {@link Image#getScaledInstance(int, int, int)} approach.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArtScalerBenchmark {
+
+    @Param({"AREA_AVERAGING", "BILINEAR", "LANCZOS"})
+    public ArtScalingQuality quality;
+
+    @Param({"1000", "3000"})
+    public int sourceSize;
+
+    @Param({"128", "512"})
+    public int cellSize;
+
+    private BufferedImage source;
+
+    private int[] target;
+
+    @Setup
+    public void setup() {
+        source = SyntheticImages.create(sourceSize, 1);
+        target = ((DataBufferInt) new BufferedImage(cellSize, cellSize, BufferedImage.TYPE_INT_RGB).getRaster().getDataBuffer()).getData();
+    }
+
+    @Benchmark
+    public int[] scale() {
+        ArtScaler.scale(source, cellSize, target, cellSize, cellSize, 0, 0, quality, true);
+        return target;
+    }
+
+    @Benchmark
+    public BufferedImage legacyScaledInstance() {
+        BufferedImage result = new BufferedImage(cellSize, cellSize, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = result.createGraphics();
+        g2.drawImage(source.getScaledInstance(cellSize, cellSize, Image.SCALE_SMOOTH), 0, 0, null);
+        g2.dispose();
+        return result;
+    }
+}
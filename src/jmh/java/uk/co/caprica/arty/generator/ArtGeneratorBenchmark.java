@@ -0,0 +1,91 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.generator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.co.caprica.arty.benchmark.SyntheticImages;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for generating all of the configured sizes for a single art file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArtGeneratorBenchmark {
+
+    @Param({"1024,512,256,128,64", "256,128,64", "64"})
+    public String sizes;
+
+    @Param({"1000", "3000"})
+    public int sourceSize;
+
+    private Path directory;
+
+    private ArtGenerator generator;
+
+    private final ArtGeneratorProgress progress = new ArtGeneratorProgress() {
+        @Override
+        public void beforeGenerate(int current, int total, Path filePath) {
+        }
+
+        @Override
+        public void afterGenerate(int current, int total, Path filePath) {
+        }
+    };
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("arty-generator-benchmark");
+        Path sourceRootPath = directory.resolve("source");
+        SyntheticImages.write(sourceRootPath.resolve("album").resolve("cover.jpg"), sourceSize, 1, "jpg");
+        int[] outputSizes = Arrays.stream(sizes.split(",")).mapToInt(Integer::parseInt).toArray();
+        generator = new ArtGenerator(sourceRootPath, directory.resolve("output"), outputSizes, "cover.jpg", "jpg", true);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        SyntheticImages.delete(directory);
+    }
+
+    @Benchmark
+    public void generateArt() throws IOException {
+        generator.generateArt(progress);
+    }
+}
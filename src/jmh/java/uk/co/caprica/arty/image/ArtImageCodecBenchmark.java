@@ -0,0 +1,104 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.image;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.co.caprica.arty.benchmark.SyntheticImages;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for decoding and encoding images, separately from scaling.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArtImageCodecBenchmark {
+
+    @Param({"1000", "3000"})
+    public int sourceSize;
+
+    @Param({"jpg", "png"})
+    public String format;
+
+    /**
+     * Target size used for reduced resolution decoding, and the size of the image encoded.
+     */
+    @Param({"128", "512"})
+    public int targetSize;
+
+    private Path directory;
+
+    private Path sourceFile;
+
+    private BufferedImage targetImage;
+
+    private ArtImageWriter writer;
+
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("arty-codec-benchmark");
+        sourceFile = SyntheticImages.write(directory.resolve("cover." + format), sourceSize, 1, format);
+        targetImage = SyntheticImages.create(targetSize, 2);
+        writer = new ArtImageWriter(format, 0.9f, false);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        SyntheticImages.delete(directory);
+    }
+
+    @Benchmark
+    public BufferedImage decodeFull() throws IOException {
+        return ArtImageReader.read(sourceFile);
+    }
+
+    @Benchmark
+    public BufferedImage decodeSubsampled() throws IOException {
+        return ArtImageReader.read(sourceFile, targetSize);
+    }
+
+    @Benchmark
+    public ByteBuffer encode() throws IOException {
+        buffer = writer.write(targetImage, buffer);
+        return buffer;
+    }
+}
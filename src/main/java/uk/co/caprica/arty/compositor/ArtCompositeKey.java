@@ -0,0 +1,78 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.compositor;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Key identifying a composite image request, used to coalesce identical concurrent requests.
+ */
+final class ArtCompositeKey {
+
+    private final List<Path> paths;
+    private final int targetSize;
+    private final int maxGridCells;
+    private final Integer backgroundRgb;
+
+    /**
+     * Create a key.
+     *
+     * @param paths collection of image file paths, the list is copied
+     * @param targetSize size of the target image
+     * @param maxGridCells maximum number of grid cells to use
+     * @param backgroundRgb background colour, may be <code>null</code>
+     */
+    ArtCompositeKey(List<Path> paths, int targetSize, int maxGridCells, Integer backgroundRgb) {
+        this.paths = new ArrayList<>(paths);
+        this.targetSize = targetSize;
+        this.maxGridCells = maxGridCells;
+        this.backgroundRgb = backgroundRgb;
+    }
+
+    List<Path> paths() {
+        return paths;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ArtCompositeKey)) {
+            return false;
+        }
+        ArtCompositeKey other = (ArtCompositeKey) o;
+        return targetSize == other.targetSize &&
+            maxGridCells == other.maxGridCells &&
+            (backgroundRgb == null ? other.backgroundRgb == null : backgroundRgb.equals(other.backgroundRgb)) &&
+            paths.equals(other.paths);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = paths.hashCode();
+        result = 31 * result + targetSize;
+        result = 31 * result + maxGridCells;
+        result = 31 * result + (backgroundRgb != null ? backgroundRgb.hashCode() : 0);
+        return result;
+    }
+}
@@ -19,18 +19,128 @@
 
 package uk.co.caprica.arty.compositor;
 
-import javax.imageio.ImageIO;
+import uk.co.caprica.arty.image.ArtImageReader;
+import uk.co.caprica.arty.image.ArtImageWriter;
+
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
 
 /**
  * Component used to generate cover art by compositing a collection of images (from files) into a grid.
+ * <p>
+ * Source images are scaled directly into the raster of the composite image, using the selected
+ * {@link ArtScalingQuality}. Each distinct source image is decoded only once, and scaled only once for each size of grid
+ * cell it appears in, however many times it is repeated. An optional {@link ArtImageCache} can be supplied to also
+ * reuse decoded and scaled images across composites, cached images must not be modified.
+ * <p>
+ * The images are arranged according to an {@link ArtGridStrategy}. The default, {@link ArtGridStrategy#SQUARE}, always
+ * uses a square grid and repeats images to fill it, the other strategies avoid repeating images, see
+ * {@link ArtGridLayout}.
+ * <p>
+ * Source images that are much larger than their grid cell are decoded at a reduced resolution.
+ * <p>
+ * Composite images can be encoded directly to a stream, channel, buffer or file using an {@link ArtImageWriter}. In
+ * this case the composite image itself is reused by each thread, and together with the reuse of decoding and scaling
+ * buffers and cached grid layouts this means that the steady-state allocation for each composite is little more than
+ * the encoded output.
+ * <p>
+ * Each thread that composes to an encoded image keeps a composite image of at most 512 by 512 pixels (1 MiB of heap)
+ * for as long as the thread lives, in addition to the buffers kept by {@link ArtImageReader} and the scaler's row
+ * buffers. Larger composites are allocated for each request and released afterwards.
+ * <p>
+ * Composites can also be created asynchronously, with the grid cell images loaded concurrently. Identical asynchronous
+ * requests that are in progress at the same time share a single composite image.
  */
 final public class ArtCompositor {
 
+    /**
+     * Maximum number of pixels in a composite image reused by a thread, larger images are not kept.
+     */
+    private static final int MAX_REUSED_PIXELS = 512 * 512;
+
+    /**
+     * Composite image reused by each thread when composing to an encoded image.
+     */
+    private static final ThreadLocal<BufferedImage> reusedTargetImage = new ThreadLocal<>();
+
+    /**
+     * Optional cache of decoded and scaled grid cell images.
+     */
+    private final ArtImageCache cache;
+
+    /**
+     * Quality used when scaling source images to fit the grid cells.
+     */
+    private final ArtScalingQuality quality;
+
+    /**
+     * Strategy used to arrange the source images in the grid.
+     */
+    private final ArtGridStrategy gridStrategy;
+
+    /**
+     * Asynchronous composite requests that are currently in progress.
+     */
+    private final Map<ArtCompositeKey, CompletableFuture<BufferedImage>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Create a compositor that does not cache images between composites.
+     */
+    public ArtCompositor() {
+        this(null);
+    }
+
+    /**
+     * Create a compositor that caches decoded and scaled images.
+     *
+     * @param cache cache of grid cell images, may be <code>null</code>
+     */
+    public ArtCompositor(ArtImageCache cache) {
+        this(cache, ArtScalingQuality.AREA_AVERAGING);
+    }
+
+    /**
+     * Create a compositor that caches decoded and scaled images, using a particular scaling quality.
+     *
+     * @param cache cache of grid cell images, may be <code>null</code>
+     * @param quality quality used when scaling source images to fit the grid cells
+     */
+    public ArtCompositor(ArtImageCache cache, ArtScalingQuality quality) {
+        this(cache, quality, ArtGridStrategy.SQUARE);
+    }
+
+    /**
+     * Create a compositor that caches decoded and scaled images, using a particular scaling quality and grid strategy.
+     *
+     * @param cache cache of grid cell images, may be <code>null</code>
+     * @param quality quality used when scaling source images to fit the grid cells
+     * @param gridStrategy strategy used to arrange the source images in the grid
+     */
+    public ArtCompositor(ArtImageCache cache, ArtScalingQuality quality, ArtGridStrategy gridStrategy) {
+        this.cache = cache;
+        this.quality = quality;
+        this.gridStrategy = gridStrategy;
+    }
+
     /**
      * Compose a collection of image files into a grid.
      *
@@ -55,64 +165,375 @@ final public class ArtCompositor {
      * @throws IOException if an error occurs when reading or writing an image file
      */
     public BufferedImage compose(List<Path> paths, int targetSize, int maxGridCells, Color backgroundColour) throws IOException {
-        BufferedImage targetImage = new BufferedImage(targetSize, targetSize, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g2 = (Graphics2D) targetImage.getGraphics();
-        if (backgroundColour != null) {
-            g2.setColor(backgroundColour);
-            g2.fillRect(0, 0, targetImage.getWidth(), targetImage.getHeight());
+        return composeInto(newTargetImage(targetSize, backgroundColour), paths, maxGridCells);
+    }
+
+    /**
+     * Compose a collection of image files into a grid in an existing target image.
+     *
+     * @param targetImage target image, already filled with the background colour
+     * @param paths collection if image file paths
+     * @param maxGridCells maximum number of grid cells to use
+     * @return target image
+     * @throws IOException if an error occurs when reading an image file
+     */
+    private BufferedImage composeInto(BufferedImage targetImage, List<Path> paths, int maxGridCells) throws IOException {
+        int targetSize = targetImage.getWidth();
+        int[] target = ((DataBufferInt) targetImage.getRaster().getDataBuffer()).getData();
+        ArtGridLayout layout = ArtGridLayout.of(paths.size(), targetSize, maxGridCells, gridStrategy);
+        ArtImageCacheKey[] cellKeys = calculateCellKeys(paths, layout);
+        // Count how many cells each scaled image is used in, images used more than once are scaled once then copied
+        Map<ArtImageCacheKey, Integer> cellKeyCounts = new HashMap<>();
+        for (ArtImageCacheKey cellKey : cellKeys) {
+            cellKeyCounts.merge(cellKey, 1, Integer::sum);
         }
-        int gridCells = calculateGridCells(paths.size(), maxGridCells);
-        int[] gridCellSizes = calculateGridCellSizes(gridCells, targetSize);
-        int i = 0;
-        int y = 0;
-        int imageCount = paths.size();
-        for (int row = 0; row < gridCells; row++) {
-            int x = 0;
-            for (int col = 0; col < gridCells; col++) {
-                // Special case for two images in a two by two grid, we want to alternate the images on each row, and
-                // we can accomplish that by using the XOR operator to derive the image index
-                if (imageCount == 2) {
-                    i = row ^ col;
-                }
-                BufferedImage sourceImage = ImageIO.read(paths.get(i % imageCount).toFile());
-                int gridCellSize = gridCellSizes[col];
-                Image scaledImage = sourceImage.getScaledInstance(gridCellSize, gridCellSize, Image.SCALE_SMOOTH);
-                g2.drawImage(scaledImage, x, y, null);
-                x += gridCellSize;
-                i++;
+        Map<Path, List<ArtImageCacheKey>> sourceKeys = sourceKeys(cellKeyCounts.keySet());
+        boolean[] direct = new boolean[cellKeys.length];
+        Map<ArtImageCacheKey, BufferedImage> cellImages = new HashMap<>();
+        for (int cell = 0; cell < cellKeys.length; cell++) {
+            ArtImageCacheKey cellKey = cellKeys[cell];
+            // An image not needed again, at any size, is scaled straight into the target image when its cell is drawn
+            direct[cell] = cache == null && cellKeyCounts.get(cellKey) == 1 && sourceKeys.get(cellKey.path()).size() == 1 && layout.cellWidth(cell) == layout.cellHeight(cell);
+            if (!direct[cell] && !cellImages.containsKey(cellKey)) {
+                cellImages.putAll(cellImages(sourceKeys.get(cellKey.path())));
+            }
+        }
+        for (int cell = 0; cell < cellKeys.length; cell++) {
+            ArtImageCacheKey cellKey = cellKeys[cell];
+            if (direct[cell]) {
+                ArtScaler.scale(readImage(cellKey), cellKey.size(), target, targetSize, targetSize, layout.cellX(cell), layout.cellY(cell), quality, true);
+            } else {
+                copyCell(cellImages.get(cellKey), layout, cell, target, targetSize);
             }
-            y += gridCellSizes[row];
         }
         return targetImage;
     }
 
     /**
-     * Calculate the necessary number of grid cells (in each direction).
+     * Compose a collection of image files into a grid, and encode the composite image to an output stream.
+     *
+     * @param paths collection if image file paths
+     * @param targetSize size of the target image (a square grid, so width and height will be the same)
+     * @param maxGridCells maximum number of grid cells to use
+     * @param backgroundColour optional background colour for the image (in case of gaps due to integer division when calculating grid cell sizes)
+     * @param writer image writer used to encode the composite image
+     * @param output stream to write the encoded image to, this is not closed
+     * @throws IOException if an error occurs when reading or writing an image file
+     */
+    public void compose(List<Path> paths, int targetSize, int maxGridCells, Color backgroundColour, ArtImageWriter writer, OutputStream output) throws IOException {
+        writer.write(composeInto(reusedTargetImage(targetSize, backgroundColour), paths, maxGridCells), output);
+    }
+
+    /**
+     * Compose a collection of image files into a grid, and encode the composite image to a channel.
+     *
+     * @param paths collection if image file paths
+     * @param targetSize size of the target image (a square grid, so width and height will be the same)
+     * @param maxGridCells maximum number of grid cells to use
+     * @param backgroundColour optional background colour for the image (in case of gaps due to integer division when calculating grid cell sizes)
+     * @param writer image writer used to encode the composite image
+     * @param channel channel to write the encoded image to, this is not closed
+     * @throws IOException if an error occurs when reading or writing an image file
+     */
+    public void compose(List<Path> paths, int targetSize, int maxGridCells, Color backgroundColour, ArtImageWriter writer, WritableByteChannel channel) throws IOException {
+        writer.write(composeInto(reusedTargetImage(targetSize, backgroundColour), paths, maxGridCells), channel);
+    }
+
+    /**
+     * Compose a collection of image files into a grid, and encode the composite image to a buffer.
      *
-     * @param itemCount total number of items to fit into the grid
+     * @param paths collection if image file paths
+     * @param targetSize size of the target image (a square grid, so width and height will be the same)
      * @param maxGridCells maximum number of grid cells to use
-     * @return minimum number of grid cells needed to fit all of the items
+     * @param backgroundColour optional background colour for the image (in case of gaps due to integer division when calculating grid cell sizes)
+     * @param writer image writer used to encode the composite image
+     * @param buffer buffer to reuse, may be <code>null</code>
+     * @return buffer containing the encoded image, flipped ready for reading, see {@link ArtImageWriter#write(BufferedImage, ByteBuffer)}
+     * @throws IOException if an error occurs when reading or writing an image file
      */
-    private static int calculateGridCells(int itemCount, int maxGridCells) {
-        return Math.min(maxGridCells, (int) Math.ceil(Math.sqrt(itemCount)));
+    public ByteBuffer compose(List<Path> paths, int targetSize, int maxGridCells, Color backgroundColour, ArtImageWriter writer, ByteBuffer buffer) throws IOException {
+        return writer.write(composeInto(reusedTargetImage(targetSize, backgroundColour), paths, maxGridCells), buffer);
     }
 
     /**
-     * Calculate the size of each grid cell such that space is evenly divided as much as possible, then distributing any
-     * remainder (due to integer division) evenly amongst the cells as much as possible.
+     * Compose a collection of image files into a grid, and encode the composite image to a file.
+     * <p>
+     * Any existing file is replaced atomically, see {@link ArtImageWriter#write(BufferedImage, Path)}.
      *
-     * @param gridCells number of grid cells in each direction, e.g. 3 for a 3x3 grid
-     * @param targetSize width for the target image, in whole pixels
-     * @return array of evenly distributed cell widths
+     * @param paths collection if image file paths
+     * @param targetSize size of the target image (a square grid, so width and height will be the same)
+     * @param maxGridCells maximum number of grid cells to use
+     * @param backgroundColour optional background colour for the image (in case of gaps due to integer division when calculating grid cell sizes)
+     * @param writer image writer used to encode the composite image
+     * @param outputFile file to write the encoded image to
+     * @throws IOException if an error occurs when reading or writing an image file
      */
-    private static int[] calculateGridCellSizes(int gridCells, int targetSize) {
-        int gridCellSize = targetSize / gridCells;
-        int gridCellRemainder = targetSize % gridCells;
-        int[] gridCellSizes = new int[gridCells];
-        for (int i = 0; i < gridCells; i++) {
-            // Set the grid cell size, accounting for an extra pixel width where needed due to integer division
-            gridCellSizes[i] = i < gridCellRemainder ? gridCellSize+1 : gridCellSize;
+    public void compose(List<Path> paths, int targetSize, int maxGridCells, Color backgroundColour, ArtImageWriter writer, Path outputFile) throws IOException {
+        writer.write(composeInto(reusedTargetImage(targetSize, backgroundColour), paths, maxGridCells), outputFile);
+    }
+
+    /**
+     * Compose a collection of image files into a grid asynchronously.
+     *
+     * @param paths collection if image file paths
+     * @param targetSize size of the target image (a square grid, so width and height will be the same)
+     * @param maxGridCells maximum number of grid cells to use
+     * @param executor executor used to load the grid cell images and compose the final image
+     * @return future composite image
+     * @see #composeAsync(List, int, int, Color, Executor)
+     */
+    public CompletableFuture<BufferedImage> composeAsync(List<Path> paths, int targetSize, int maxGridCells, Executor executor) {
+        return composeAsync(paths, targetSize, maxGridCells, null, executor);
+    }
+
+    /**
+     * Compose a collection of image files into a grid asynchronously.
+     * <p>
+     * The grid cell images are decoded and scaled concurrently using the supplied executor.
+     * <p>
+     * If an identical request (the same paths, target size, maximum grid cells and background colour) is already in
+     * progress, no new work is started and the result of the request already in progress is used instead. This means
+     * the same image instance may be returned to multiple callers, so the returned image must not be modified.
+     *
+     * @param paths collection if image file paths
+     * @param targetSize size of the target image (a square grid, so width and height will be the same)
+     * @param maxGridCells maximum number of grid cells to use
+     * @param backgroundColour optional background colour for the image (in case of gaps due to integer division when calculating grid cell sizes)
+     * @param executor executor used to load the grid cell images and compose the final image
+     * @return future composite image, completed exceptionally with an {@link IOException} if an error occurs when
+     *         reading an image file, or with a {@link RejectedExecutionException} if the executor does not accept the
+     *         work
+     */
+    public CompletableFuture<BufferedImage> composeAsync(List<Path> paths, int targetSize, int maxGridCells, Color backgroundColour, Executor executor) {
+        ArtCompositeKey key = new ArtCompositeKey(paths, targetSize, maxGridCells, backgroundColour != null ? backgroundColour.getRGB() : null);
+        ArtGridLayout layout = ArtGridLayout.of(key.paths().size(), targetSize, maxGridCells, gridStrategy);
+        CompletableFuture<BufferedImage> result = new CompletableFuture<>();
+        CompletableFuture<BufferedImage> existing = inFlight.putIfAbsent(key, result);
+        if (existing == null) {
+            existing = result;
+            result.whenComplete((image, failure) -> inFlight.remove(key, result));
+            try {
+                composeAsync(key, layout, targetSize, backgroundColour, executor, result);
+            } catch (RejectedExecutionException e) {
+                // Otherwise every later identical request would join a future that never completes
+                result.completeExceptionally(e);
+                inFlight.remove(key, result);
+            }
+        }
+        // Give each caller its own dependent future, so one caller cancelling its request does not affect the others
+        return existing.thenApply(Function.identity());
+    }
+
+    /**
+     * Start the work to compose a grid asynchronously.
+     *
+     * @param key composite key
+     * @param layout grid layout
+     * @param targetSize size of the target image
+     * @param backgroundColour optional background colour for the image
+     * @param executor executor used to load the grid cell images and compose the final image
+     * @param result future to complete with the composite image
+     * @throws RejectedExecutionException if the executor does not accept the first task
+     */
+    private void composeAsync(ArtCompositeKey key, ArtGridLayout layout, int targetSize, Color backgroundColour, Executor executor, CompletableFuture<BufferedImage> result) {
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return calculateCellKeys(key.paths(), layout);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor).thenCompose(cellKeys -> {
+            // Each source image is loaded concurrently, and decoded once for all of the sizes it is scaled to
+            List<CompletableFuture<Map<ArtImageCacheKey, BufferedImage>>> sourceImages = new ArrayList<>();
+            for (List<ArtImageCacheKey> keys : sourceKeys(Arrays.asList(cellKeys)).values()) {
+                sourceImages.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return cellImages(keys);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor));
+            }
+            return CompletableFuture.allOf(sourceImages.toArray(new CompletableFuture<?>[0])).thenApplyAsync(v -> {
+                Map<ArtImageCacheKey, BufferedImage> cellImages = new HashMap<>();
+                for (CompletableFuture<Map<ArtImageCacheKey, BufferedImage>> sourceImage : sourceImages) {
+                    cellImages.putAll(sourceImage.join());
+                }
+                BufferedImage targetImage = newTargetImage(targetSize, backgroundColour);
+                int[] target = ((DataBufferInt) targetImage.getRaster().getDataBuffer()).getData();
+                for (int cell = 0; cell < cellKeys.length; cell++) {
+                    copyCell(cellImages.get(cellKeys[cell]), layout, cell, target, targetSize);
+                }
+                return targetImage;
+            }, executor);
+        }).whenComplete((image, failure) -> {
+            if (failure == null) {
+                result.complete(image);
+            } else {
+                result.completeExceptionally(failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure);
+            }
+        });
+    }
+
+    /**
+     * Create a new, empty, target image.
+     *
+     * @param targetSize size of the target image
+     * @param backgroundColour optional background colour for the image
+     * @return target image
+     */
+    private static BufferedImage newTargetImage(int targetSize, Color backgroundColour) {
+        BufferedImage result = new BufferedImage(targetSize, targetSize, BufferedImage.TYPE_INT_RGB);
+        if (backgroundColour != null) {
+            Arrays.fill(((DataBufferInt) result.getRaster().getDataBuffer()).getData(), backgroundColour.getRGB());
+        }
+        return result;
+    }
+
+    /**
+     * Get the target image reused by the calling thread, cleared to the background colour.
+     * <p>
+     * The image is only valid until the next call on the same thread, so it must not escape the compositor.
+     *
+     * @param targetSize size of the target image
+     * @param backgroundColour optional background colour for the image
+     * @return target image
+     */
+    private static BufferedImage reusedTargetImage(int targetSize, Color backgroundColour) {
+        BufferedImage result = reusedTargetImage.get();
+        if (result == null || result.getWidth() != targetSize) {
+            result = newTargetImage(targetSize, backgroundColour);
+            if ((long) targetSize * targetSize <= MAX_REUSED_PIXELS) {
+                reusedTargetImage.set(result);
+            }
+        } else {
+            Arrays.fill(((DataBufferInt) result.getRaster().getDataBuffer()).getData(), backgroundColour != null ? backgroundColour.getRGB() : 0);
         }
-        return gridCellSizes;
+        return result;
+    }
+
+    /**
+     * Work out the cache key, i.e. the source image and the scaled size, for each grid cell.
+     *
+     * @param paths collection of image file paths
+     * @param layout grid layout
+     * @return cache keys, in cell order
+     * @throws IOException if an error occurs when reading the image file attributes
+     */
+    private static ArtImageCacheKey[] calculateCellKeys(List<Path> paths, ArtGridLayout layout) throws IOException {
+        ArtImageCacheKey[] result = new ArtImageCacheKey[layout.cellCount()];
+        Map<Path, Long> lastModified = new HashMap<>();
+        for (int cell = 0; cell < result.length; cell++) {
+            Path path = paths.get(layout.cellItem(cell));
+            Long pathLastModified = lastModified.get(path);
+            if (pathLastModified == null) {
+                pathLastModified = Files.getLastModifiedTime(path).toMillis();
+                lastModified.put(path, pathLastModified);
+            }
+            result[cell] = new ArtImageCacheKey(path, pathLastModified, layout.cellImageSize(cell));
+        }
+        return result;
+    }
+
+    /**
+     * Group the distinct cache keys for a composite by source image.
+     *
+     * @param cellKeys cache keys, possibly repeated
+     * @return distinct cache keys for each source image
+     */
+    private static Map<Path, List<ArtImageCacheKey>> sourceKeys(Iterable<ArtImageCacheKey> cellKeys) {
+        Map<Path, List<ArtImageCacheKey>> result = new LinkedHashMap<>();
+        for (ArtImageCacheKey cellKey : cellKeys) {
+            List<ArtImageCacheKey> keys = result.computeIfAbsent(cellKey.path(), path -> new ArrayList<>());
+            if (!keys.contains(cellKey)) {
+                keys.add(cellKey);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the decoded and scaled images for each of the grid cell sizes of a single source image.
+     * <p>
+     * Images are taken from the cache if possible. If any are not cached, the source image is decoded once, at a
+     * resolution suited to the largest of those sizes, and scaled to each of them.
+     *
+     * @param keys cache keys, all for the same source image
+     * @return scaled images
+     * @throws IOException if an error occurs when reading the image file
+     */
+    private Map<ArtImageCacheKey, BufferedImage> cellImages(List<ArtImageCacheKey> keys) throws IOException {
+        Map<ArtImageCacheKey, BufferedImage> result = new HashMap<>();
+        int decodeSize = 0;
+        for (ArtImageCacheKey key : keys) {
+            BufferedImage cached = cache != null ? cache.get(key) : null;
+            if (cached != null) {
+                result.put(key, cached);
+            } else {
+                decodeSize = Math.max(decodeSize, key.size());
+            }
+        }
+        if (decodeSize > 0) {
+            BufferedImage sourceImage = ArtImageReader.readTransient(keys.get(0).path(), decodeSize);
+            for (ArtImageCacheKey key : keys) {
+                if (!result.containsKey(key)) {
+                    BufferedImage scaledImage = scaleCell(sourceImage, key.size());
+                    if (cache != null) {
+                        cache.put(key, scaledImage);
+                    }
+                    result.put(key, scaledImage);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Copy a scaled image to its grid cell, showing the centre of the image if the cell is not square.
+     *
+     * @param cellImage scaled image
+     * @param layout grid layout
+     * @param cell index of the grid cell
+     * @param target target pixels
+     * @param targetSize size of the target image
+     */
+    private static void copyCell(BufferedImage cellImage, ArtGridLayout layout, int cell, int[] target, int targetSize) {
+        int width = layout.cellWidth(cell);
+        int height = layout.cellHeight(cell);
+        int size = cellImage.getWidth();
+        ArtScaler.copy(cellImage, (size - width) / 2, (size - height) / 2, width, height, target, targetSize, targetSize, layout.cellX(cell), layout.cellY(cell));
+    }
+
+    /**
+     * Scale an image to fit a grid cell, exactly as it would be scaled when composing.
+     * <p>
+     * This can be used to prepare the grid cell images held in an {@link ArtImageCache} from source images that have
+     * already been decoded for some other purpose.
+     *
+     * @param sourceImage source image
+     * @param gridCellSize size of the grid cell
+     * @return scaled image
+     */
+    public BufferedImage scaleCell(BufferedImage sourceImage, int gridCellSize) {
+        // Preserve any transparency so the background colour still shows through when the cell is drawn
+        int type = sourceImage.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage result = new BufferedImage(gridCellSize, gridCellSize, type);
+        int[] pixels = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+        ArtScaler.scale(sourceImage, gridCellSize, pixels, gridCellSize, gridCellSize, 0, 0, quality, false);
+        return result;
+    }
+
+    /**
+     * Decode the source image file for a grid cell, at a resolution suited to the size of the grid cell.
+     * <p>
+     * The decoded image is only ever scaled and then discarded, so it is decoded into an image reused by the calling
+     * thread.
+     *
+     * @param key cache key for the grid cell
+     * @return decoded image, only valid until the next image is decoded on the same thread
+     * @throws IOException if an error occurs when reading the image file
+     */
+    private static BufferedImage readImage(ArtImageCacheKey key) throws IOException {
+        return ArtImageReader.readTransient(key.path(), key.size());
     }
 }
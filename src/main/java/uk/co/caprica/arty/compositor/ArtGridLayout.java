@@ -0,0 +1,406 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.compositor;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Grid layout calculations used when arranging images into a square grid.
+ * <p>
+ * A complete layout, the position and size of each cell together with the item shown in it, can be obtained with
+ * {@link #of(int, int, int, ArtGridStrategy)}. Layouts are immutable and are cached, so repeatedly composing grids of
+ * the same shape does not repeat the calculation.
+ * <p>
+ * Cells are listed in drawing order. With {@link ArtGridStrategy#SQUARE} cells are always square, so a cell can extend
+ * by a pixel into the next row, where it is drawn over by that row, or fall a pixel short of it, leaving a gap for the
+ * background colour. With the other strategies the cells exactly cover the grid.
+ */
+final public class ArtGridLayout {
+
+    /**
+     * Maximum number of cached layouts, the cache is simply emptied if it grows larger than this.
+     */
+    private static final int MAX_CACHED_LAYOUTS = 256;
+
+    /**
+     * Maximum ratio between the long and short sides of a cell for {@link ArtGridStrategy#BALANCED} to use rows.
+     */
+    private static final double MAX_BALANCED_ASPECT = 2.0;
+
+    /**
+     * Cached layouts.
+     */
+    private static final Map<Key, ArtGridLayout> layouts = new ConcurrentHashMap<>();
+
+    private final int gridCells;
+    private final int[] cellX;
+    private final int[] cellY;
+    private final int[] cellWidth;
+    private final int[] cellHeight;
+    private final int[] cellItem;
+
+    private ArtGridLayout(int gridCells, int cellCount) {
+        this.gridCells = gridCells;
+        this.cellX = new int[cellCount];
+        this.cellY = new int[cellCount];
+        this.cellWidth = new int[cellCount];
+        this.cellHeight = new int[cellCount];
+        this.cellItem = new int[cellCount];
+    }
+
+    /**
+     * Get the square grid layout for a grid.
+     *
+     * @param itemCount total number of items to fit into the grid
+     * @param targetSize width for the target image, in whole pixels
+     * @param maxGridCells maximum number of grid cells to use
+     * @return layout
+     */
+    public static ArtGridLayout of(int itemCount, int targetSize, int maxGridCells) {
+        return of(itemCount, targetSize, maxGridCells, ArtGridStrategy.SQUARE);
+    }
+
+    /**
+     * Get the layout for a grid.
+     * <p>
+     * Whatever the strategy, if there are more items than fit in a square grid of the maximum size, a square grid of the
+     * maximum size is used showing only the first items.
+     *
+     * @param itemCount total number of items to fit into the grid
+     * @param targetSize width for the target image, in whole pixels
+     * @param maxGridCells maximum number of grid cells to use in each direction
+     * @param strategy layout strategy
+     * @return layout
+     */
+    public static ArtGridLayout of(int itemCount, int targetSize, int maxGridCells, ArtGridStrategy strategy) {
+        // Beyond a full grid of the maximum size only the first items are shown, so the layout is always the same
+        int layoutItemCount = (int) Math.min(itemCount, (long) maxGridCells * maxGridCells);
+        Key key = new Key(layoutItemCount, targetSize, maxGridCells, strategy);
+        ArtGridLayout result = layouts.get(key);
+        if (result == null) {
+            if (layouts.size() >= MAX_CACHED_LAYOUTS) {
+                layouts.clear();
+            }
+            result = newLayout(layoutItemCount, targetSize, maxGridCells, strategy);
+            layouts.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of grid cells in each direction of the underlying grid.
+     * <p>
+     * For {@link ArtGridStrategy#ROWS} this is the number of rows.
+     *
+     * @return number of grid cells
+     */
+    public int gridCells() {
+        return gridCells;
+    }
+
+    /**
+     * Get the number of cells.
+     *
+     * @return number of cells
+     */
+    public int cellCount() {
+        return cellItem.length;
+    }
+
+    /**
+     * Get the horizontal position of a cell.
+     *
+     * @param cell index of the cell
+     * @return offset from the left of the grid, in pixels
+     */
+    public int cellX(int cell) {
+        return cellX[cell];
+    }
+
+    /**
+     * Get the vertical position of a cell.
+     *
+     * @param cell index of the cell
+     * @return offset from the top of the grid, in pixels
+     */
+    public int cellY(int cell) {
+        return cellY[cell];
+    }
+
+    /**
+     * Get the width of a cell.
+     *
+     * @param cell index of the cell
+     * @return width, in pixels
+     */
+    public int cellWidth(int cell) {
+        return cellWidth[cell];
+    }
+
+    /**
+     * Get the height of a cell.
+     *
+     * @param cell index of the cell
+     * @return height, in pixels
+     */
+    public int cellHeight(int cell) {
+        return cellHeight[cell];
+    }
+
+    /**
+     * Get the size of the square image scaled to cover a cell.
+     * <p>
+     * If the cell is not square, the centre of the scaled image is shown.
+     *
+     * @param cell index of the cell
+     * @return size, in pixels
+     */
+    public int cellImageSize(int cell) {
+        return Math.max(cellWidth[cell], cellHeight[cell]);
+    }
+
+    /**
+     * Get the index of the item shown in a cell.
+     *
+     * @param cell index of the cell
+     * @return item index
+     */
+    public int cellItem(int cell) {
+        return cellItem[cell];
+    }
+
+    /**
+     * Calculate the necessary number of grid cells (in each direction).
+     *
+     * @param itemCount total number of items to fit into the grid
+     * @param maxGridCells maximum number of grid cells to use
+     * @return minimum number of grid cells needed to fit all of the items
+     */
+    public static int calculateGridCells(int itemCount, int maxGridCells) {
+        return Math.min(maxGridCells, (int) Math.ceil(Math.sqrt(itemCount)));
+    }
+
+    /**
+     * Calculate the size of each grid cell such that space is evenly divided as much as possible, then distributing any
+     * remainder (due to integer division) evenly amongst the cells as much as possible.
+     *
+     * @param gridCells number of grid cells in each direction, e.g. 3 for a 3x3 grid
+     * @param targetSize width for the target image, in whole pixels
+     * @return array of evenly distributed cell widths
+     */
+    public static int[] calculateGridCellSizes(int gridCells, int targetSize) {
+        int gridCellSize = targetSize / gridCells;
+        int gridCellRemainder = targetSize % gridCells;
+        int[] gridCellSizes = new int[gridCells];
+        for (int i = 0; i < gridCells; i++) {
+            // Set the grid cell size, accounting for an extra pixel width where needed due to integer division
+            gridCellSizes[i] = i < gridCellRemainder ? gridCellSize+1 : gridCellSize;
+        }
+        return gridCellSizes;
+    }
+
+    /**
+     * Calculate the offset of each grid cell from the cell sizes, each cell starting where the previous one ends.
+     *
+     * @param gridCellSizes size of each grid cell, e.g. from {@link #calculateGridCellSizes(int, int)}
+     * @return offset of each grid cell, the first cell being at zero
+     */
+    public static int[] calculateGridCellOffsets(int[] gridCellSizes) {
+        int[] result = new int[gridCellSizes.length];
+        for (int i = 1; i < gridCellSizes.length; i++) {
+            result[i] = result[i - 1] + gridCellSizes[i - 1];
+        }
+        return result;
+    }
+
+    private static ArtGridLayout newLayout(int itemCount, int targetSize, int maxGridCells, ArtGridStrategy strategy) {
+        int gridCells = calculateGridCells(itemCount, maxGridCells);
+        boolean cover = strategy != ArtGridStrategy.SQUARE;
+        if (itemCount >= gridCells * gridCells) {
+            // The square grid is exactly filled, no other layout is needed
+            return square(itemCount, targetSize, gridCells, cover);
+        }
+        ArtGridLayout result = null;
+        switch (strategy) {
+            case ROWS:
+                result = rows(itemCount, targetSize, maxGridCells, Double.POSITIVE_INFINITY);
+                break;
+            case HERO:
+                result = hero(itemCount, targetSize, maxGridCells);
+                break;
+            case BALANCED:
+                result = hero(itemCount, targetSize, maxGridCells);
+                if (result == null) {
+                    result = rows(itemCount, targetSize, maxGridCells, MAX_BALANCED_ASPECT);
+                }
+                break;
+            default:
+                break;
+        }
+        return result != null ? result : square(itemCount, targetSize, gridCells, cover);
+    }
+
+    /**
+     * Lay out a square grid, repeating items to fill any surplus cells.
+     * <p>
+     * Cells are either square, sized by column, or sized by both column and row so that they exactly cover the grid.
+     */
+    private static ArtGridLayout square(int itemCount, int targetSize, int gridCells, boolean cover) {
+        ArtGridLayout result = new ArtGridLayout(gridCells, gridCells * gridCells);
+        int[] sizes = calculateGridCellSizes(gridCells, targetSize);
+        int[] offsets = calculateGridCellOffsets(sizes);
+        int cell = 0;
+        for (int row = 0; row < gridCells; row++) {
+            for (int col = 0; col < gridCells; col++) {
+                // Special case for two items in a two by two grid, we want to alternate the items on each row, and we
+                // can accomplish that by using the XOR operator to derive the item index
+                int item = itemCount == 2 ? row ^ col : row * gridCells + col;
+                result.setCell(cell++, offsets[col], offsets[row], sizes[col], cover ? sizes[row] : sizes[col], item % itemCount);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Lay out rows of cells with every item shown once, using the number of rows that gives the most square cells.
+     *
+     * @return layout, or <code>null</code> if no number of rows keeps the cells within the maximum aspect ratio
+     */
+    private static ArtGridLayout rows(int itemCount, int targetSize, int maxGridCells, double maxAspect) {
+        int bestRows = 0;
+        double bestAspect = maxAspect;
+        for (int rows = 1; rows <= Math.min(itemCount, maxGridCells); rows++) {
+            // Rows differ by at most one item, the shorter rows first
+            int longest = (itemCount + rows - 1) / rows;
+            int shortest = itemCount / rows;
+            if (longest > maxGridCells) {
+                continue;
+            }
+            double aspect = Math.max(aspect(longest, rows), aspect(shortest, rows));
+            if (aspect <= bestAspect && (bestRows == 0 || aspect < bestAspect)) {
+                bestRows = rows;
+                bestAspect = aspect;
+            }
+        }
+        if (bestRows == 0) {
+            return null;
+        }
+        ArtGridLayout result = new ArtGridLayout(bestRows, itemCount);
+        int[] rowSizes = calculateGridCellSizes(bestRows, targetSize);
+        int[] rowOffsets = calculateGridCellOffsets(rowSizes);
+        int longRows = itemCount % bestRows;
+        int item = 0;
+        for (int row = 0; row < bestRows; row++) {
+            int rowItems = itemCount / bestRows + (row >= bestRows - longRows ? 1 : 0);
+            int[] colSizes = calculateGridCellSizes(rowItems, targetSize);
+            int[] colOffsets = calculateGridCellOffsets(colSizes);
+            for (int col = 0; col < rowItems; col++) {
+                result.setCell(item, colOffsets[col], rowOffsets[row], colSizes[col], rowSizes[row], item);
+                item++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Lay out a square grid with a large cell for the first item, if the remaining items exactly fill the other cells.
+     *
+     * @return layout, or <code>null</code> if there is no such grid within the maximum number of grid cells
+     */
+    private static ArtGridLayout hero(int itemCount, int targetSize, int maxGridCells) {
+        for (int gridCells = 3; gridCells <= maxGridCells; gridCells++) {
+            for (int heroCells = gridCells - 1; heroCells >= 2; heroCells--) {
+                if (gridCells * gridCells - heroCells * heroCells + 1 == itemCount) {
+                    return hero(itemCount, targetSize, gridCells, heroCells);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static ArtGridLayout hero(int itemCount, int targetSize, int gridCells, int heroCells) {
+        ArtGridLayout result = new ArtGridLayout(gridCells, itemCount);
+        int[] sizes = calculateGridCellSizes(gridCells, targetSize);
+        int[] offsets = calculateGridCellOffsets(sizes);
+        result.setCell(0, 0, 0, offsets[heroCells], offsets[heroCells], 0);
+        int item = 1;
+        for (int row = 0; row < gridCells; row++) {
+            for (int col = 0; col < gridCells; col++) {
+                if (row >= heroCells || col >= heroCells) {
+                    result.setCell(item, offsets[col], offsets[row], sizes[col], sizes[row], item);
+                    item++;
+                }
+            }
+        }
+        return result;
+    }
+
+    private void setCell(int cell, int x, int y, int width, int height, int item) {
+        cellX[cell] = x;
+        cellY[cell] = y;
+        cellWidth[cell] = width;
+        cellHeight[cell] = height;
+        cellItem[cell] = item;
+    }
+
+    /**
+     * Get the ratio between the long and short sides of the cells in a row.
+     */
+    private static double aspect(int rowItems, int rows) {
+        return (double) Math.max(rowItems, rows) / Math.min(rowItems, rows);
+    }
+
+    /**
+     * Layout cache key.
+     */
+    private static final class Key {
+
+        private final int itemCount;
+        private final int targetSize;
+        private final int maxGridCells;
+        private final ArtGridStrategy strategy;
+
+        private Key(int itemCount, int targetSize, int maxGridCells, ArtGridStrategy strategy) {
+            this.itemCount = itemCount;
+            this.targetSize = targetSize;
+            this.maxGridCells = maxGridCells;
+            this.strategy = strategy;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return itemCount == key.itemCount && targetSize == key.targetSize && maxGridCells == key.maxGridCells && strategy == key.strategy;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(itemCount, targetSize, maxGridCells, strategy);
+        }
+    }
+}
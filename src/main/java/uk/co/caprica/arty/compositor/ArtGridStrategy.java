@@ -0,0 +1,60 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.compositor;
+
+/**
+ * Strategies for arranging a number of images into the grid cells of a square composite image.
+ */
+public enum ArtGridStrategy {
+
+    /**
+     * A square grid of equally-sized square cells, filling any surplus cells by repeating images from the start.
+     * <p>
+     * For example five images use a 3x3 grid, with four of the images shown twice.
+     */
+    SQUARE,
+
+    /**
+     * Rows of equally-sized cells, with the number of images in each row differing by at most one so that every image
+     * is shown exactly once.
+     * <p>
+     * Cells need not be square, in which case the image is scaled to cover the cell and the centre of it is shown. The
+     * number of rows is chosen to keep the cells as close to square as possible, e.g. five images use a row of two
+     * above a row of three.
+     */
+    ROWS,
+
+    /**
+     * The first image in a large square cell in the top-left corner of a square grid, with the other images in the
+     * remaining, smaller, square cells.
+     * <p>
+     * This only fits certain numbers of images exactly (e.g. six images in a 3x3 grid with a 2x2 hero cell, or eight
+     * images in a 4x4 grid with a 3x3 hero cell), any other number of images uses {@link #SQUARE}.
+     */
+    HERO,
+
+    /**
+     * The layout with no repeated images and the least cropping.
+     * <p>
+     * An exactly filled {@link #SQUARE} grid is used if possible, then a {@link #HERO} layout, then a {@link #ROWS}
+     * layout if its cells are no more than twice as long as they are wide, and otherwise a {@link #SQUARE} grid.
+     */
+    BALANCED
+}
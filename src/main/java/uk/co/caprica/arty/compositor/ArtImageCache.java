@@ -0,0 +1,51 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.compositor;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Specification for a cache of decoded and scaled grid cell images, used by an {@link ArtCompositor} to avoid decoding
+ * and scaling the same source image again when it is used in multiple composites.
+ * <p>
+ * Implementations must be thread-safe, a single cache may be shared by multiple compositors.
+ * <p>
+ * Cached images must be treated as immutable by both the cache and its users.
+ */
+public interface ArtImageCache {
+
+    /**
+     * Get a cached image.
+     *
+     * @param key cache key
+     * @return cached image, or <code>null</code> if there is no cached image for the key
+     */
+    BufferedImage get(ArtImageCacheKey key);
+
+    /**
+     * Add an image to the cache.
+     * <p>
+     * The cache may choose not to retain the image, e.g. if it is too large.
+     *
+     * @param key cache key
+     * @param image image to cache
+     */
+    void put(ArtImageCacheKey key, BufferedImage image);
+}
@@ -0,0 +1,100 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.compositor;
+
+import java.nio.file.Path;
+
+/**
+ * Key for a cached grid cell image.
+ * <p>
+ * The key includes the last modified time of the source image file so that a changed file is never served from the
+ * cache.
+ */
+final public class ArtImageCacheKey {
+
+    private final Path path;
+    private final long lastModified;
+    private final int size;
+
+    /**
+     * Create a cache key.
+     *
+     * @param path path to the source image file
+     * @param lastModified last modified time of the source image file, in milliseconds since the epoch
+     * @param size size of the (square) scaled image
+     */
+    public ArtImageCacheKey(Path path, long lastModified, int size) {
+        this.path = path.toAbsolutePath().normalize();
+        this.lastModified = lastModified;
+        this.size = size;
+    }
+
+    /**
+     * Get the path to the source image file.
+     *
+     * @return absolute path
+     */
+    public Path path() {
+        return path;
+    }
+
+    /**
+     * Get the last modified time of the source image file.
+     *
+     * @return last modified time, in milliseconds since the epoch
+     */
+    public long lastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Get the size of the scaled image.
+     *
+     * @return size, in pixels
+     */
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ArtImageCacheKey)) {
+            return false;
+        }
+        ArtImageCacheKey other = (ArtImageCacheKey) o;
+        return lastModified == other.lastModified && size == other.size && path.equals(other.path);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = path.hashCode();
+        result = 31 * result + Long.hashCode(lastModified);
+        result = 31 * result + size;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[path=%s, lastModified=%d, size=%d]", getClass().getSimpleName(), path, lastModified, size);
+    }
+}
@@ -0,0 +1,475 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.compositor;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
+
+/**
+ * Separable image resampler that scales a source image directly into a region of an integer RGB target raster.
+ * <p>
+ * Source rows are read and filtered horizontally only as they are needed by the vertical filter, and are held in a
+ * small ring buffer, so memory use is proportional to the target width and the filter size rather than to the size of
+ * the source image.
+ * <p>
+ * Sources with an alpha channel are filtered with premultiplied alpha, and are either blended over the existing target
+ * pixels or stored with their (non-premultiplied) alpha.
+ * <p>
+ * The row buffers and the most recently used filter contributions are kept by each thread and reused, so scaling an
+ * image in the steady state allocates almost nothing.
+ */
+final class ArtScaler {
+
+    /**
+     * Number of lobes for the Lanczos filter.
+     */
+    private static final int LANCZOS_LOBES = 3;
+
+    /**
+     * Number of filter contributions kept by each thread.
+     */
+    private static final int CACHED_CONTRIBUTIONS = 8;
+
+    /**
+     * Scratch buffers for each thread.
+     */
+    private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    private ArtScaler() {
+    }
+
+    /**
+     * Scale a source image to a square region of a target raster.
+     * <p>
+     * Any part of the region that lies outside of the target raster is clipped.
+     *
+     * @param source source image
+     * @param size size of the scaled image
+     * @param target target pixels, in integer (A)RGB format
+     * @param targetWidth width of the target raster
+     * @param targetHeight height of the target raster
+     * @param x x position of the scaled image in the target raster
+     * @param y y position of the scaled image in the target raster
+     * @param quality scaling quality
+     * @param blend <code>true</code> to blend a translucent source over the existing target pixels; <code>false</code>
+     *              to store the source alpha in the target pixels
+     */
+    static void scale(BufferedImage source, int size, int[] target, int targetWidth, int targetHeight, int x, int y, ArtScalingQuality quality, boolean blend) {
+        int sourceWidth = source.getWidth();
+        int sourceHeight = source.getHeight();
+        boolean hasAlpha = source.getColorModel().hasAlpha();
+        Scratch buffers = scratch.get();
+        Contributions cx = buffers.contributions(sourceWidth, size, quality);
+        Contributions cy = buffers.contributions(sourceHeight, size, quality);
+        SourceRows sourceRows = new SourceRows(source);
+        int ringSize = cy.maxCount;
+        float[][] ring = buffers.ring(ringSize, size * 4);
+        int[] ringRows = buffers.ringRows(ringSize);
+        Arrays.fill(ringRows, 0, ringSize, -1);
+        int[] sourceRow = buffers.sourceRow(sourceWidth);
+        int width = Math.min(size, targetWidth - x);
+        int height = Math.min(size, targetHeight - y);
+        for (int ty = 0; ty < height; ty++) {
+            int start = cy.start[ty];
+            int count = cy.count[ty];
+            for (int k = 0; k < count; k++) {
+                int row = start + k;
+                int slot = row % ringSize;
+                if (ringRows[slot] != row) {
+                    sourceRows.read(row, sourceRow, sourceWidth);
+                    filterRow(sourceRow, ring[slot], cx, hasAlpha);
+                    ringRows[slot] = row;
+                }
+            }
+            int targetIndex = (y + ty) * targetWidth + x;
+            int weightIndex = ty * cy.maxCount;
+            for (int tx = 0; tx < width; tx++) {
+                float r = 0;
+                float g = 0;
+                float b = 0;
+                float a = 0;
+                int i = tx * 4;
+                for (int k = 0; k < count; k++) {
+                    float w = cy.weights[weightIndex + k];
+                    float[] filtered = ring[(start + k) % ringSize];
+                    r += filtered[i] * w;
+                    g += filtered[i + 1] * w;
+                    b += filtered[i + 2] * w;
+                    a += filtered[i + 3] * w;
+                }
+                target[targetIndex + tx] = hasAlpha ? translucentPixel(r, g, b, a, target[targetIndex + tx], blend) : opaquePixel(r, g, b);
+            }
+        }
+    }
+
+    /**
+     * Copy a previously scaled image to a region of a target raster.
+     * <p>
+     * Any part of the region that lies outside of the target raster is clipped.
+     *
+     * @param image scaled image, must use an integer (A)RGB raster
+     * @param target target pixels, in integer RGB format
+     * @param targetWidth width of the target raster
+     * @param targetHeight height of the target raster
+     * @param x x position of the image in the target raster
+     * @param y y position of the image in the target raster
+     */
+    static void copy(BufferedImage image, int[] target, int targetWidth, int targetHeight, int x, int y) {
+        copy(image, 0, 0, image.getWidth(), image.getHeight(), target, targetWidth, targetHeight, x, y);
+    }
+
+    /**
+     * Copy a region of a previously scaled image to a region of a target raster.
+     * <p>
+     * Any part of the region that lies outside of the target raster is clipped.
+     *
+     * @param image scaled image, must use an integer (A)RGB raster
+     * @param imageX x position of the region in the image
+     * @param imageY y position of the region in the image
+     * @param width width of the region
+     * @param height height of the region
+     * @param target target pixels, in integer RGB format
+     * @param targetWidth width of the target raster
+     * @param targetHeight height of the target raster
+     * @param x x position of the region in the target raster
+     * @param y y position of the region in the target raster
+     */
+    static void copy(BufferedImage image, int imageX, int imageY, int width, int height, int[] target, int targetWidth, int targetHeight, int x, int y) {
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int imageWidth = image.getWidth();
+        width = Math.min(width, targetWidth - x);
+        height = Math.min(height, targetHeight - y);
+        boolean hasAlpha = image.getColorModel().hasAlpha();
+        for (int row = 0; row < height; row++) {
+            int sourceIndex = (imageY + row) * imageWidth + imageX;
+            int targetIndex = (y + row) * targetWidth + x;
+            if (!hasAlpha) {
+                System.arraycopy(pixels, sourceIndex, target, targetIndex, width);
+            } else {
+                for (int col = 0; col < width; col++) {
+                    int p = pixels[sourceIndex + col];
+                    float a = p >>> 24;
+                    float f = a / 255f;
+                    target[targetIndex + col] = translucentPixel(((p >> 16) & 0xff) * f, ((p >> 8) & 0xff) * f, (p & 0xff) * f, a, target[targetIndex + col], true);
+                }
+            }
+        }
+    }
+
+    private static void filterRow(int[] sourceRow, float[] filtered, Contributions cx, boolean hasAlpha) {
+        int size = cx.targetSize;
+        for (int tx = 0; tx < size; tx++) {
+            int start = cx.start[tx];
+            int count = cx.count[tx];
+            int weightIndex = tx * cx.maxCount;
+            float r = 0;
+            float g = 0;
+            float b = 0;
+            float a = 0;
+            for (int k = 0; k < count; k++) {
+                float w = cx.weights[weightIndex + k];
+                int p = sourceRow[start + k];
+                if (hasAlpha) {
+                    float pa = (p >>> 24) * w;
+                    r += ((p >> 16) & 0xff) * pa;
+                    g += ((p >> 8) & 0xff) * pa;
+                    b += (p & 0xff) * pa;
+                    a += pa;
+                } else {
+                    r += ((p >> 16) & 0xff) * w;
+                    g += ((p >> 8) & 0xff) * w;
+                    b += (p & 0xff) * w;
+                }
+            }
+            int i = tx * 4;
+            if (hasAlpha) {
+                // Premultiplied components are scaled back to the 0-255 range
+                filtered[i] = r / 255f;
+                filtered[i + 1] = g / 255f;
+                filtered[i + 2] = b / 255f;
+            } else {
+                filtered[i] = r;
+                filtered[i + 1] = g;
+                filtered[i + 2] = b;
+            }
+            filtered[i + 3] = a;
+        }
+    }
+
+    private static int opaquePixel(float r, float g, float b) {
+        return 0xff000000 | clamp(r) << 16 | clamp(g) << 8 | clamp(b);
+    }
+
+    private static int translucentPixel(float r, float g, float b, float a, int existing, boolean blend) {
+        int alpha = clamp(a);
+        if (blend) {
+            float f = 1f - alpha / 255f;
+            return 0xff000000 |
+                clamp(r + ((existing >> 16) & 0xff) * f) << 16 |
+                clamp(g + ((existing >> 8) & 0xff) * f) << 8 |
+                clamp(b + (existing & 0xff) * f);
+        } else if (alpha == 0) {
+            return 0;
+        } else {
+            float f = 255f / a;
+            return alpha << 24 | clamp(r * f) << 16 | clamp(g * f) << 8 | clamp(b * f);
+        }
+    }
+
+    private static int clamp(float value) {
+        int result = (int) (value + 0.5f);
+        return result < 0 ? 0 : result > 255 ? 255 : result;
+    }
+
+    /**
+     * Calculate the filter contributions for scaling in one dimension.
+     *
+     * @param sourceSize source size
+     * @param targetSize target size
+     * @param quality scaling quality
+     * @return filter contributions
+     */
+    static Contributions contributions(int sourceSize, int targetSize, ArtScalingQuality quality) {
+        double scale = (double) sourceSize / targetSize;
+        // When downscaling the filter is widened so that every source pixel contributes to the result
+        double filterScale = Math.max(scale, 1.0);
+        double radius;
+        switch (quality) {
+            case AREA_AVERAGING:
+                radius = scale / 2 + 1;
+                break;
+            case BILINEAR:
+                radius = filterScale;
+                break;
+            case LANCZOS:
+                radius = LANCZOS_LOBES * filterScale;
+                break;
+            default:
+                throw new IllegalArgumentException("Unexpected scaling quality " + quality);
+        }
+        int maxCount = (int) Math.ceil(radius * 2) + 1;
+        int[] start = new int[targetSize];
+        int[] count = new int[targetSize];
+        float[] weights = new float[targetSize * maxCount];
+        for (int i = 0; i < targetSize; i++) {
+            double center = (i + 0.5) * scale;
+            int first = Math.max(0, (int) Math.floor(center - radius));
+            int last = Math.min(sourceSize - 1, (int) Math.ceil(center + radius));
+            int weightIndex = i * maxCount;
+            double total = 0;
+            int n = 0;
+            for (int j = first; j <= last && n < maxCount; j++) {
+                double w = weight(quality, i, j, scale, center, filterScale);
+                if (n == 0 && w == 0) {
+                    // Skip leading source pixels that do not contribute
+                    first = j + 1;
+                    continue;
+                }
+                weights[weightIndex + n++] = (float) w;
+                total += w;
+            }
+            // Trim trailing source pixels that do not contribute
+            while (n > 1 && weights[weightIndex + n - 1] == 0) {
+                n--;
+            }
+            if (n == 0 || total == 0) {
+                // Degenerate case, use the nearest source pixel
+                first = Math.min(sourceSize - 1, (int) center);
+                weights[weightIndex] = 1f;
+                n = 1;
+            } else {
+                for (int k = 0; k < n; k++) {
+                    weights[weightIndex + k] /= total;
+                }
+            }
+            start[i] = first;
+            count[i] = n;
+        }
+        return new Contributions(sourceSize, targetSize, quality, start, count, weights, maxCount);
+    }
+
+    private static double weight(ArtScalingQuality quality, int i, int j, double scale, double center, double filterScale) {
+        switch (quality) {
+            case AREA_AVERAGING:
+                // Overlap of the source pixel with the area covered by the target pixel
+                return Math.max(0, Math.min(j + 1, (i + 1) * scale) - Math.max(j, i * scale));
+            case BILINEAR:
+                return Math.max(0, 1 - Math.abs((j + 0.5 - center) / filterScale));
+            default:
+                return lanczos((j + 0.5 - center) / filterScale);
+        }
+    }
+
+    private static double lanczos(double x) {
+        if (x == 0) {
+            return 1;
+        }
+        if (x <= -LANCZOS_LOBES || x >= LANCZOS_LOBES) {
+            return 0;
+        }
+        double px = Math.PI * x;
+        return LANCZOS_LOBES * Math.sin(px) * Math.sin(px / LANCZOS_LOBES) / (px * px);
+    }
+
+    /**
+     * Filter contributions for each target pixel in one dimension.
+     * <p>
+     * For target pixel <code>i</code>, source pixels <code>start[i]</code> to <code>start[i] + count[i] - 1</code>
+     * contribute, with weights stored starting at <code>weights[i * maxCount]</code>.
+     */
+    static final class Contributions {
+
+        final int sourceSize;
+        final int targetSize;
+        final ArtScalingQuality quality;
+        final int[] start;
+        final int[] count;
+        final float[] weights;
+        final int maxCount;
+
+        private Contributions(int sourceSize, int targetSize, ArtScalingQuality quality, int[] start, int[] count, float[] weights, int maxCount) {
+            this.sourceSize = sourceSize;
+            this.targetSize = targetSize;
+            this.quality = quality;
+            this.start = start;
+            this.count = count;
+            this.weights = weights;
+            this.maxCount = maxCount;
+        }
+    }
+
+    /**
+     * Reads rows of a source image as integer ARGB pixels, accessing the raster directly for the common image types.
+     */
+    private static final class SourceRows {
+
+        private final BufferedImage image;
+        private final int type;
+        private final int[] intData;
+        private final byte[] byteData;
+        private final int offset;
+        private final int stride;
+
+        private SourceRows(BufferedImage image) {
+            this.image = image;
+            Raster raster = image.getRaster();
+            int imageType = image.getType();
+            if ((imageType == BufferedImage.TYPE_INT_RGB || imageType == BufferedImage.TYPE_INT_ARGB) && raster.getDataBuffer().getNumBanks() == 1) {
+                SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+                this.type = imageType;
+                this.intData = ((DataBufferInt) raster.getDataBuffer()).getData();
+                this.byteData = null;
+                this.stride = sampleModel.getScanlineStride();
+                this.offset = raster.getDataBuffer().getOffset() - raster.getSampleModelTranslateY() * stride - raster.getSampleModelTranslateX();
+            } else if ((imageType == BufferedImage.TYPE_3BYTE_BGR || imageType == BufferedImage.TYPE_4BYTE_ABGR) && raster.getDataBuffer().getNumBanks() == 1) {
+                ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+                this.type = imageType;
+                this.intData = null;
+                this.byteData = ((DataBufferByte) raster.getDataBuffer()).getData();
+                this.stride = sampleModel.getScanlineStride();
+                this.offset = raster.getDataBuffer().getOffset() - raster.getSampleModelTranslateY() * stride - raster.getSampleModelTranslateX() * sampleModel.getPixelStride();
+            } else {
+                this.type = BufferedImage.TYPE_CUSTOM;
+                this.intData = null;
+                this.byteData = null;
+                this.stride = 0;
+                this.offset = 0;
+            }
+        }
+
+        private void read(int row, int[] pixels, int width) {
+            switch (type) {
+                case BufferedImage.TYPE_INT_RGB:
+                case BufferedImage.TYPE_INT_ARGB:
+                    System.arraycopy(intData, offset + row * stride, pixels, 0, width);
+                    break;
+                case BufferedImage.TYPE_3BYTE_BGR:
+                    for (int col = 0, i = offset + row * stride; col < width; col++, i += 3) {
+                        pixels[col] = (byteData[i + 2] & 0xff) << 16 | (byteData[i + 1] & 0xff) << 8 | (byteData[i] & 0xff);
+                    }
+                    break;
+                case BufferedImage.TYPE_4BYTE_ABGR:
+                    for (int col = 0, i = offset + row * stride; col < width; col++, i += 4) {
+                        pixels[col] = (byteData[i] & 0xff) << 24 | (byteData[i + 3] & 0xff) << 16 | (byteData[i + 2] & 0xff) << 8 | (byteData[i + 1] & 0xff);
+                    }
+                    break;
+                default:
+                    image.getRGB(0, row, width, 1, pixels, 0, width);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Buffers reused by a single thread.
+     */
+    private static final class Scratch {
+
+        /**
+         * Most recently used filter contributions, most recent first.
+         */
+        private final Contributions[] contributions = new Contributions[CACHED_CONTRIBUTIONS];
+
+        private float[][] ring = new float[0][];
+        private int[] ringRows = new int[0];
+        private int[] sourceRow = new int[0];
+
+        private Contributions contributions(int sourceSize, int targetSize, ArtScalingQuality quality) {
+            int i = 0;
+            while (i < contributions.length - 1 && contributions[i] != null && !(contributions[i].sourceSize == sourceSize && contributions[i].targetSize == targetSize && contributions[i].quality == quality)) {
+                i++;
+            }
+            Contributions result = contributions[i];
+            if (result == null || result.sourceSize != sourceSize || result.targetSize != targetSize || result.quality != quality) {
+                result = ArtScaler.contributions(sourceSize, targetSize, quality);
+            }
+            // Move to the front, dropping the least recently used if it was not found
+            System.arraycopy(contributions, 0, contributions, 1, i);
+            contributions[0] = result;
+            return result;
+        }
+
+        private float[][] ring(int rows, int length) {
+            if (ring.length < rows || ring[0].length < length) {
+                ring = new float[Math.max(rows, ring.length)][Math.max(length, ring.length > 0 ? ring[0].length : 0)];
+            }
+            return ring;
+        }
+
+        private int[] ringRows(int rows) {
+            if (ringRows.length < rows) {
+                ringRows = new int[rows];
+            }
+            return ringRows;
+        }
+
+        private int[] sourceRow(int width) {
+            if (sourceRow.length < width) {
+                sourceRow = new int[width];
+            }
+            return sourceRow;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.compositor;
+
+/**
+ * Quality levels for scaling source images to fit grid cells.
+ */
+public enum ArtScalingQuality {
+
+    /**
+     * Each target pixel is the average of the source pixels it covers.
+     * <p>
+     * This gives the same results as {@link java.awt.Image#SCALE_SMOOTH}, but is very much faster.
+     */
+    AREA_AVERAGING,
+
+    /**
+     * Bilinear (triangle) filter, widened in proportion to the scale factor when downscaling.
+     * <p>
+     * This is a single-pass equivalent of progressive bilinear scaling (repeated halving followed by a final bilinear
+     * step), giving slightly softer results than area averaging.
+     */
+    BILINEAR,
+
+    /**
+     * Three-lobed Lanczos filter, widened in proportion to the scale factor when downscaling.
+     * <p>
+     * This gives the sharpest results, at the highest cost.
+     */
+    LANCZOS
+}
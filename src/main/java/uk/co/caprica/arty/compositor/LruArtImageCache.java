@@ -0,0 +1,162 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.compositor;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An image cache that is bounded by the total number of bytes used by the pixel data of the cached images, evicting the
+ * least recently used images first.
+ */
+final public class LruArtImageCache implements ArtImageCache {
+
+    /**
+     * Maximum number of bytes of pixel data to cache.
+     */
+    private final long maxBytes;
+
+    /**
+     * Cached images, in access order (least recently used first).
+     */
+    private final LinkedHashMap<ArtImageCacheKey, BufferedImage> images = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Create an image cache.
+     *
+     * @param maxBytes maximum number of bytes of pixel data to cache
+     */
+    public LruArtImageCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public synchronized BufferedImage get(ArtImageCacheKey key) {
+        BufferedImage image = images.get(key);
+        if (image != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return image;
+    }
+
+    @Override
+    public synchronized void put(ArtImageCacheKey key, BufferedImage image) {
+        long imageBytes = bytes(image);
+        if (imageBytes > maxBytes) {
+            return;
+        }
+        BufferedImage previous = images.put(key, image);
+        if (previous != null) {
+            bytes -= bytes(previous);
+        }
+        bytes += imageBytes;
+        Iterator<Map.Entry<ArtImageCacheKey, BufferedImage>> it = images.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= bytes(it.next().getValue());
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Remove all images from the cache.
+     * <p>
+     * The hit, miss and eviction counts are not reset.
+     */
+    public synchronized void clear() {
+        images.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Get the number of cached images.
+     *
+     * @return number of images
+     */
+    public synchronized int count() {
+        return images.size();
+    }
+
+    /**
+     * Get the number of bytes of pixel data used by the cached images.
+     *
+     * @return number of bytes
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Get the maximum number of bytes of pixel data to cache.
+     *
+     * @return maximum number of bytes
+     */
+    public long maxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Get the number of cache lookups that found a cached image.
+     *
+     * @return number of hits
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of cache lookups that did not find a cached image.
+     *
+     * @return number of misses
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Get the number of images that have been removed from the cache to make space for new images.
+     *
+     * @return number of evictions
+     */
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /**
+     * Calculate the number of bytes used by the pixel data of an image.
+     *
+     * @param image image
+     * @return number of bytes
+     */
+    private static long bytes(BufferedImage image) {
+        DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+        return (long) dataBuffer.getSize() * dataBuffer.getNumBanks() * DataBuffer.getDataTypeSize(dataBuffer.getDataType()) / 8;
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.generator;
+
+import uk.co.caprica.arty.compositor.ArtGridLayout;
+import uk.co.caprica.arty.image.ArtImageReader;
+import uk.co.caprica.arty.image.ArtImageWriter;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Component used to pack the generated thumbnails of a particular size for many albums into a small number of large
+ * atlas images, with an {@link ArtAtlasIndex} giving the position of each album in the atlases.
+ * <p>
+ * Each atlas is a square grid of <code>maxGridCells</code> by <code>maxGridCells</code> albums, laid out in the same
+ * way as the grids created by the compositor. The grid does not depend on the number of albums, so albums keep their
+ * position in the atlases between builds and when albums are added, changed or removed only the atlases containing
+ * those albums are rebuilt. Space left by removed albums is reused by new albums.
+ */
+final class ArtAtlasBuilder {
+
+    private final Path outputRootPath;
+    private final int size;
+    private final int maxGridCells;
+    private final String format;
+
+    /**
+     * Create an atlas builder.
+     *
+     * @param outputRootPath directory for the atlas images and index
+     * @param size size of each album image in the atlas
+     * @param maxGridCells maximum number of grid cells in each direction of an atlas image
+     * @param format atlas image format
+     */
+    ArtAtlasBuilder(Path outputRootPath, int size, int maxGridCells, String format) {
+        this.outputRootPath = outputRootPath;
+        this.size = size;
+        this.maxGridCells = maxGridCells;
+        this.format = format;
+    }
+
+    /**
+     * Build, or incrementally rebuild, the atlases.
+     * <p>
+     * Albums whose thumbnail does not exist are left out of the atlases. A thumbnail that is removed while its atlas is
+     * being built leaves an empty cell, and the album is removed from the index by the next build.
+     *
+     * @param thumbnails thumbnail file for each album, keyed by album path
+     * @return number of atlas images that were built
+     * @throws IOException if an error occurs
+     */
+    int build(Map<String, Path> thumbnails) throws IOException {
+        Map<String, BasicFileAttributes> attributes = new TreeMap<>();
+        for (Map.Entry<String, Path> thumbnail : thumbnails.entrySet()) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(thumbnail.getValue(), BasicFileAttributes.class);
+                attributes.put(thumbnail.getKey(), attrs);
+            } catch (NoSuchFileException e) {
+                // No thumbnail, e.g. generating art for the album failed
+            }
+        }
+        ArtAtlasIndex index = ArtAtlasIndex.load(outputRootPath.resolve(ArtAtlasIndex.filename(size)), format, size);
+        int previousAtlasCount = atlasCount(index);
+        int gridCells = maxGridCells;
+        int[] gridCellSizes = ArtGridLayout.calculateGridCellSizes(gridCells, gridCells * size);
+        int[] gridCellOffsets = ArtGridLayout.calculateGridCellOffsets(gridCellSizes);
+        int cellsPerAtlas = gridCells * gridCells;
+        Set<Integer> dirtyAtlases = new TreeSet<>();
+        if (index.gridCells() != gridCells) {
+            // The maximum number of grid cells was changed, so every album must be laid out again
+            index.clear();
+            index.gridCells(gridCells);
+        }
+        for (String key : new ArrayList<>(index.keys())) {
+            BasicFileAttributes attrs = attributes.get(key);
+            ArtAtlasIndex.Entry entry = index.get(key);
+            if (attrs == null) {
+                index.remove(key);
+                dirtyAtlases.add(entry.atlas);
+            } else if (attrs.size() != entry.size || attrs.lastModifiedTime().toMillis() != entry.lastModified) {
+                index.put(key, entry.withAttributes(attrs.size(), attrs.lastModifiedTime().toMillis()));
+                dirtyAtlases.add(entry.atlas);
+            }
+        }
+        Set<Integer> usedSlots = new HashSet<>();
+        for (ArtAtlasIndex.Entry entry : index.entries().values()) {
+            usedSlots.add(entry.atlas * cellsPerAtlas + entry.cell);
+        }
+        int slot = 0;
+        for (Map.Entry<String, BasicFileAttributes> album : attributes.entrySet()) {
+            if (index.get(album.getKey()) == null) {
+                while (usedSlots.contains(slot)) {
+                    slot++;
+                }
+                usedSlots.add(slot);
+                int atlas = slot / cellsPerAtlas;
+                int cell = slot % cellsPerAtlas;
+                BasicFileAttributes attrs = album.getValue();
+                index.put(album.getKey(), new ArtAtlasIndex.Entry(
+                    atlas,
+                    cell,
+                    gridCellOffsets[cell % gridCells],
+                    gridCellOffsets[cell / gridCells],
+                    attrs.size(),
+                    attrs.lastModifiedTime().toMillis()
+                ));
+                dirtyAtlases.add(atlas);
+            }
+        }
+        int atlasCount = atlasCount(index);
+        for (int atlas = 0; atlas < atlasCount; atlas++) {
+            // An atlas image may have been removed even though none of its albums changed
+            if (!Files.exists(outputRootPath.resolve(ArtAtlasIndex.atlasFilename(size, atlas, format)))) {
+                dirtyAtlases.add(atlas);
+            }
+        }
+        int built = 0;
+        for (int atlas : dirtyAtlases) {
+            if (atlas < atlasCount) {
+                buildAtlas(atlas, index, thumbnails, gridCells, gridCellSizes);
+                built++;
+            }
+        }
+        for (int atlas = atlasCount; atlas < previousAtlasCount; atlas++) {
+            Files.deleteIfExists(outputRootPath.resolve(ArtAtlasIndex.atlasFilename(size, atlas, format)));
+        }
+        index.save();
+        return built;
+    }
+
+    /**
+     * Build a single atlas image.
+     *
+     * @param atlas atlas number
+     * @param index atlas index
+     * @param thumbnails thumbnail file for each album, keyed by album path
+     * @param gridCells number of grid cells in each direction
+     * @param gridCellSizes size of each grid cell
+     * @throws IOException if an error occurs
+     */
+    private void buildAtlas(
+        int atlas,
+        ArtAtlasIndex index,
+        Map<String, Path> thumbnails,
+        int gridCells,
+        int[] gridCellSizes
+    ) throws IOException {
+        int atlasSize = gridCells * size;
+        BufferedImage atlasImage = new BufferedImage(atlasSize, atlasSize, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = atlasImage.createGraphics();
+        try {
+            for (Map.Entry<String, ArtAtlasIndex.Entry> mapEntry : index.entries().entrySet()) {
+                ArtAtlasIndex.Entry entry = mapEntry.getValue();
+                if (entry.atlas == atlas) {
+                    BufferedImage thumbnail;
+                    try {
+                        thumbnail = ArtImageReader.read(thumbnails.get(mapEntry.getKey()));
+                    } catch (NoSuchFileException e) {
+                        // The thumbnail was removed after the index was updated, leave the cell empty
+                        continue;
+                    }
+                    int width = gridCellSizes[entry.cell % gridCells];
+                    int height = gridCellSizes[entry.cell / gridCells];
+                    g2.drawImage(thumbnail, entry.x, entry.y, width, height, null);
+                }
+            }
+        } finally {
+            g2.dispose();
+        }
+        Path atlasPath = outputRootPath.resolve(ArtAtlasIndex.atlasFilename(size, atlas, format));
+        // Use the highest quality for lossy formats, for PNG the quality only trades size for speed so keep the default
+        float quality = "png".equalsIgnoreCase(format) ? ArtImageWriter.DEFAULT_QUALITY : 1.0f;
+        new ArtImageWriter(format, quality, false).write(atlasImage, atlasPath);
+    }
+
+    /**
+     * Get the number of atlases used by an index.
+     *
+     * @param index atlas index
+     * @return number of atlases
+     */
+    private static int atlasCount(ArtAtlasIndex index) {
+        int result = 0;
+        for (ArtAtlasIndex.Entry entry : index.entries().values()) {
+            result = Math.max(result, entry.atlas + 1);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.generator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An index of the album art packed into the atlas images for a particular size.
+ * <p>
+ * The index is a simple text file. The second line describes the atlas settings, e.g.
+ * <pre>
+ * # format=jpg size=64 grid=16
+ * </pre>
+ * and is followed by one entry per album with tab-separated fields: atlas number, cell number, x offset, y offset,
+ * thumbnail file size, thumbnail last modified time and album path. The album path is the last field so that it may
+ * itself contain any character other than a line separator.
+ * <p>
+ * The atlas images are in the same directory as the index, named e.g. <code>atlas-64-0.jpg</code>,
+ * <code>atlas-64-1.jpg</code> and so on.
+ * <p>
+ * The thumbnail file size and last modified time are used to detect changed thumbnails, so that only those atlases
+ * containing changed albums need to be rebuilt.
+ */
+final class ArtAtlasIndex {
+
+    /**
+     * First line of the index file, identifying the file format.
+     */
+    private static final String HEADER = "# arty atlas 1";
+
+    /**
+     * Path to the index file.
+     */
+    private final Path indexPath;
+
+    /**
+     * Format of the atlas images.
+     */
+    private final String format;
+
+    /**
+     * Size of each album image in the atlas.
+     */
+    private final int size;
+
+    /**
+     * Number of grid cells in each direction of an atlas image, or zero if the index is empty.
+     */
+    private int gridCells;
+
+    /**
+     * Index entries, keyed by album path relative to the output root path.
+     */
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    private ArtAtlasIndex(Path indexPath, String format, int size) {
+        this.indexPath = indexPath;
+        this.format = format;
+        this.size = size;
+    }
+
+    /**
+     * Get the name of the index file for a particular size.
+     *
+     * @param size size of each album image in the atlas
+     * @return index filename
+     */
+    static String filename(int size) {
+        return String.format("atlas-%d.index", size);
+    }
+
+    /**
+     * Get the name of an atlas image file.
+     *
+     * @param size size of each album image in the atlas
+     * @param atlas atlas number
+     * @param format atlas image format
+     * @return atlas filename
+     */
+    static String atlasFilename(int size, int atlas, String format) {
+        return String.format("atlas-%d-%d.%s", size, atlas, format);
+    }
+
+    /**
+     * Load an index.
+     * <p>
+     * If the index file does not exist, is not a recognised index file, or was created with a different format or size,
+     * an empty index is returned.
+     *
+     * @param indexPath path to the index file
+     * @param format format of the atlas images
+     * @param size size of each album image in the atlas
+     * @return index
+     * @throws IOException if an error occurs reading the index file
+     */
+    static ArtAtlasIndex load(Path indexPath, String format, int size) throws IOException {
+        ArtAtlasIndex index = new ArtAtlasIndex(indexPath, format, size);
+        try (BufferedReader reader = Files.newBufferedReader(indexPath, StandardCharsets.UTF_8)) {
+            String settings = String.format("# format=%s size=%d grid=", format, size);
+            String settingsLine;
+            if (HEADER.equals(reader.readLine()) && (settingsLine = reader.readLine()) != null && settingsLine.startsWith(settings)) {
+                index.gridCells = Integer.parseInt(settingsLine.substring(settings.length()));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t", 7);
+                    if (fields.length == 7) {
+                        index.entries.put(fields[6], new Entry(
+                            Integer.parseInt(fields[0]),
+                            Integer.parseInt(fields[1]),
+                            Integer.parseInt(fields[2]),
+                            Integer.parseInt(fields[3]),
+                            Long.parseLong(fields[4]),
+                            Long.parseLong(fields[5])
+                        ));
+                    }
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // A missing index simply means every atlas will be built
+        }
+        return index;
+    }
+
+    /**
+     * Save the index.
+     * <p>
+     * The index is written to a temporary file which then replaces the existing index file.
+     *
+     * @throws IOException if an error occurs writing the index file
+     */
+    void save() throws IOException {
+        Path tempPath = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            writer.write(String.format("# format=%s size=%d grid=%d", format, size, gridCells));
+            writer.newLine();
+            for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                writer.write(String.format("%d\t%d\t%d\t%d\t%d\t%d\t%s", entry.atlas, entry.cell, entry.x, entry.y, entry.size, entry.lastModified, mapEntry.getKey()));
+                writer.newLine();
+            }
+        }
+        try {
+            Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    int gridCells() {
+        return gridCells;
+    }
+
+    void gridCells(int gridCells) {
+        this.gridCells = gridCells;
+    }
+
+    Entry get(String key) {
+        return entries.get(key);
+    }
+
+    void put(String key, Entry entry) {
+        entries.put(key, entry);
+    }
+
+    Entry remove(String key) {
+        return entries.remove(key);
+    }
+
+    Set<String> keys() {
+        return entries.keySet();
+    }
+
+    Map<String, Entry> entries() {
+        return entries;
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    /**
+     * A single index entry.
+     */
+    static final class Entry {
+
+        /**
+         * Atlas number.
+         */
+        final int atlas;
+
+        /**
+         * Cell number within the atlas, counting across then down.
+         */
+        final int cell;
+
+        /**
+         * Horizontal offset of the album image within the atlas image.
+         */
+        final int x;
+
+        /**
+         * Vertical offset of the album image within the atlas image.
+         */
+        final int y;
+
+        /**
+         * Size of the thumbnail file, in bytes.
+         */
+        final long size;
+
+        /**
+         * Last modified time of the thumbnail file, in milliseconds since the epoch.
+         */
+        final long lastModified;
+
+        Entry(int atlas, int cell, int x, int y, long size, long lastModified) {
+            this.atlas = atlas;
+            this.cell = cell;
+            this.x = x;
+            this.y = y;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        Entry withAttributes(long size, long lastModified) {
+            return new Entry(atlas, cell, x, y, size, lastModified);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.generator;
+
+import uk.co.caprica.arty.compositor.ArtCompositor;
+import uk.co.caprica.arty.compositor.ArtGridStrategy;
+import uk.co.caprica.arty.compositor.ArtScalingQuality;
+import uk.co.caprica.arty.image.ArtImageWriter;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Component used to generate cover art of various standard sizes together with composite images of the same source art
+ * files (e.g. artist or genre mosaics of album covers), in a single pass.
+ * <p>
+ * Generating the art and then separately composing the composites would decode each source image twice. Instead, each
+ * source image is decoded once by the {@link ArtGenerator}, at a resolution sufficient for both the largest generated
+ * size and the largest grid cell it appears in, and the grid cells of every composite that uses it are scaled from that
+ * same decoded image. Source images that do not need any art generated (e.g. when generating incrementally) and source
+ * images outside of the generator's source root path are decoded once afterwards, purely for the composites.
+ * <p>
+ * A composite image is written as soon as all of its grid cells are available, after which its grid cell images are
+ * released. The grid cell images held while waiting for the rest of a composite are limited to a maximum number of
+ * bytes, so memory use does not grow with the size of the collection - a grid cell that does not fit is decoded again
+ * when its composite is written.
+ * <p>
+ * Composites are written with an {@link ArtCompositor} using the same grid layout and scaling, so they are visually
+ * equivalent to composites composed separately. They are not necessarily identical, since a grid cell scaled from the
+ * generator's decode may have been scaled from a higher resolution than a separate composite would decode.
+ */
+final public class ArtBatch {
+
+    /**
+     * Default maximum number of bytes of grid cell image data held while waiting for composites to complete.
+     */
+    public static final long DEFAULT_MAX_RESIDENT_BYTES = 64L * 1024 * 1024;
+
+    private final ArtGenerator generator;
+
+    private final List<Composite> composites = new ArrayList<>();
+
+    private ArtScalingQuality quality = ArtScalingQuality.AREA_AVERAGING;
+    private ArtGridStrategy gridStrategy = ArtGridStrategy.SQUARE;
+    private long maxResidentBytes = DEFAULT_MAX_RESIDENT_BYTES;
+
+    /**
+     * Create a batch.
+     *
+     * @param generator generator for the cover art images
+     */
+    public ArtBatch(ArtGenerator generator) {
+        this.generator = generator;
+    }
+
+    /**
+     * Set the quality used when scaling source images to fit the composite grid cells.
+     * <p>
+     * The default quality is {@link ArtScalingQuality#AREA_AVERAGING}.
+     *
+     * @param quality scaling quality
+     * @return this batch
+     */
+    public ArtBatch quality(ArtScalingQuality quality) {
+        this.quality = quality;
+        return this;
+    }
+
+    /**
+     * Set the strategy used to arrange the source images in the composite grids.
+     * <p>
+     * The default strategy is {@link ArtGridStrategy#SQUARE}.
+     *
+     * @param gridStrategy grid strategy
+     * @return this batch
+     */
+    public ArtBatch gridStrategy(ArtGridStrategy gridStrategy) {
+        this.gridStrategy = gridStrategy;
+        return this;
+    }
+
+    /**
+     * Set the maximum number of bytes of grid cell image data held while waiting for composites to complete.
+     *
+     * @param maxResidentBytes maximum number of bytes, zero to never hold grid cell images
+     * @return this batch
+     */
+    public ArtBatch maxResidentBytes(long maxResidentBytes) {
+        if (maxResidentBytes < 0) {
+            throw new IllegalArgumentException("Maximum resident bytes must not be negative");
+        }
+        this.maxResidentBytes = maxResidentBytes;
+        return this;
+    }
+
+    /**
+     * Add a composite image to the batch.
+     * <p>
+     * Composites sharing source images are best added close together, since composites whose source images are not
+     * decoded by the generator are written in the order they were added.
+     *
+     * @param paths collection of image file paths
+     * @param targetSize size of the target image (a square grid, so width and height will be the same)
+     * @param maxGridCells maximum number of grid cells to use
+     * @param backgroundColour optional background colour for the image (in case of gaps due to integer division when
+     *                         calculating grid cell sizes)
+     * @param writer image writer used to encode the composite image
+     * @param outputFile file to write the encoded composite image to, any existing file is replaced
+     * @return this batch
+     */
+    public ArtBatch composite(
+        List<Path> paths,
+        int targetSize,
+        int maxGridCells,
+        Color backgroundColour,
+        ArtImageWriter writer,
+        Path outputFile
+    ) {
+        if (paths.isEmpty()) {
+            throw new IllegalArgumentException("A composite must have at least one image");
+        }
+        composites.add(new Composite(
+            new ArrayList<>(paths),
+            targetSize,
+            maxGridCells,
+            backgroundColour,
+            writer,
+            outputFile
+        ));
+        return this;
+    }
+
+    /**
+     * Generate the cover art images and write all of the composite images.
+     * <p>
+     * Failure to generate the art for a source file is handled according to the generator's failure policy. Failure to
+     * write a composite image does not prevent the remaining composites from being written, but is reported when the
+     * batch completes.
+     *
+     * @param progress callback to report image generation progress
+     * @throws IOException if an error occurs, including if any composite image could not be written
+     */
+    public void run(ArtGeneratorProgress progress) throws IOException {
+        run(progress, plan());
+    }
+
+    /**
+     * Create the plan for a run of the batch.
+     *
+     * @return plan
+     */
+    ArtBatchPlan plan() {
+        return new ArtBatchPlan(composites, quality, gridStrategy, maxResidentBytes);
+    }
+
+    /**
+     * Generate the cover art images and write all of the composite images, following a particular plan.
+     *
+     * @param progress callback to report image generation progress
+     * @param plan plan for this run
+     * @throws IOException if an error occurs, including if any composite image could not be written
+     */
+    void run(ArtGeneratorProgress progress, ArtBatchPlan plan) throws IOException {
+        generator.generateArt(progress, null, plan);
+        plan.finish();
+    }
+
+    /**
+     * Definition of a composite image.
+     */
+    static final class Composite {
+
+        final List<Path> paths;
+        final int targetSize;
+        final int maxGridCells;
+        final Color backgroundColour;
+        final ArtImageWriter writer;
+        final Path outputFile;
+
+        private Composite(
+            List<Path> paths,
+            int targetSize,
+            int maxGridCells,
+            Color backgroundColour,
+            ArtImageWriter writer,
+            Path outputFile
+        ) {
+            this.paths = paths;
+            this.targetSize = targetSize;
+            this.maxGridCells = maxGridCells;
+            this.backgroundColour = backgroundColour;
+            this.writer = writer;
+            this.outputFile = outputFile;
+        }
+    }
+}
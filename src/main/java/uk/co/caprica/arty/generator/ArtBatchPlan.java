@@ -0,0 +1,412 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.generator;
+
+import uk.co.caprica.arty.compositor.ArtCompositor;
+import uk.co.caprica.arty.compositor.ArtGridLayout;
+import uk.co.caprica.arty.compositor.ArtGridStrategy;
+import uk.co.caprica.arty.compositor.ArtImageCache;
+import uk.co.caprica.arty.compositor.ArtImageCacheKey;
+import uk.co.caprica.arty.compositor.ArtScalingQuality;
+import uk.co.caprica.arty.image.ArtImageReader;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The plan for a single run of an {@link ArtBatch}.
+ * <p>
+ * The plan works out which grid cell sizes are needed from each source file, scales the grid cells from each source
+ * image as it is decoded, and writes each composite as soon as it has all of its grid cells.
+ * <p>
+ * The plan also serves as the image cache for the compositor, holding only the grid cell images of composites that are
+ * still waiting for other source images. Grid cell images are reference counted, since the same grid cell may be used
+ * by more than one composite, and are released as soon as the last composite using them has been written.
+ */
+final class ArtBatchPlan implements ArtDecodeListener, ArtImageCache {
+
+    private final ArtCompositor compositor;
+
+    private final long maxResidentBytes;
+
+    /**
+     * All composites, in the order they were added to the batch.
+     */
+    private final List<Pending> composites = new ArrayList<>();
+
+    /**
+     * Composites still waiting for a source file, keyed by the normalised source file path.
+     */
+    private final Map<Path, List<Need>> needs = new HashMap<>();
+
+    /**
+     * Largest grid cell size needed from each source file, keyed by the normalised source file path.
+     */
+    private final Map<Path, Integer> decodeSizes = new HashMap<>();
+
+    /**
+     * Grid cell images held for composites that have not yet been written.
+     */
+    private final Map<ArtImageCacheKey, Cell> cells = new HashMap<>();
+
+    /**
+     * Failures writing composite images.
+     */
+    private final List<Exception> failures = new ArrayList<>();
+
+    /**
+     * Number of bytes of grid cell image data currently held.
+     */
+    private long residentBytes;
+
+    ArtBatchPlan(
+        List<ArtBatch.Composite> composites,
+        ArtScalingQuality quality,
+        ArtGridStrategy gridStrategy,
+        long maxResidentBytes
+    ) {
+        this.compositor = new ArtCompositor(this, quality, gridStrategy);
+        this.maxResidentBytes = maxResidentBytes;
+        for (ArtBatch.Composite composite : composites) {
+            Pending pending = new Pending(composite);
+            int itemCount = composite.paths.size();
+            int maxGridCells = composite.maxGridCells;
+            ArtGridLayout layout = ArtGridLayout.of(itemCount, composite.targetSize, maxGridCells, gridStrategy);
+            for (int cell = 0; cell < layout.cellCount(); cell++) {
+                Path path = composite.paths.get(layout.cellItem(cell));
+                pending.cellSizes.computeIfAbsent(path, p -> new TreeSet<>()).add(layout.cellImageSize(cell));
+            }
+            for (Map.Entry<Path, Set<Integer>> entry : pending.cellSizes.entrySet()) {
+                Path source = normalise(entry.getKey());
+                needs.computeIfAbsent(source, s -> new ArrayList<>()).add(new Need(pending, entry.getKey()));
+                decodeSizes.merge(source, Collections.max(entry.getValue()), Math::max);
+            }
+            pending.remaining.addAll(pending.cellSizes.keySet());
+            this.composites.add(pending);
+        }
+    }
+
+    @Override
+    public int decodeSize(Path sourceFile) {
+        Integer result = decodeSizes.get(normalise(sourceFile));
+        return result != null ? result : 0;
+    }
+
+    @Override
+    public void decoded(Path sourceFile, BufferedImage sourceImage) {
+        List<Need> sourceNeeds;
+        synchronized (this) {
+            sourceNeeds = needs.remove(normalise(sourceFile));
+        }
+        if (sourceNeeds == null) {
+            return;
+        }
+        long lastModified;
+        try {
+            lastModified = Files.getLastModifiedTime(sourceFile).toMillis();
+        } catch (IOException e) {
+            // Nothing can be held for the file, so its composites will fail when they are written
+            lastModified = -1;
+        }
+        // Each grid cell size is scaled only once, however many composites use it
+        Map<Integer, BufferedImage> scaledImages = new HashMap<>();
+        List<Pending> completed = new ArrayList<>();
+        for (Need need : sourceNeeds) {
+            for (int size : need.pending.cellSizes.get(need.path)) {
+                if (lastModified != -1) {
+                    ArtImageCacheKey key = new ArtImageCacheKey(need.path, lastModified, size);
+                    if (!retain(need.pending, key)) {
+                        long bytes = (long) size * size * 4;
+                        if (reserve(bytes)) {
+                            BufferedImage cellImage = scaledImages.computeIfAbsent(
+                                size,
+                                s -> compositor.scaleCell(sourceImage, s)
+                            );
+                            hold(need.pending, key, cellImage, bytes);
+                        }
+                    }
+                }
+            }
+            synchronized (this) {
+                need.pending.remaining.remove(need.path);
+                if (need.pending.remaining.isEmpty() && !need.pending.written) {
+                    need.pending.written = true;
+                    completed.add(need.pending);
+                }
+            }
+        }
+        for (Pending pending : completed) {
+            write(pending);
+        }
+    }
+
+    @Override
+    public synchronized BufferedImage get(ArtImageCacheKey key) {
+        Cell cell = cells.get(key);
+        return cell != null ? cell.image : null;
+    }
+
+    @Override
+    public void put(ArtImageCacheKey key, BufferedImage image) {
+        // Grid cells decoded by the compositor itself are not needed again
+    }
+
+    /**
+     * Complete the plan once all of the art has been generated.
+     * <p>
+     * Source files still needed by composites, i.e. those that did not need any art to be generated, are decoded once
+     * each, in composite order, and any composites still not written are then written.
+     *
+     * @throws IOException if any composite image could not be written
+     */
+    void finish() throws IOException {
+        for (Pending pending : composites) {
+            List<Path> remaining;
+            synchronized (this) {
+                remaining = new ArrayList<>(pending.remaining);
+            }
+            for (Path path : remaining) {
+                BufferedImage sourceImage;
+                try {
+                    sourceImage = ArtImageReader.readTransient(path, decodeSize(path));
+                } catch (IOException e) {
+                    // Reported when the composite is written
+                    continue;
+                }
+                decoded(path, sourceImage);
+            }
+        }
+        for (Pending pending : composites) {
+            boolean write;
+            synchronized (this) {
+                write = !pending.written;
+                pending.written = true;
+            }
+            if (write) {
+                write(pending);
+            }
+        }
+        if (!failures.isEmpty()) {
+            Exception failure = failures.get(0);
+            for (Exception suppressed : failures.subList(1, failures.size())) {
+                failure.addSuppressed(suppressed);
+            }
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            }
+            throw (RuntimeException) failure;
+        }
+    }
+
+    /**
+     * Get the number of times each composite image has been written, or an attempt made to write it, used to check that
+     * each composite is written exactly once.
+     *
+     * @return number of writes for each composite, in the order the composites were added
+     */
+    synchronized List<Integer> writes() {
+        List<Integer> result = new ArrayList<>();
+        for (Pending pending : composites) {
+            result.add(pending.writes);
+        }
+        return result;
+    }
+
+    /**
+     * Add a reference to a grid cell image that is already held.
+     *
+     * @param pending composite using the grid cell image
+     * @param key grid cell key
+     * @return <code>true</code> if the grid cell image was already held; <code>false</code> if it was not
+     */
+    private synchronized boolean retain(Pending pending, ArtImageCacheKey key) {
+        Cell cell = cells.get(key);
+        if (cell == null) {
+            return false;
+        }
+        cell.references++;
+        pending.cells.add(key);
+        return true;
+    }
+
+    /**
+     * Reserve space to hold a new grid cell image.
+     *
+     * @param bytes number of bytes of image data
+     * @return <code>true</code> if there was space; <code>false</code> if the image must not be held
+     */
+    private synchronized boolean reserve(long bytes) {
+        if (residentBytes + bytes > maxResidentBytes) {
+            return false;
+        }
+        residentBytes += bytes;
+        return true;
+    }
+
+    /**
+     * Hold a new grid cell image, for which space has already been reserved.
+     *
+     * @param pending composite using the grid cell image
+     * @param key grid cell key
+     * @param image grid cell image
+     * @param bytes number of bytes of image data
+     */
+    private synchronized void hold(Pending pending, ArtImageCacheKey key, BufferedImage image, long bytes) {
+        Cell cell = cells.get(key);
+        if (cell != null) {
+            // The same source file was decoded concurrently under another path, give back the reserved space
+            residentBytes -= bytes;
+            cell.references++;
+        } else {
+            cells.put(key, new Cell(image, bytes));
+        }
+        pending.cells.add(key);
+    }
+
+    /**
+     * Write a composite image, then release its grid cell images.
+     *
+     * @param pending composite to write
+     */
+    private void write(Pending pending) {
+        ArtBatch.Composite composite = pending.composite;
+        synchronized (this) {
+            pending.writes++;
+        }
+        try {
+            Path parent = composite.outputFile.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            compositor.compose(
+                composite.paths,
+                composite.targetSize,
+                composite.maxGridCells,
+                composite.backgroundColour,
+                composite.writer,
+                composite.outputFile
+            );
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                failures.add(e);
+            }
+        } finally {
+            release(pending);
+        }
+    }
+
+    /**
+     * Release the grid cell images used by a composite.
+     *
+     * @param pending composite
+     */
+    private synchronized void release(Pending pending) {
+        for (ArtImageCacheKey key : pending.cells) {
+            Cell cell = cells.get(key);
+            if (--cell.references == 0) {
+                cells.remove(key);
+                residentBytes -= cell.bytes;
+            }
+        }
+        pending.cells.clear();
+    }
+
+    private static Path normalise(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    /**
+     * A composite, with the grid cells it needs and those it still waits for.
+     */
+    private static final class Pending {
+
+        private final ArtBatch.Composite composite;
+
+        /**
+         * Grid cell sizes needed from each path, as given in the composite definition.
+         */
+        private final Map<Path, Set<Integer>> cellSizes = new LinkedHashMap<>();
+
+        /**
+         * Paths whose source image has not yet been decoded.
+         */
+        private final Set<Path> remaining = new HashSet<>();
+
+        /**
+         * Keys of the grid cell images held for this composite.
+         */
+        private final List<ArtImageCacheKey> cells = new ArrayList<>();
+
+        private boolean written;
+
+        /**
+         * Number of times the composite image has been written, or an attempt made to write it.
+         */
+        private int writes;
+
+        private Pending(ArtBatch.Composite composite) {
+            this.composite = composite;
+        }
+    }
+
+    /**
+     * A composite waiting for a source file.
+     */
+    private static final class Need {
+
+        private final Pending pending;
+
+        /**
+         * Path of the source file, as given in the composite definition.
+         */
+        private final Path path;
+
+        private Need(Pending pending, Path path) {
+            this.pending = pending;
+            this.path = path;
+        }
+    }
+
+    /**
+     * A held grid cell image.
+     */
+    private static final class Cell {
+
+        private final BufferedImage image;
+        private final long bytes;
+        private int references = 1;
+
+        private Cell(BufferedImage image, long bytes) {
+            this.image = image;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.generator;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * A token used to cooperatively stop an art generation run.
+ * <p>
+ * The token is checked before each source file is processed, and before each size is generated, so a run stops soon
+ * after the token is cancelled, without leaving any partially written images behind. Generation of a source file that
+ * is stopped part-way may leave some of its sizes generated and others not, an incremental run will process such a file
+ * again.
+ * <p>
+ * The token may be cancelled from any thread.
+ */
+final public class ArtCancellationToken {
+
+    private volatile boolean cancelled;
+
+    /**
+     * Cancel the run.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Check whether the run has been cancelled.
+     *
+     * @return <code>true</code> if the run has been cancelled; <code>false</code> otherwise
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Stop the run if it has been cancelled.
+     *
+     * @throws CancellationException if the run has been cancelled
+     */
+    void check() {
+        if (cancelled) {
+            throw new CancellationException("Art generation was cancelled");
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.generator;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+
+/**
+ * Specification for a component that makes further use of the source images decoded during a generation run.
+ * <p>
+ * Listener methods may be invoked concurrently from multiple threads when files are processed in parallel.
+ */
+interface ArtDecodeListener {
+
+    /**
+     * Get the minimum size that a source file must be decoded for, beyond the sizes being generated.
+     *
+     * @param sourceFile source art file
+     * @return size, or zero if the listener has no use for the source file
+     */
+    int decodeSize(Path sourceFile);
+
+    /**
+     * A source file has been decoded.
+     * <p>
+     * The image must not be modified.
+     *
+     * @param sourceFile source art file
+     * @param sourceImage decoded source image
+     */
+    void decoded(Path sourceFile, BufferedImage sourceImage);
+}
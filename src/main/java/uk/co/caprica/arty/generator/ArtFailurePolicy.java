@@ -0,0 +1,38 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.generator;
+
+/**
+ * Policy governing what happens when generating art for a particular file fails.
+ */
+public enum ArtFailurePolicy {
+
+    /**
+     * Stop generating art at the first failure, the failure is rethrown to the caller once any in-progress files have
+     * finished.
+     */
+    ABORT,
+
+    /**
+     * Report the failure via {@link ArtGeneratorProgress#generateFailed(int, int, java.nio.file.Path, Exception)} and
+     * carry on with the remaining files.
+     */
+    CONTINUE
+}
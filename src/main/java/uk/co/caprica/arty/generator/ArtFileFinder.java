@@ -0,0 +1,141 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.generator;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A file source that recursively searches for cover art files, searching sibling directories in parallel.
+ * <p>
+ * Discovered files are made available as soon as they are found, so processing of those files can overlap with the
+ * search for the remaining files. The order in which files are discovered is not defined.
+ * <p>
+ * As with {@link ArtFileVisitor}, symbolic links to directories are not followed and directories that can not be read
+ * are skipped.
+ * <p>
+ * Instances of this class should not be reused.
+ */
+final class ArtFileFinder implements ArtFileSource {
+
+    /**
+     * Marker placed on the queue when the search is complete.
+     */
+    private static final Path END = Paths.get("");
+
+    /**
+     * Cover art filename to search for.
+     */
+    private final String artFilename;
+
+    /**
+     * Queue of discovered cover art file paths.
+     */
+    private final BlockingQueue<Path> results = new LinkedBlockingQueue<>();
+
+    /**
+     * Create a file finder and start searching.
+     *
+     * @param sourceRootPath directory to search
+     * @param artFilename standard name of the cover art file to search for, e.g. "cover.jpg"
+     * @param pool pool used to execute the search
+     */
+    ArtFileFinder(Path sourceRootPath, String artFilename, ForkJoinPool pool) {
+        this.artFilename = artFilename;
+        pool.execute(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                try {
+                    new DirectoryTask(sourceRootPath).invoke();
+                } finally {
+                    results.add(END);
+                }
+            }
+        });
+    }
+
+    @Override
+    public Path next() throws IOException {
+        try {
+            Path result = results.take();
+            if (result == END) {
+                // Put the marker back so that any subsequent call also sees the end
+                results.add(END);
+                return null;
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while searching for art files");
+        }
+    }
+
+    /**
+     * Task to search a single directory, forking a new task for each sub-directory.
+     */
+    private final class DirectoryTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+
+        private DirectoryTask(Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryTask> subdirectoryTasks = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    visitEntry(entry, subdirectoryTasks);
+                }
+            } catch (IOException e) {
+                // Continue with the next directory, a failure should never happen
+            }
+            invokeAll(subdirectoryTasks);
+        }
+
+        private void visitEntry(Path entry, List<DirectoryTask> subdirectoryTasks) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if (attrs.isDirectory()) {
+                    subdirectoryTasks.add(new DirectoryTask(entry));
+                } else if (entry.getFileName().toString().equals(artFilename)) {
+                    results.add(entry);
+                }
+            } catch (IOException e) {
+                // Continue with the next entry, a failure should never happen
+            }
+        }
+    }
+}
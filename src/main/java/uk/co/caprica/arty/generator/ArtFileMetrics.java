@@ -0,0 +1,214 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.generator;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Metrics for the generation of art for a single source file.
+ * <p>
+ * All times are in nanoseconds.
+ */
+final public class ArtFileMetrics {
+
+    private final Path path;
+    private final long sourceBytes;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final long decodeNanos;
+    private final List<Size> sizes;
+    private final long totalNanos;
+
+    ArtFileMetrics(
+        Path path,
+        long sourceBytes,
+        int sourceWidth,
+        int sourceHeight,
+        long decodeNanos,
+        List<Size> sizes,
+        long totalNanos
+    ) {
+        this.path = path;
+        this.sourceBytes = sourceBytes;
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.decodeNanos = decodeNanos;
+        this.sizes = Collections.unmodifiableList(sizes);
+        this.totalNanos = totalNanos;
+    }
+
+    /**
+     * Get the path of the source file.
+     *
+     * @return path, relative to the source root path
+     */
+    public Path path() {
+        return path;
+    }
+
+    /**
+     * Get the size of the source file.
+     *
+     * @return number of bytes read
+     */
+    public long sourceBytes() {
+        return sourceBytes;
+    }
+
+    /**
+     * Get the full resolution width of the source image.
+     *
+     * @return width
+     */
+    public int sourceWidth() {
+        return sourceWidth;
+    }
+
+    /**
+     * Get the full resolution height of the source image.
+     *
+     * @return height
+     */
+    public int sourceHeight() {
+        return sourceHeight;
+    }
+
+    /**
+     * Get the time taken to decode the source image.
+     *
+     * @return decode time
+     */
+    public long decodeNanos() {
+        return decodeNanos;
+    }
+
+    /**
+     * Get the metrics for each generated size.
+     *
+     * @return size metrics, largest first
+     */
+    public List<Size> sizes() {
+        return sizes;
+    }
+
+    /**
+     * Get the total time taken to generate art for the source file.
+     *
+     * @return total time
+     */
+    public long totalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Get the total size of the generated images.
+     *
+     * @return number of bytes written
+     */
+    public long bytesWritten() {
+        long result = 0;
+        for (Size size : sizes) {
+            result += size.bytesWritten;
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "%s[path=%s,source=%dx%d,sourceBytes=%d,decode=%dus,sizes=%s,total=%dus]",
+            getClass().getSimpleName(),
+            path,
+            sourceWidth,
+            sourceHeight,
+            sourceBytes,
+            decodeNanos / 1000,
+            sizes,
+            totalNanos / 1000
+        );
+    }
+
+    /**
+     * Metrics for a single generated size.
+     */
+    public static final class Size {
+
+        private final int size;
+        private final long resizeNanos;
+        private final long encodeNanos;
+        private final long bytesWritten;
+
+        Size(int size, long resizeNanos, long encodeNanos, long bytesWritten) {
+            this.size = size;
+            this.resizeNanos = resizeNanos;
+            this.encodeNanos = encodeNanos;
+            this.bytesWritten = bytesWritten;
+        }
+
+        /**
+         * Get the generated size.
+         *
+         * @return size, in pixels
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Get the time taken to resize the image.
+         *
+         * @return resize time
+         */
+        public long resizeNanos() {
+            return resizeNanos;
+        }
+
+        /**
+         * Get the time taken to encode and write the image.
+         *
+         * @return encode time
+         */
+        public long encodeNanos() {
+            return encodeNanos;
+        }
+
+        /**
+         * Get the size of the generated image file.
+         *
+         * @return number of bytes written
+         */
+        public long bytesWritten() {
+            return bytesWritten;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "%d[resize=%dus,encode=%dus,bytes=%d]",
+                size,
+                resizeNanos / 1000,
+                encodeNanos / 1000,
+                bytesWritten
+            );
+        }
+    }
+}
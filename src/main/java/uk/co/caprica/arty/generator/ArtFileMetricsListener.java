@@ -0,0 +1,36 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.generator;
+
+/**
+ * Specification for a component that receives the metrics for each generated source file.
+ * <p>
+ * When files are processed in parallel this may be invoked concurrently from multiple threads.
+ */
+@FunctionalInterface
+public interface ArtFileMetricsListener {
+
+    /**
+     * Art has been generated for a source file.
+     *
+     * @param metrics metrics for the source file
+     */
+    void fileGenerated(ArtFileMetrics metrics);
+}
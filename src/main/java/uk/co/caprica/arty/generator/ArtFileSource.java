@@ -0,0 +1,51 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.generator;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A source of art files to be processed.
+ */
+@FunctionalInterface
+interface ArtFileSource {
+
+    /**
+     * Get the next art file, waiting if necessary until one is available.
+     *
+     * @return path to the next art file, or <code>null</code> if there are no more files
+     * @throws IOException if an error occurs, including being interrupted while waiting
+     */
+    Path next() throws IOException;
+
+    /**
+     * Create a file source for a fixed list of files.
+     *
+     * @param files list of art files
+     * @return file source
+     */
+    static ArtFileSource of(List<Path> files) {
+        Iterator<Path> iterator = files.iterator();
+        return () -> iterator.hasNext() ? iterator.next() : null;
+    }
+}
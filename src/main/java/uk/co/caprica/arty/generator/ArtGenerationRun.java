@@ -0,0 +1,110 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.generator;
+
+import java.nio.file.Path;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * State associated with a single art generation run.
+ */
+final class ArtGenerationRun {
+
+    /**
+     * Progress reporter for the run.
+     */
+    final ArtProgressReporter reporter;
+
+    /**
+     * Manifest of processed files, or <code>null</code> if generation is not incremental.
+     */
+    final ArtManifest manifest;
+
+    /**
+     * Similarity index to record source image hashes in, or <code>null</code> if hashes are not being recorded.
+     */
+    final ArtSimilarityIndex similarity;
+
+    /**
+     * Metrics for the run, or <code>null</code> if metrics are not being recorded.
+     */
+    final ArtGeneratorMetrics metrics;
+
+    /**
+     * Source files that art has been, or is being, generated for, keyed by content hash, or <code>null</code> if
+     * duplicate source files are not being detected.
+     * <p>
+     * The future completes with the source file when its art has been generated.
+     */
+    final ConcurrentMap<String, CompletableFuture<Path>> renderedSources;
+
+    /**
+     * Listener for decoded source images, or <code>null</code> if there is none.
+     */
+    final ArtDecodeListener decodeListener;
+
+    /**
+     * Token used to cancel the run, or <code>null</code> if the run cannot be cancelled.
+     */
+    final ArtCancellationToken cancellation;
+
+    /**
+     * Scheduler supplying requested source files, or <code>null</code> if there is none.
+     */
+    final ArtScheduler scheduler;
+
+    ArtGenerationRun(ArtProgressReporter reporter, ArtManifest manifest, ArtSimilarityIndex similarity, ArtGeneratorMetrics metrics, boolean deduplicate, ArtDecodeListener decodeListener, ArtCancellationToken cancellation, ArtScheduler scheduler) {
+        this.reporter = reporter;
+        this.manifest = manifest;
+        this.similarity = similarity;
+        this.metrics = metrics;
+        this.renderedSources = deduplicate ? new ConcurrentHashMap<>() : null;
+        this.decodeListener = decodeListener;
+        this.cancellation = cancellation;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Check whether the run has been cancelled.
+     *
+     * @return <code>true</code> if the run has been cancelled; <code>false</code> otherwise
+     */
+    boolean isCancelled() {
+        return cancellation != null && cancellation.isCancelled();
+    }
+
+    /**
+     * Stop processing a source file if the run, or every request for the file, has been cancelled.
+     *
+     * @param sourceFile source art file
+     * @throws CancellationException if processing should stop
+     */
+    void checkCancelled(Path sourceFile) {
+        if (cancellation != null) {
+            cancellation.check();
+        }
+        if (scheduler != null && scheduler.isCancelled(sourceFile)) {
+            throw new CancellationException(String.format("Art generation was cancelled for %s", sourceFile));
+        }
+    }
+}
@@ -23,10 +23,40 @@ import net.coobird.thumbnailator.Thumbnails;
 import net.coobird.thumbnailator.resizers.configurations.Rendering;
 import net.coobird.thumbnailator.resizers.configurations.ScalingMode;
 
+import uk.co.caprica.arty.image.ArtEncodingProfile;
+import uk.co.caprica.arty.image.ArtImageReader;
+import uk.co.caprica.arty.image.ArtImageWriter;
+import uk.co.caprica.arty.image.ArtPerceptualHash;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Component used to generate cover art of various standard sizes.
@@ -35,15 +65,84 @@ import java.util.List;
  * <p>
  * Using appropriately-sized images rather than having the browser downscale a larger image can significantly improve
  * performance of the frontend user interface.
+ * <p>
+ * Each source image is decoded only once, and every configured size is derived from that single in-memory image. By
+ * default sizes are generated in a cascade, largest first, with each size scaled from the smallest previously generated
+ * image that is still at least {@link #DEFAULT_CASCADE_FACTOR} times larger than it - this bounds the quality drift
+ * that would otherwise accumulate from repeated rescaling. A source image that is very much larger than the largest size
+ * to be generated is decoded at a reduced resolution, see {@link ArtImageReader}.
+ * <p>
+ * Generated images are written to a temporary file and then renamed, so an existing generated image is replaced
+ * atomically and is never seen partially written, see {@link ArtImageWriter}.
+ * <p>
+ * By default every size is encoded in the output format at the highest quality. Each size can instead be given its own
+ * {@link ArtEncodingProfile}, e.g. so that small thumbnails use a lower quality or a maximum encoded size.
+ * <p>
+ * By default files are processed sequentially on the calling thread. An {@link ExecutorService} can be supplied to
+ * process files in parallel, in which case the number of files being processed at any one time (and therefore the
+ * number of decoded source images held in memory) is bounded.
+ * <p>
+ * In incremental mode a manifest of processed source files is kept in the output root directory, and only those source
+ * files that are new, have changed, or were previously generated with different settings are processed. Generated art
+ * for source files that no longer exist is removed. Each processed file is recorded in a journal as soon as its art has
+ * been generated, so a run that is killed part-way resumes where it left off when it is started again.
+ * <p>
+ * The source files can be partitioned into a number of {@link ArtShard}s, with a separate process (possibly on a
+ * separate machine) generating the art for each shard into the same output root directory.
+ * <p>
+ * Source files with identical content (e.g. the same cover art for each disc of a multi-disc album) can be detected,
+ * in which case art is generated only once and the generated images are hard-linked (or, if that is not possible,
+ * copied) for each duplicate.
+ * <p>
+ * The generated images for small sizes can additionally be packed into atlas images, so that a user interface showing
+ * many albums at once can fetch a single atlas image rather than hundreds of individual thumbnails.
+ * <p>
+ * A perceptual hash of each source image can be recorded in an index as the art is generated, so that source images
+ * that look the same or similar can be found later without decoding anything, see {@link ArtSimilarityIndex}.
+ * <p>
+ * Timing and size metrics can be recorded for each file and each generated size by supplying an
+ * {@link ArtGeneratorMetrics} instance.
+ * <p>
+ * A run can be stopped part-way with an {@link ArtCancellationToken}. To generate art for particular source files on
+ * demand, ahead of a run for the entire source tree, see {@link ArtScheduler}.
+ * <p>
+ * To also compose grids of the same source images (e.g. artist or genre mosaics) without decoding them again, see
+ * {@link ArtBatch}.
  */
 final public class ArtGenerator {
 
+    /**
+     * Default minimum ratio between an intermediate image and a target size for the intermediate to be used as the
+     * scaling source.
+     */
+    public static final double DEFAULT_CASCADE_FACTOR = 2.0;
+
     private final Path sourceRootPath;
     private final Path outputRootPath;
     private final int[] sizes;
     private final String artFilename;
     private final String outputFormat;
     private final boolean allowOverwrite;
+    private final ArtImageWriter writer;
+
+    /**
+     * Image writers for sizes with an encoding profile, keyed by size.
+     */
+    private final Map<Integer, ArtImageWriter> sizeWriters = new TreeMap<>();
+
+    private double cascadeFactor = DEFAULT_CASCADE_FACTOR;
+    private ExecutorService executor;
+    private int maxInFlight;
+    private ArtFailurePolicy failurePolicy = ArtFailurePolicy.ABORT;
+    private boolean incremental;
+    private int discoveryParallelism;
+    private ArtGeneratorMetrics metrics;
+    private boolean deduplicate;
+    private int atlasGridCells;
+    private int[] atlasSizes = new int[0];
+    private boolean similarityIndex;
+    private ArtShard shard;
+    private boolean hardLinks = true;
 
     /**
      * Create a configured artwork generator.
@@ -62,6 +161,257 @@ final public class ArtGenerator {
         this.artFilename = artFilename;
         this.outputFormat = outputFormat;
         this.allowOverwrite = allowOverwrite;
+        this.writer = new ArtImageWriter(outputFormat, 1.0f, false);
+    }
+
+    /**
+     * Set the minimum ratio between a previously generated image and a target size for that image to be used as the
+     * source when scaling to the target size.
+     * <p>
+     * Smaller values give more reuse of intermediate images (so less work) at the cost of more accumulated resampling
+     * error. A value of {@link Double#POSITIVE_INFINITY} disables the cascade so that every size is scaled directly
+     * from the decoded source image.
+     *
+     * @param cascadeFactor minimum ratio, must be greater than or equal to 1
+     * @return this generator
+     */
+    public ArtGenerator cascadeFactor(double cascadeFactor) {
+        if (!(cascadeFactor >= 1.0)) {
+            throw new IllegalArgumentException("Cascade factor must be greater than or equal to 1");
+        }
+        this.cascadeFactor = cascadeFactor;
+        return this;
+    }
+
+    /**
+     * Process files in parallel using the supplied executor.
+     * <p>
+     * Any executor may be used, e.g. a fixed thread pool sized to the number of available processors. The executor is
+     * not shut down by the generator.
+     *
+     * @param executor executor used to process files, or <code>null</code> to process files sequentially on the
+     *                 calling thread
+     * @param maxInFlight maximum number of files to process at the same time, this bounds the number of decoded images
+     *                    held in memory - this should usually be at least the number of threads used by the executor
+     * @return this generator
+     */
+    public ArtGenerator executor(ExecutorService executor, int maxInFlight) {
+        if (executor != null && maxInFlight < 1) {
+            throw new IllegalArgumentException("Maximum number of in-flight files must be at least 1");
+        }
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    /**
+     * Set the policy used when generating art for a file fails.
+     * <p>
+     * The default policy is {@link ArtFailurePolicy#ABORT}.
+     *
+     * @param failurePolicy failure policy
+     * @return this generator
+     */
+    public ArtGenerator failurePolicy(ArtFailurePolicy failurePolicy) {
+        this.failurePolicy = failurePolicy;
+        return this;
+    }
+
+    /**
+     * Enable or disable incremental generation.
+     * <p>
+     * When enabled, a source file is skipped if its size, last modified time (or, failing that, content hash) and the
+     * generator settings are unchanged since it was last processed and all of its generated images still exist.
+     * <p>
+     * Generated images for a changed source file are always replaced, irrespective of whether overwriting is allowed.
+     *
+     * @param incremental <code>true</code> to enable incremental generation; <code>false</code> to disable it
+     * @return this generator
+     */
+    public ArtGenerator incremental(boolean incremental) {
+        this.incremental = incremental;
+        return this;
+    }
+
+    /**
+     * Search for source art files in parallel, and start processing files as soon as they are found rather than waiting
+     * for the search to complete.
+     * <p>
+     * This is most useful for large collections and on slow (e.g. network) file systems, where the search itself can
+     * take a significant amount of time. Files are processed in the order they are found, which is not defined.
+     * <p>
+     * Since the total number of files is not known until the search completes, {@link ArtGeneratorProgress#UNKNOWN_TOTAL}
+     * is reported as the total until then.
+     *
+     * @param discoveryParallelism number of threads used to search for files, or zero to search sequentially before
+     *                             any processing begins
+     * @return this generator
+     */
+    public ArtGenerator discoveryParallelism(int discoveryParallelism) {
+        if (discoveryParallelism < 0) {
+            throw new IllegalArgumentException("Discovery parallelism must not be negative");
+        }
+        this.discoveryParallelism = discoveryParallelism;
+        return this;
+    }
+
+    /**
+     * Enable or disable detection of duplicate source files.
+     * <p>
+     * When enabled, the content of each source file is hashed and art is generated only once for each distinct source
+     * image during a run. The generated images for duplicate source files are hard-linked to the images generated for
+     * the first such file, falling back to copying the images if the file system does not support hard links.
+     * <p>
+     * Existing generated images are always replaced by a new file rather than written over, so that replacing the
+     * images for one source file never affects the images linked to them.
+     *
+     * @param deduplicate <code>true</code> to enable detection of duplicates; <code>false</code> to disable it
+     * @return this generator
+     */
+    public ArtGenerator deduplicate(boolean deduplicate) {
+        this.deduplicate = deduplicate;
+        return this;
+    }
+
+    /**
+     * Set the encoding profile for one of the configured sizes.
+     * <p>
+     * Sizes without a profile are encoded in the output format at the highest quality. A profile may use a different
+     * format from the output format, in which case the generated images for that size have that format's file
+     * extension.
+     * <p>
+     * In incremental mode, changing the profile for a size causes every source file to be processed again.
+     *
+     * @param size size to encode with the profile, must be one of the configured sizes
+     * @param profile encoding profile, or <code>null</code> to use the default encoding
+     * @return this generator
+     * @throws IllegalArgumentException if none of the profile's image formats is supported
+     */
+    public ArtGenerator encoding(int size, ArtEncodingProfile profile) {
+        if (Arrays.stream(sizes).noneMatch(configuredSize -> configuredSize == size)) {
+            throw new IllegalArgumentException(String.format("Encoding size %d is not one of the configured sizes", size));
+        }
+        if (profile != null) {
+            sizeWriters.put(size, new ArtImageWriter(profile));
+        } else {
+            sizeWriters.remove(size);
+        }
+        return this;
+    }
+
+    /**
+     * Pack the generated images for some of the configured sizes into atlas images.
+     * <p>
+     * After the images have been generated, the images of each atlas size are packed into square atlas images of
+     * <code>maxGridCells</code> by <code>maxGridCells</code> albums. The atlas images, and an index file giving the
+     * position of each album in the atlases, are written to the output root directory, e.g.
+     * <code>atlas-64.index</code>, <code>atlas-64-0.jpg</code>, <code>atlas-64-1.jpg</code> and so on.
+     * <p>
+     * Albums keep their position in the atlases between runs, and only those atlases containing albums that have been
+     * added, changed or removed are rebuilt.
+     * <p>
+     * The atlas images are built from the generated images, so a lossless output format avoids a second round of lossy
+     * compression.
+     *
+     * @param maxGridCells maximum number of albums in each direction of an atlas image
+     * @param atlasSizes sizes to pack into atlases, each must be one of the configured sizes
+     * @return this generator
+     */
+    public ArtGenerator atlas(int maxGridCells, int... atlasSizes) {
+        if (atlasSizes.length > 0 && maxGridCells < 1) {
+            throw new IllegalArgumentException("Maximum number of atlas grid cells must be at least 1");
+        }
+        for (int atlasSize : atlasSizes) {
+            if (Arrays.stream(sizes).noneMatch(size -> size == atlasSize)) {
+                throw new IllegalArgumentException(String.format("Atlas size %d is not one of the configured sizes", atlasSize));
+            }
+        }
+        this.atlasGridCells = maxGridCells;
+        this.atlasSizes = atlasSizes.clone();
+        return this;
+    }
+
+    /**
+     * Enable or disable recording the perceptual hash of each source image in a similarity index.
+     * <p>
+     * The index is kept in the output root directory, see {@link ArtSimilarityIndex#FILENAME}. The hash is calculated
+     * from the smallest generated image, so costs almost nothing while generating. Source files whose art is not
+     * generated during a run (e.g. because it already exists) are hashed from their existing smallest generated image,
+     * and entries for source files that no longer exist are removed.
+     *
+     * @param similarityIndex <code>true</code> to record hashes; <code>false</code> to not record hashes
+     * @return this generator
+     */
+    public ArtGenerator similarityIndex(boolean similarityIndex) {
+        this.similarityIndex = similarityIndex;
+        return this;
+    }
+
+    /**
+     * Only generate art for the source files in one shard.
+     * <p>
+     * The files kept in the output root directory, i.e. the manifest and the similarity index, are kept separately for
+     * each shard (e.g. <code>.arty-manifest.2-of-4</code>), so processes generating different shards can share the
+     * same output root directory without interfering with each other. Generated art is only ever removed for source
+     * files in the shard.
+     * <p>
+     * Changing the number of shards starts a new set of manifests, so in incremental mode every source file is processed
+     * again the first time.
+     * <p>
+     * Atlases can not be built when generating a shard, since an atlas contains images from every shard.
+     *
+     * @param shard shard to generate, or <code>null</code> to generate art for all source files
+     * @return this generator
+     */
+    public ArtGenerator shard(ArtShard shard) {
+        this.shard = shard;
+        return this;
+    }
+
+    /**
+     * Record metrics for generated files.
+     * <p>
+     * Metrics accumulate across generation runs, and a snapshot may be taken at any time.
+     *
+     * @param metrics metrics, or <code>null</code> to disable metrics
+     * @return this generator
+     */
+    public ArtGenerator metrics(ArtGeneratorMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * Enable or disable hard-linking the images of duplicate source files, when disabled the images are always copied as
+     * they are when the file system does not support hard links.
+     * <p>
+     * This is used to test the fallback to copying.
+     *
+     * @param hardLinks <code>true</code> to hard-link images where possible; <code>false</code> to always copy them
+     * @return this generator
+     */
+    ArtGenerator hardLinks(boolean hardLinks) {
+        this.hardLinks = hardLinks;
+        return this;
+    }
+
+    Path sourceRootPath() {
+        return sourceRootPath;
+    }
+
+    String artFilename() {
+        return artFilename;
+    }
+
+    /**
+     * Check whether a source file belongs to the shard being generated.
+     *
+     * @param sourceFile source art file, within the source root path
+     * @return <code>true</code> if the source file is in the shard, or all source files are being generated;
+     *         <code>false</code> otherwise
+     */
+    boolean inShard(Path sourceFile) {
+        return shard == null || shard.contains(manifestKey(sourceFile));
     }
 
     /**
@@ -71,35 +421,893 @@ final public class ArtGenerator {
      * @throws IOException if an error occurs
      */
     public void generateArt(ArtGeneratorProgress progress) throws IOException {
-        ArtFileVisitor fileVisitor = new ArtFileVisitor(artFilename);
-        Files.walkFileTree(sourceRootPath, fileVisitor);
-        processFiles(fileVisitor.results(), progress);
+        generateArt(progress, null, null, null, null);
     }
 
-    private void processFiles(List<Path> sourceFiles, ArtGeneratorProgress progress) throws IOException {
-        int current = 0;
+    /**
+     * Generate cover art images in the various pre-configured sizes, stopping early if the run is cancelled.
+     * <p>
+     * The cancellation token is checked before each source file is processed and before each size is generated. The
+     * manifest (in incremental mode) is still saved for the files that were processed, but atlases are not rebuilt.
+     *
+     * @param progress callback to report image generation progress
+     * @param cancellation token used to cancel the run
+     * @throws IOException if an error occurs
+     * @throws CancellationException if the run was cancelled
+     */
+    public void generateArt(ArtGeneratorProgress progress, ArtCancellationToken cancellation) throws IOException {
+        generateArt(progress, null, null, cancellation, null);
+    }
+
+    /**
+     * Generate cover art images for the source files in particular directories only.
+     * <p>
+     * Generation must be incremental. Only new and changed source files in the directories are processed, and generated
+     * art is removed for source files in the directories that no longer exist. A directory that no longer exists is
+     * treated as empty.
+     *
+     * @param progress callback to report image generation progress
+     * @param directories source directories to process, each within the source root path, or <code>null</code> to
+     *                    process the entire source root path
+     * @throws IOException if an error occurs
+     */
+    void generateArt(ArtGeneratorProgress progress, Collection<Path> directories) throws IOException {
+        generateArt(progress, directories, null, null, null);
+    }
+
+    /**
+     * Generate cover art images, passing each decoded source image on to a listener.
+     *
+     * @param progress callback to report image generation progress
+     * @param directories source directories to process, each within the source root path, or <code>null</code> to
+     *                    process the entire source root path
+     * @param decodeListener listener for decoded source images, may be <code>null</code>
+     * @throws IOException if an error occurs
+     */
+    void generateArt(ArtGeneratorProgress progress, Collection<Path> directories, ArtDecodeListener decodeListener) throws IOException {
+        generateArt(progress, directories, decodeListener, null, null);
+    }
+
+    /**
+     * Generate cover art images.
+     *
+     * @param progress callback to report image generation progress
+     * @param directories source directories to process, each within the source root path, or <code>null</code> to
+     *                    process the entire source root path
+     * @param decodeListener listener for decoded source images, may be <code>null</code>
+     * @param cancellation token used to cancel the run, may be <code>null</code>
+     * @param scheduler scheduler supplying requested source files ahead of the discovered files, may be
+     *                  <code>null</code>
+     * @throws IOException if an error occurs
+     * @throws CancellationException if the run was cancelled
+     */
+    void generateArt(ArtGeneratorProgress progress, Collection<Path> directories, ArtDecodeListener decodeListener, ArtCancellationToken cancellation, ArtScheduler scheduler) throws IOException {
+        if (directories != null && !incremental) {
+            throw new IllegalStateException("Generating art for particular directories requires incremental generation");
+        }
+        if (directories != null && !Files.isDirectory(sourceRootPath)) {
+            // Never mistake an unavailable source root for deleted source files
+            throw new NoSuchFileException(sourceRootPath.toString());
+        }
+        if (shard != null && atlasSizes.length > 0) {
+            throw new IllegalStateException("Atlases can not be built when generating a shard");
+        }
+        ArtManifest manifest = incremental ? ArtManifest.load(outputRootFile(ArtManifest.FILENAME)) : null;
+        ArtSimilarityIndex similarity = similarityIndex ? ArtSimilarityIndex.load(outputRootFile(ArtSimilarityIndex.FILENAME)) : null;
+        try {
+            if (manifest != null) {
+                manifest.openJournal();
+            }
+            ArtGenerationRun run = new ArtGenerationRun(new ArtProgressReporter(progress, ArtGeneratorProgress.UNKNOWN_TOTAL), manifest, similarity, metrics, deduplicate, decodeListener, cancellation, scheduler);
+            List<Path> discoveredFiles;
+            if (discoveryParallelism > 0 && directories == null) {
+                discoveredFiles = generateArtWhileSearching(run);
+            } else {
+                List<Path> sourceFiles = new ArrayList<>();
+                for (Path directory : directories != null ? directories : Collections.singletonList(sourceRootPath)) {
+                    if (directories == null || Files.isDirectory(directory)) {
+                        ArtFileVisitor fileVisitor = new ArtFileVisitor(artFilename);
+                        Files.walkFileTree(directory, fileVisitor);
+                        sourceFiles.addAll(fileVisitor.results());
+                    }
+                }
+                if (shard != null) {
+                    sourceFiles.removeIf(sourceFile -> !shard.contains(manifestKey(sourceFile)));
+                }
+                discoveredFiles = sourceFiles;
+                if (manifest != null) {
+                    Set<String> discoveredKeys = sourceFiles.stream().map(this::manifestKey).collect(Collectors.toSet());
+                    if (directories != null) {
+                        pruneDeletedFiles(discoveredKeys, manifest, directories.stream().map(this::directoryKey).collect(Collectors.toList()));
+                    } else {
+                        pruneDeletedFiles(discoveredKeys, manifest, null);
+                    }
+                    int discoveredCount = sourceFiles.size();
+                    sourceFiles = staleFiles(sourceFiles, manifest);
+                    if (metrics != null) {
+                        metrics.filesSkipped(discoveredCount - sourceFiles.size());
+                    }
+                }
+                if (scheduler == null) {
+                    // Requested files are not counted in the total, so it is only known without a scheduler
+                    run.reporter.total(sourceFiles.size());
+                }
+                processFiles(ArtFileSource.of(sourceFiles), run);
+            }
+            if (directories != null) {
+                // Only some of the source files were discovered, so use the manifest for the complete set
+                discoveredFiles = manifest.keys().stream().map(sourceRootPath::resolve).collect(Collectors.toList());
+            }
+            buildAtlases(discoveredFiles);
+            if (similarity != null) {
+                completeSimilarityIndex(discoveredFiles, similarity);
+            }
+        } finally {
+            if (manifest != null) {
+                manifest.save();
+            }
+            if (similarity != null) {
+                similarity.save();
+            }
+        }
+    }
+
+    /**
+     * Generate cover art for source files requested from a scheduler only, without searching for source files.
+     *
+     * @param progress callback to report image generation progress
+     * @param scheduler scheduler supplying the requested source files
+     * @throws IOException if an error occurs
+     * @throws CancellationException if the scheduler was closed
+     */
+    void generateRequestedArt(ArtGeneratorProgress progress, ArtScheduler scheduler) throws IOException {
+        ArtManifest manifest = incremental ? ArtManifest.load(outputRootFile(ArtManifest.FILENAME)) : null;
+        ArtSimilarityIndex similarity = similarityIndex ? ArtSimilarityIndex.load(outputRootFile(ArtSimilarityIndex.FILENAME)) : null;
+        try {
+            if (manifest != null) {
+                manifest.openJournal();
+            }
+            processFiles(null, new ArtGenerationRun(new ArtProgressReporter(progress, ArtGeneratorProgress.UNKNOWN_TOTAL), manifest, similarity, metrics, deduplicate, null, scheduler.cancellation(), scheduler));
+        } finally {
+            if (manifest != null) {
+                manifest.save();
+            }
+            if (similarity != null) {
+                similarity.save();
+            }
+        }
+    }
+
+    /**
+     * Generate cover art images while searching for the source files in parallel.
+     *
+     * @param run generation run
+     * @return all discovered source files
+     * @throws IOException if an error occurs
+     */
+    private List<Path> generateArtWhileSearching(ArtGenerationRun run) throws IOException {
+        ArtManifest manifest = run.manifest;
+        ForkJoinPool pool = new ForkJoinPool(discoveryParallelism);
+        try {
+            ArtFileFinder fileFinder = new ArtFileFinder(sourceRootPath, artFilename, pool);
+            List<Path> discoveredFiles = new ArrayList<>();
+            processFiles(() -> {
+                Path sourceFile;
+                while ((sourceFile = fileFinder.next()) != null) {
+                    if (shard != null && !shard.contains(manifestKey(sourceFile))) {
+                        continue;
+                    }
+                    discoveredFiles.add(sourceFile);
+                    if (manifest == null || isStale(sourceFile, manifest)) {
+                        return sourceFile;
+                    }
+                    if (metrics != null) {
+                        metrics.fileSkipped();
+                    }
+                }
+                return null;
+            }, run);
+            if (manifest != null) {
+                pruneDeletedFiles(discoveredFiles.stream().map(this::manifestKey).collect(Collectors.toSet()), manifest, null);
+            }
+            return discoveredFiles;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Build, or incrementally rebuild, the atlas images for each atlas size.
+     *
+     * @param sourceFiles all discovered source files
+     * @throws IOException if an error occurs
+     */
+    private void buildAtlases(List<Path> sourceFiles) throws IOException {
+        for (int atlasSize : atlasSizes) {
+            Map<String, Path> thumbnails = new TreeMap<>();
+            for (Path sourceFile : sourceFiles) {
+                Path subpath = subpath(sourceFile);
+                String key = manifestKey(sourceFile);
+                thumbnails.put(key.substring(0, Math.max(0, key.lastIndexOf('/'))), outputFile(sourceFile.getFileName().toString(), atlasSize, outputRootPath.resolve(subpath.getParent())));
+            }
+            new ArtAtlasBuilder(outputRootPath, atlasSize, atlasGridCells, outputFormat).build(thumbnails);
+        }
+    }
+
+    /**
+     * Bring the similarity index up to date with all of the discovered source files.
+     * <p>
+     * Source files without a hash, i.e. those whose art was not generated during this run, are hashed from their
+     * smallest generated image, and entries for source files that were not discovered are removed.
+     *
+     * @param sourceFiles all discovered source files
+     * @param similarity similarity index
+     * @throws IOException if an error occurs
+     */
+    private void completeSimilarityIndex(List<Path> sourceFiles, ArtSimilarityIndex similarity) throws IOException {
+        int smallestSize = Arrays.stream(sizes).min().orElse(0);
+        Set<String> keys = new HashSet<>();
         for (Path sourceFile : sourceFiles) {
-            processFile(sourceFile, progress, ++current, sourceFiles.size());
+            String key = manifestKey(sourceFile);
+            keys.add(key);
+            if (!similarity.contains(key)) {
+                Path imageFile = outputFile(sourceFile.getFileName().toString(), smallestSize, outputRootPath.resolve(subpath(sourceFile).getParent()));
+                try {
+                    similarity.put(key, ArtPerceptualHash.hash(ArtImageReader.readTransient(imageFile, 0)));
+                } catch (NoSuchFileException e) {
+                    // No art has been generated for the source file, e.g. because it could not be decoded
+                }
+            }
         }
+        similarity.retain(keys);
     }
 
-    private void processFile(Path sourceFile, ArtGeneratorProgress progress, int current, int total) throws IOException {
-        Path subpath = sourceFile.subpath(sourceRootPath.getNameCount(), sourceFile.getNameCount());
+    /**
+     * Determine which source files need to be processed when generating incrementally.
+     *
+     * @param sourceFiles all discovered source files
+     * @param manifest manifest of previously processed files
+     * @return source files to process
+     * @throws IOException if an error occurs
+     */
+    private List<Path> staleFiles(List<Path> sourceFiles, ArtManifest manifest) throws IOException {
+        List<Path> result = new ArrayList<>();
+        for (Path sourceFile : sourceFiles) {
+            if (isStale(sourceFile, manifest)) {
+                result.add(sourceFile);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Determine whether a source file needs to be processed when generating incrementally.
+     * <p>
+     * If a source file's size or last modified time have changed but its content has not, the manifest entry is updated
+     * and the file is not processed.
+     *
+     * @param sourceFile source art file
+     * @param manifest manifest of previously processed files
+     * @return <code>true</code> if the file needs to be processed; <code>false</code> otherwise
+     * @throws IOException if an error occurs
+     */
+    private boolean isStale(Path sourceFile, ArtManifest manifest) throws IOException {
+        String key = manifestKey(sourceFile);
+        ArtManifest.Entry entry = manifest.get(key);
+        if (entry == null || !entry.settings.equals(settings()) || !outputsExist(sourceFile)) {
+            return true;
+        }
+        long size = Files.size(sourceFile);
+        long lastModified = Files.getLastModifiedTime(sourceFile).toMillis();
+        if (entry.size == size && entry.lastModified == lastModified) {
+            return false;
+        }
+        if (entry.size == size && entry.hash.equals(ArtFileHash.hash(sourceFile))) {
+            // The file has been touched, but the content is the same
+            manifest.put(key, entry.withAttributes(size, lastModified));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Remove generated images, and manifest entries, for source files that no longer exist.
+     *
+     * @param discoveredKeys manifest keys for all discovered source files
+     * @param manifest manifest of previously processed files
+     * @param directoryKeys keys of the directories that were searched for source files, or <code>null</code> if the
+     *                      entire source root path was searched
+     * @throws IOException if an error occurs
+     */
+    private void pruneDeletedFiles(Set<String> discoveredKeys, ArtManifest manifest, List<String> directoryKeys) throws IOException {
+        Set<String> keys = new HashSet<>(manifest.keys());
+        keys.removeAll(discoveredKeys);
+        if (directoryKeys != null) {
+            keys.removeIf(key -> directoryKeys.stream().noneMatch(directoryKey -> directoryKey.isEmpty() || key.startsWith(directoryKey + "/")));
+        }
+        for (String key : keys) {
+            ArtManifest.Entry entry = manifest.remove(key);
+            for (Path outputFile : outputFiles(key, entry.settings)) {
+                Files.deleteIfExists(outputFile);
+            }
+            deleteEmptyDirectories(outputRootPath.resolve(key).getParent());
+        }
+    }
+
+    /**
+     * Get the generated image files for a source file, as they were generated with particular settings.
+     *
+     * @param key manifest key for the source file
+     * @param settings description of the settings the images were generated with, see {@link #settings()}
+     * @return generated image files
+     */
+    private List<Path> outputFiles(String key, String settings) {
+        Path outputDirectoryPath = outputRootPath.resolve(key).getParent();
+        String filename = outputRootPath.resolve(key).getFileName().toString();
+        String[] fields = settings.split(":", 3);
+        Map<String, String> sizeFormats = new HashMap<>();
+        if (fields.length == 3) {
+            for (String sizeSettings : fields[2].split(",")) {
+                // Each size's encoding settings start with its format, e.g. "64=jpg/q0.8"
+                String[] sizeFields = sizeSettings.split("[=/]", 3);
+                sizeFormats.put(sizeFields[0], sizeFields[1]);
+            }
+        }
+        List<Path> result = new ArrayList<>();
+        for (String size : fields[1].split(",")) {
+            result.add(outputDirectoryPath.resolve(new ArtSizeRename(Integer.parseInt(size)).apply(filename, null).concat(".").concat(sizeFormats.getOrDefault(size, fields[0]))));
+        }
+        return result;
+    }
+
+    /**
+     * Delete a directory if it is empty, and then each of its parent directories in turn if they are also empty, up to
+     * but not including the output root directory.
+     *
+     * @param directory directory to delete
+     * @throws IOException if an error occurs
+     */
+    private void deleteEmptyDirectories(Path directory) throws IOException {
+        Path root = outputRootPath.toAbsolutePath().normalize();
+        for (Path dir = directory.toAbsolutePath().normalize(); dir != null && dir.startsWith(root) && !dir.equals(root); dir = dir.getParent()) {
+            try (Stream<Path> remaining = Files.list(dir)) {
+                if (remaining.findAny().isPresent()) {
+                    return;
+                }
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * Get a description of the settings that affect the generated images, used to detect when previously generated
+     * images were generated with different settings.
+     * <p>
+     * The description is the output format and the sizes, followed by the encoding settings of each size that has an
+     * encoding profile, if any, e.g. <code>jpg:64,256:64=jpg/q0.8</code>.
+     *
+     * @return settings description
+     */
+    private String settings() {
+        String result = outputFormat + ":" + Arrays.stream(sizes).sorted().mapToObj(Integer::toString).collect(Collectors.joining(","));
+        if (!sizeWriters.isEmpty()) {
+            result += ":" + sizeWriters.entrySet().stream().map(entry -> entry.getKey() + "=" + entry.getValue().settings()).collect(Collectors.joining(","));
+        }
+        return result;
+    }
+
+    /**
+     * Get the path of a file kept in the output root directory, e.g. the manifest, for the shard being generated.
+     *
+     * @param filename name of the file
+     * @return file path
+     */
+    private Path outputRootFile(String filename) {
+        return outputRootPath.resolve(shard != null ? filename + shard.fileSuffix() : filename);
+    }
+
+    /**
+     * Get the image writer for a particular size.
+     *
+     * @param size size of the generated image
+     * @return image writer
+     */
+    private ArtImageWriter writer(int size) {
+        return sizeWriters.getOrDefault(size, writer);
+    }
+
+    /**
+     * Get the manifest key for a source file.
+     *
+     * @param sourceFile source art file
+     * @return manifest key, the path relative to the source root path with "/" as the separator
+     */
+    private String manifestKey(Path sourceFile) {
+        Path subpath = subpath(sourceFile);
+        StringBuilder sb = new StringBuilder();
+        for (Path name : subpath) {
+            if (sb.length() > 0) {
+                sb.append('/');
+            }
+            sb.append(name);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get the key for a source directory, in the same form as a manifest key.
+     *
+     * @param directory source directory
+     * @return key, the path relative to the source root path with "/" as the separator, empty for the source root
+     */
+    private String directoryKey(Path directory) {
+        StringBuilder sb = new StringBuilder();
+        for (Path name : sourceRootPath.relativize(directory)) {
+            if (sb.length() > 0) {
+                sb.append('/');
+            }
+            sb.append(name);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Check whether all of the generated images for a source file exist.
+     *
+     * @param sourceFile source art file
+     * @return <code>true</code> if all generated images exist; <code>false</code> otherwise
+     */
+    private boolean outputsExist(Path sourceFile) {
+        Path outputDirectoryPath = outputRootPath.resolve(subpath(sourceFile).getParent());
+        String filename = sourceFile.getFileName().toString();
+        return Arrays.stream(sizes).allMatch(size -> Files.exists(outputFile(filename, size, outputDirectoryPath)));
+    }
+
+    /**
+     * Process source files, sequentially or in parallel.
+     * <p>
+     * When there is a scheduler, each file to process is taken from the scheduler, which supplies requested files ahead
+     * of the files from the file source.
+     *
+     * @param sourceFiles source of files to process, may be <code>null</code> if there is a scheduler
+     * @param run generation run
+     * @throws IOException if an error occurs
+     * @throws CancellationException if the run was cancelled
+     */
+    private void processFiles(ArtFileSource sourceFiles, ArtGenerationRun run) throws IOException {
+        if (run.scheduler != null) {
+            sourceFiles = scheduledFiles(sourceFiles, run);
+        }
+        if (executor != null) {
+            processFilesInParallel(sourceFiles, run);
+        } else {
+            int count = 0;
+            Path sourceFile;
+            while (!run.isCancelled() && (sourceFile = sourceFiles.next()) != null) {
+                count++;
+                rethrow(processFileOrFail(sourceFile, run));
+            }
+            if (run.isCancelled()) {
+                throw new CancellationException("Art generation was cancelled");
+            }
+            run.reporter.total(count);
+        }
+    }
+
+    private void processFilesInParallel(ArtFileSource sourceFiles, ArtGenerationRun run) throws IOException {
+        Semaphore permits = new Semaphore(maxInFlight);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        try {
+            int count = 0;
+            for (;;) {
+                // Only take the next file once it can be processed, so that a file requested meanwhile is taken first
+                permits.acquire();
+                Path sourceFile = failure.get() == null && !run.isCancelled() ? sourceFiles.next() : null;
+                if (sourceFile == null) {
+                    permits.release();
+                    break;
+                }
+                count++;
+                try {
+                    executor.execute(() -> {
+                        try {
+                            Exception exception = processFileOrFail(sourceFile, run);
+                            if (exception != null && !failure.compareAndSet(null, exception)) {
+                                failure.get().addSuppressed(exception);
+                            }
+                        } finally {
+                            permits.release();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    permits.release();
+                    throw e;
+                }
+            }
+            if (failure.get() == null && !run.isCancelled()) {
+                run.reporter.total(count);
+            }
+            // Wait for all of the in-flight files to finish
+            permits.acquire(maxInFlight);
+            permits.release(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while generating art");
+        }
+        rethrow(failure.get());
+        if (run.isCancelled()) {
+            throw new CancellationException("Art generation was cancelled");
+        }
+    }
+
+    /**
+     * Get the files to process from the scheduler.
+     * <p>
+     * Requested files that do not exist fail without being processed, and in incremental mode requested files that are
+     * up to date are skipped.
+     *
+     * @param bulkFiles source of files to process when there are no requested files, may be <code>null</code>
+     * @param run generation run
+     * @return file source
+     */
+    private ArtFileSource scheduledFiles(ArtFileSource bulkFiles, ArtGenerationRun run) {
+        return () -> {
+            Path sourceFile;
+            while ((sourceFile = run.scheduler.next(bulkFiles)) != null) {
+                if (!Files.exists(sourceFile)) {
+                    run.scheduler.finished(sourceFile, new NoSuchFileException(sourceFile.toString()));
+                } else if (run.manifest == null || isStale(sourceFile, run.manifest)) {
+                    return sourceFile;
+                } else {
+                    run.scheduler.finished(sourceFile, null);
+                }
+            }
+            return null;
+        };
+    }
+
+    /**
+     * Process a single source file, applying the failure policy if processing fails.
+     * <p>
+     * A file whose processing was cancelled is counted and reported in the same way as a failed file, but never ends the
+     * run.
+     *
+     * @param sourceFile source art file
+     * @param run generation run
+     * @return exception that should end the run, or <code>null</code> if the run should continue
+     */
+    private Exception processFileOrFail(Path sourceFile, ArtGenerationRun run) {
+        try {
+            processFile(sourceFile, run);
+            if (run.scheduler != null) {
+                run.scheduler.finished(sourceFile, null);
+            }
+            return null;
+        } catch (IOException | RuntimeException e) {
+            if (run.metrics != null) {
+                run.metrics.fileFailed();
+            }
+            if (run.scheduler != null) {
+                run.scheduler.finished(sourceFile, e);
+            }
+            if (failurePolicy == ArtFailurePolicy.CONTINUE) {
+                run.reporter.generateFailed(subpath(sourceFile), e);
+            } else if (!(e instanceof CancellationException)) {
+                return e;
+            }
+            return null;
+        }
+    }
+
+    private static void rethrow(Exception exception) throws IOException {
+        if (exception instanceof IOException) {
+            throw (IOException) exception;
+        } else if (exception != null) {
+            throw (RuntimeException) exception;
+        }
+    }
+
+    private void processFile(Path sourceFile, ArtGenerationRun run) throws IOException {
+        long startNanos = System.nanoTime();
+        Path subpath = subpath(sourceFile);
         Path outputDirectoryPath = outputRootPath.resolve(subpath.getParent());
-        progress.beforeGenerate(current, total, subpath);
+        run.reporter.beforeGenerate(subpath);
         if (!Files.exists(outputDirectoryPath)) {
             Files.createDirectories(outputDirectoryPath);
         }
-        for (int size : sizes) {
-            Thumbnails.of(sourceFile.toFile())
-                .allowOverwrite(allowOverwrite)
+        String manifestKey = null;
+        ArtManifest.Entry manifestEntry = null;
+        boolean overwrite = allowOverwrite;
+        if (run.manifest != null) {
+            manifestKey = manifestKey(sourceFile);
+            manifestEntry = ArtManifest.describe(sourceFile, settings());
+            // A source file that is already in the manifest has changed, so its generated images are stale
+            overwrite |= run.manifest.contains(manifestKey);
+        }
+        int[] outputSizes = pendingSizes(sourceFile.getFileName().toString(), outputDirectoryPath, overwrite);
+        if (outputSizes.length > 0) {
+            CompletableFuture<Path> rendered = null;
+            CompletableFuture<Path> original = null;
+            if (run.renderedSources != null) {
+                String hash = manifestEntry != null ? manifestEntry.hash : ArtFileHash.hash(sourceFile);
+                rendered = new CompletableFuture<>();
+                original = run.renderedSources.putIfAbsent(hash, rendered);
+            }
+            Path originalFile = original != null ? awaitOriginal(original) : null;
+            if (originalFile != null && linkDuplicate(originalFile, outputSizes, sourceFile.getFileName().toString(), outputDirectoryPath, run)) {
+                if (run.similarity != null) {
+                    Long hash = run.similarity.hash(manifestKey(originalFile));
+                    if (hash != null) {
+                        run.similarity.put(manifestKey(sourceFile), hash);
+                    }
+                }
+            } else {
+                // Only the first source file with particular content completes the future that duplicates wait on
+                CompletableFuture<Path> completion = original == null ? rendered : null;
+                try {
+                    generateFile(sourceFile, outputSizes, outputDirectoryPath, overwrite, manifestEntry, run, startNanos);
+                } catch (IOException | RuntimeException e) {
+                    if (completion != null) {
+                        completion.completeExceptionally(e);
+                    }
+                    throw e;
+                }
+                if (completion != null) {
+                    completion.complete(sourceFile);
+                }
+            }
+        } else if (run.metrics != null) {
+            run.metrics.fileSkipped();
+        }
+        if (run.manifest != null) {
+            ArtManifest.Entry previousEntry = run.manifest.get(manifestKey);
+            if (previousEntry != null && !previousEntry.settings.equals(manifestEntry.settings)) {
+                // Remove images for sizes or formats that are no longer generated
+                List<Path> outputFiles = outputFiles(manifestKey, manifestEntry.settings);
+                for (Path outputFile : outputFiles(manifestKey, previousEntry.settings)) {
+                    if (!outputFiles.contains(outputFile)) {
+                        Files.deleteIfExists(outputFile);
+                    }
+                }
+            }
+            run.manifest.put(manifestKey, manifestEntry);
+        }
+        run.reporter.afterGenerate(subpath);
+    }
+
+    /**
+     * Decode a source file and generate each of the requested sizes.
+     *
+     * @param sourceFile source art file
+     * @param outputSizes sizes to generate, largest first
+     * @param outputDirectoryPath directory for the generated images
+     * @param overwrite <code>true</code> if existing output files may be overwritten
+     * @param manifestEntry manifest entry describing the source file, or <code>null</code> if generation is not
+     *                      incremental
+     * @param run generation run
+     * @param startNanos time processing of the source file started
+     * @throws IOException if an error occurs
+     */
+    private void generateFile(Path sourceFile, int[] outputSizes, Path outputDirectoryPath, boolean overwrite, ArtManifest.Entry manifestEntry, ArtGenerationRun run, long startNanos) throws IOException {
+        run.checkCancelled(sourceFile);
+        Dimension sourceDimensions = new Dimension();
+        int decodeSize = run.decodeListener != null ? Math.max(outputSizes[0], run.decodeListener.decodeSize(sourceFile)) : outputSizes[0];
+        long decodeStartNanos = System.nanoTime();
+        BufferedImage sourceImage = ArtImageReader.read(sourceFile, decodeSize, sourceDimensions);
+        long decodeNanos = System.nanoTime() - decodeStartNanos;
+        List<ArtFileMetrics.Size> sizeMetrics = run.metrics != null ? new ArrayList<>(outputSizes.length) : null;
+        BufferedImage smallestImage = generateSizes(sourceImage, outputSizes, sourceFile, outputDirectoryPath, overwrite, run, sizeMetrics);
+        if (run.similarity != null) {
+            run.similarity.put(manifestKey(sourceFile), ArtPerceptualHash.hash(smallestImage));
+        }
+        if (run.decodeListener != null) {
+            run.decodeListener.decoded(sourceFile, sourceImage);
+        }
+        if (run.metrics != null) {
+            long sourceBytes = manifestEntry != null ? manifestEntry.size : Files.size(sourceFile);
+            run.metrics.fileGenerated(new ArtFileMetrics(
+                subpath(sourceFile),
+                sourceBytes,
+                sourceDimensions.width,
+                sourceDimensions.height,
+                decodeNanos,
+                sizeMetrics,
+                System.nanoTime() - startNanos
+            ));
+        }
+    }
+
+    /**
+     * Wait for art to be generated for the first source file with the same content as a duplicate source file.
+     *
+     * @param original future that completes when art has been generated for the first source file
+     * @return first source file, or <code>null</code> if generating art for that file failed
+     * @throws IOException if interrupted while waiting
+     */
+    private Path awaitOriginal(CompletableFuture<Path> original) throws IOException {
+        try {
+            return original.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for duplicate art");
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Link (or copy) the images generated for a source file to the output directory of a duplicate source file.
+     *
+     * @param originalFile source file that art was generated for
+     * @param outputSizes sizes required for the duplicate source file
+     * @param filename filename of the duplicate source file
+     * @param outputDirectoryPath directory for the duplicate's generated images
+     * @param run generation run
+     * @return <code>true</code> if all of the images were linked or copied; <code>false</code> if any of the images
+     *         generated for the original source file no longer exist
+     * @throws IOException if an error occurs
+     */
+    private boolean linkDuplicate(Path originalFile, int[] outputSizes, String filename, Path outputDirectoryPath, ArtGenerationRun run) throws IOException {
+        Path originalDirectoryPath = outputRootPath.resolve(subpath(originalFile).getParent());
+        String originalFilename = originalFile.getFileName().toString();
+        for (int size : outputSizes) {
+            if (!Files.exists(outputFile(originalFilename, size, originalDirectoryPath))) {
+                return false;
+            }
+        }
+        long bytesLinked = 0;
+        for (int size : outputSizes) {
+            Path existingFile = outputFile(originalFilename, size, originalDirectoryPath);
+            Path outputFile = outputFile(filename, size, outputDirectoryPath);
+            if (existingFile.equals(outputFile)) {
+                continue;
+            }
+            if (Files.exists(outputFile) && Files.isSameFile(existingFile, outputFile)) {
+                // Already linked by a previous run
+                bytesLinked += run.metrics != null ? Files.size(outputFile) : 0;
+                continue;
+            }
+            // Link under a temporary name then rename, so an existing image is replaced atomically
+            Path tempPath = outputFile.resolveSibling(outputFile.getFileName() + ".tmp");
+            Files.deleteIfExists(tempPath);
+            try {
+                boolean linked = false;
+                if (hardLinks) {
+                    try {
+                        Files.createLink(tempPath, existingFile);
+                        bytesLinked += run.metrics != null ? Files.size(tempPath) : 0;
+                        linked = true;
+                    } catch (UnsupportedOperationException | IOException e) {
+                        // Not supported by the file system, or the output directories are on different file systems
+                    }
+                }
+                if (!linked) {
+                    Files.copy(existingFile, tempPath, StandardCopyOption.REPLACE_EXISTING);
+                }
+                try {
+                    Files.move(tempPath, outputFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tempPath, outputFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(tempPath);
+                throw e;
+            }
+        }
+        if (run.metrics != null) {
+            run.metrics.fileDeduplicated(bytesLinked);
+        }
+        return true;
+    }
+
+    /**
+     * Get the path of a source art file relative to the source root path.
+     *
+     * @param sourceFile source art file
+     * @return relative path
+     */
+    private Path subpath(Path sourceFile) {
+        return sourceFile.subpath(sourceRootPath.getNameCount(), sourceFile.getNameCount());
+    }
+
+    /**
+     * Determine which of the configured sizes need to be generated for a particular art file.
+     * <p>
+     * If overwriting is not allowed, sizes for which an output file already exists are excluded.
+     *
+     * @param filename filename of the source art file
+     * @param outputDirectoryPath directory for the generated images
+     * @param overwrite <code>true</code> if existing output files may be overwritten
+     * @return sizes to generate, largest first
+     */
+    private int[] pendingSizes(String filename, Path outputDirectoryPath, boolean overwrite) {
+        int[] result = Arrays.stream(sizes)
+            .filter(size -> overwrite || !Files.exists(outputFile(filename, size, outputDirectoryPath)))
+            .sorted()
+            .toArray();
+        // Reverse the sorted sizes so that the largest is first
+        for (int i = 0, j = result.length - 1; i < j; i++, j--) {
+            int size = result[i];
+            result[i] = result[j];
+            result[j] = size;
+        }
+        return result;
+    }
+
+    /**
+     * Generate each of the requested sizes from a single decoded source image.
+     *
+     * @param sourceImage decoded source image
+     * @param outputSizes sizes to generate, largest first
+     * @param sourceFile source art file
+     * @param outputDirectoryPath directory for the generated images
+     * @param overwrite <code>true</code> if existing output files may be overwritten
+     * @param run generation run
+     * @param sizeMetrics list to add metrics for each generated size to, or <code>null</code> if metrics are not being
+     *                    recorded
+     * @return smallest generated image
+     * @throws IOException if an error occurs
+     */
+    private BufferedImage generateSizes(BufferedImage sourceImage, int[] outputSizes, Path sourceFile, Path outputDirectoryPath, boolean overwrite, ArtGenerationRun run, List<ArtFileMetrics.Size> sizeMetrics) throws IOException {
+        String filename = sourceFile.getFileName().toString();
+        List<BufferedImage> generatedImages = new ArrayList<>(outputSizes.length);
+        for (int size : outputSizes) {
+            run.checkCancelled(sourceFile);
+            long resizeStartNanos = System.nanoTime();
+            BufferedImage scaledImage = Thumbnails.of(cascadeSource(sourceImage, generatedImages, size))
                 .forceSize(size, size)
                 .rendering(Rendering.QUALITY)
                 .scalingMode(ScalingMode.PROGRESSIVE_BILINEAR)
-                .outputQuality(1.0)
-                .outputFormat(outputFormat)
-                .toFiles(outputDirectoryPath.toFile(), new ArtSizeRename(size));
+                .asBufferedImage();
+            long encodeStartNanos = System.nanoTime();
+            Path outputFile = outputFile(filename, size, outputDirectoryPath);
+            if (!overwrite && Files.exists(outputFile)) {
+                throw new FileAlreadyExistsException(outputFile.toString());
+            }
+            // The existing file is replaced by a rename rather than written over, so any other source file's images
+            // linked to it are unaffected
+            writer(size).write(scaledImage, outputFile);
+            if (sizeMetrics != null) {
+                long encodeEndNanos = System.nanoTime();
+                sizeMetrics.add(new ArtFileMetrics.Size(size, encodeStartNanos - resizeStartNanos, encodeEndNanos - encodeStartNanos, Files.size(outputFile)));
+            }
+            generatedImages.add(scaledImage);
         }
-        progress.afterGenerate(current, total, subpath);
+        return generatedImages.get(generatedImages.size() - 1);
+    }
+
+    /**
+     * Select the image to scale from to generate a particular size.
+     * <p>
+     * This is the smallest of the previously generated images that is still at least the cascade factor times larger
+     * than the target size, or the source image itself if there is no such image.
+     *
+     * @param sourceImage decoded source image
+     * @param generatedImages previously generated images, largest first
+     * @param size target size
+     * @return image to scale from
+     */
+    private BufferedImage cascadeSource(BufferedImage sourceImage, List<BufferedImage> generatedImages, int size) {
+        BufferedImage result = sourceImage;
+        for (BufferedImage generatedImage : generatedImages) {
+            if (generatedImage.getWidth() >= size * cascadeFactor && generatedImage.getWidth() < sourceImage.getWidth()) {
+                result = generatedImage;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the path of the generated image file for a particular size.
+     *
+     * @param filename filename of the source art file
+     * @param size size of the generated image
+     * @param outputDirectoryPath directory for the generated images
+     * @return generated image file path
+     */
+    private Path outputFile(String filename, int size, Path outputDirectoryPath) {
+        return outputDirectoryPath.resolve(new ArtSizeRename(size).apply(filename, null).concat(".").concat(writer(size).format()));
     }
 }
@@ -0,0 +1,507 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.generator;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulated metrics for art generation.
+ * <p>
+ * Metrics are recorded with low overhead (a few clock reads and uncontended counter updates per generated image) so
+ * this can be left enabled in production. A consistent {@link Snapshot} can be taken at any time, including while
+ * generation is in progress, e.g. for periodic export to a monitoring system.
+ * <p>
+ * The same instance may be used for multiple generation runs, in which case the metrics accumulate.
+ * <p>
+ * All times are in nanoseconds.
+ */
+final public class ArtGeneratorMetrics {
+
+    /**
+     * Length of the window used to calculate the rolling throughput, in seconds.
+     */
+    public static final int THROUGHPUT_WINDOW = 60;
+
+    private final ArtFileMetricsListener listener;
+
+    private final long startNanos = System.nanoTime();
+
+    private final LongAdder filesGenerated = new LongAdder();
+    private final LongAdder filesSkipped = new LongAdder();
+    private final LongAdder filesFailed = new LongAdder();
+    private final LongAdder filesDeduplicated = new LongAdder();
+    private final LongAdder bytesLinked = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+    private final LongAdder resizeNanos = new LongAdder();
+    private final LongAdder encodeNanos = new LongAdder();
+
+    private final ConcurrentMap<Integer, SizeTotals> sizes = new ConcurrentHashMap<>();
+
+    /**
+     * Number of files generated in each second of the throughput window, indexed by second modulo the window length.
+     */
+    private final long[] throughputCounts = new long[THROUGHPUT_WINDOW];
+
+    /**
+     * The second each throughput count applies to.
+     */
+    private final long[] throughputSeconds = new long[THROUGHPUT_WINDOW];
+
+    private ArtFileMetrics slowestFile;
+
+    /**
+     * Create metrics.
+     */
+    public ArtGeneratorMetrics() {
+        this(null);
+    }
+
+    /**
+     * Create metrics, with a listener to receive the metrics for each individual generated file.
+     *
+     * @param listener listener, may be <code>null</code>
+     */
+    public ArtGeneratorMetrics(ArtFileMetricsListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Take a snapshot of the current metrics.
+     *
+     * @return snapshot
+     */
+    public Snapshot snapshot() {
+        Map<Integer, SizeSnapshot> sizeSnapshots = new TreeMap<>(Collections.reverseOrder());
+        for (Map.Entry<Integer, SizeTotals> entry : sizes.entrySet()) {
+            SizeTotals totals = entry.getValue();
+            sizeSnapshots.put(entry.getKey(), new SizeSnapshot(
+                entry.getKey(),
+                totals.count.sum(),
+                totals.resizeNanos.sum(),
+                totals.encodeNanos.sum(),
+                totals.bytesWritten.sum()
+            ));
+        }
+        long nowNanos = System.nanoTime();
+        ArtFileMetrics slowest;
+        double throughput;
+        synchronized (this) {
+            slowest = slowestFile;
+            throughput = throughput(nowNanos);
+        }
+        return new Snapshot(
+            nowNanos - startNanos,
+            filesGenerated.sum(),
+            filesSkipped.sum(),
+            filesFailed.sum(),
+            filesDeduplicated.sum(),
+            bytesLinked.sum(),
+            bytesRead.sum(),
+            bytesWritten.sum(),
+            decodeNanos.sum(),
+            resizeNanos.sum(),
+            encodeNanos.sum(),
+            throughput,
+            slowest,
+            Collections.unmodifiableMap(sizeSnapshots)
+        );
+    }
+
+    void fileGenerated(ArtFileMetrics metrics) {
+        filesGenerated.increment();
+        bytesRead.add(metrics.sourceBytes());
+        decodeNanos.add(metrics.decodeNanos());
+        for (ArtFileMetrics.Size size : metrics.sizes()) {
+            resizeNanos.add(size.resizeNanos());
+            encodeNanos.add(size.encodeNanos());
+            bytesWritten.add(size.bytesWritten());
+            SizeTotals totals = sizes.computeIfAbsent(size.size(), k -> new SizeTotals());
+            totals.count.increment();
+            totals.resizeNanos.add(size.resizeNanos());
+            totals.encodeNanos.add(size.encodeNanos());
+            totals.bytesWritten.add(size.bytesWritten());
+        }
+        synchronized (this) {
+            long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos);
+            int index = (int) (second % THROUGHPUT_WINDOW);
+            if (throughputSeconds[index] != second) {
+                throughputSeconds[index] = second;
+                throughputCounts[index] = 0;
+            }
+            throughputCounts[index]++;
+            if (slowestFile == null || metrics.totalNanos() > slowestFile.totalNanos()) {
+                slowestFile = metrics;
+            }
+        }
+        if (listener != null) {
+            listener.fileGenerated(metrics);
+        }
+    }
+
+    void fileSkipped() {
+        filesSkipped.increment();
+    }
+
+    void filesSkipped(int count) {
+        filesSkipped.add(count);
+    }
+
+    void fileFailed() {
+        filesFailed.increment();
+    }
+
+    void fileDeduplicated(long linkedBytes) {
+        filesDeduplicated.increment();
+        bytesLinked.add(linkedBytes);
+    }
+
+    /**
+     * Calculate the rolling throughput.
+     * <p>
+     * The current (partial) second is excluded, unless nothing else is available.
+     *
+     * @param nowNanos current time
+     * @return files generated per second
+     */
+    private double throughput(long nowNanos) {
+        long elapsedNanos = nowNanos - startNanos;
+        long now = TimeUnit.NANOSECONDS.toSeconds(elapsedNanos);
+        if (now == 0) {
+            return elapsedNanos > 0 ? throughputCounts[0] * 1e9 / elapsedNanos : 0.0;
+        }
+        long seconds = Math.min(now, THROUGHPUT_WINDOW - 1);
+        long count = 0;
+        for (int i = 0; i < THROUGHPUT_WINDOW; i++) {
+            if (throughputSeconds[i] < now && throughputSeconds[i] >= now - seconds) {
+                count += throughputCounts[i];
+            }
+        }
+        return (double) count / seconds;
+    }
+
+    private static final class SizeTotals {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder resizeNanos = new LongAdder();
+        private final LongAdder encodeNanos = new LongAdder();
+        private final LongAdder bytesWritten = new LongAdder();
+    }
+
+    /**
+     * Immutable snapshot of accumulated metrics.
+     */
+    public static final class Snapshot {
+
+        private final long elapsedNanos;
+        private final long filesGenerated;
+        private final long filesSkipped;
+        private final long filesFailed;
+        private final long filesDeduplicated;
+        private final long bytesLinked;
+        private final long bytesRead;
+        private final long bytesWritten;
+        private final long decodeNanos;
+        private final long resizeNanos;
+        private final long encodeNanos;
+        private final double throughput;
+        private final ArtFileMetrics slowestFile;
+        private final Map<Integer, SizeSnapshot> sizes;
+
+        private Snapshot(
+            long elapsedNanos,
+            long filesGenerated,
+            long filesSkipped,
+            long filesFailed,
+            long filesDeduplicated,
+            long bytesLinked,
+            long bytesRead,
+            long bytesWritten,
+            long decodeNanos,
+            long resizeNanos,
+            long encodeNanos,
+            double throughput,
+            ArtFileMetrics slowestFile,
+            Map<Integer, SizeSnapshot> sizes
+        ) {
+            this.elapsedNanos = elapsedNanos;
+            this.filesGenerated = filesGenerated;
+            this.filesSkipped = filesSkipped;
+            this.filesFailed = filesFailed;
+            this.filesDeduplicated = filesDeduplicated;
+            this.bytesLinked = bytesLinked;
+            this.bytesRead = bytesRead;
+            this.bytesWritten = bytesWritten;
+            this.decodeNanos = decodeNanos;
+            this.resizeNanos = resizeNanos;
+            this.encodeNanos = encodeNanos;
+            this.throughput = throughput;
+            this.slowestFile = slowestFile;
+            this.sizes = sizes;
+        }
+
+        /**
+         * Get the time since the metrics were created.
+         *
+         * @return elapsed time
+         */
+        public long elapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * Get the number of source files that art was generated for.
+         *
+         * @return number of files
+         */
+        public long filesGenerated() {
+            return filesGenerated;
+        }
+
+        /**
+         * Get the number of source files skipped because their generated images were already up to date.
+         *
+         * @return number of files
+         */
+        public long filesSkipped() {
+            return filesSkipped;
+        }
+
+        /**
+         * Get the number of source files that art generation failed for.
+         * <p>
+         * This includes files whose processing was cancelled part way through.
+         *
+         * @return number of files
+         */
+        public long filesFailed() {
+            return filesFailed;
+        }
+
+        /**
+         * Get the number of source files that were duplicates of another source file, so the images generated for that
+         * other file were linked or copied rather than being generated again.
+         *
+         * @return number of files
+         */
+        public long filesDeduplicated() {
+            return filesDeduplicated;
+        }
+
+        /**
+         * Get the total size of the images that were hard-linked for duplicate source files, i.e. the disk space saved.
+         *
+         * @return number of bytes
+         */
+        public long bytesLinked() {
+            return bytesLinked;
+        }
+
+        /**
+         * Get an estimate of the time saved by not generating images for duplicate source files, based on the average
+         * time taken to decode, resize and encode the images for a source file.
+         *
+         * @return estimated time saved
+         */
+        public long estimatedNanosSaved() {
+            if (filesGenerated == 0) {
+                return 0;
+            }
+            return (decodeNanos + resizeNanos + encodeNanos) / filesGenerated * filesDeduplicated;
+        }
+
+        /**
+         * Get the total size of the decoded source files.
+         *
+         * @return number of bytes
+         */
+        public long bytesRead() {
+            return bytesRead;
+        }
+
+        /**
+         * Get the total size of the generated images.
+         *
+         * @return number of bytes
+         */
+        public long bytesWritten() {
+            return bytesWritten;
+        }
+
+        /**
+         * Get the total time spent decoding source images.
+         *
+         * @return decode time
+         */
+        public long decodeNanos() {
+            return decodeNanos;
+        }
+
+        /**
+         * Get the total time spent resizing images.
+         *
+         * @return resize time
+         */
+        public long resizeNanos() {
+            return resizeNanos;
+        }
+
+        /**
+         * Get the total time spent encoding and writing images.
+         *
+         * @return encode time
+         */
+        public long encodeNanos() {
+            return encodeNanos;
+        }
+
+        /**
+         * Get the number of files generated per second over the last {@link #THROUGHPUT_WINDOW} seconds.
+         *
+         * @return rolling throughput
+         */
+        public double throughput() {
+            return throughput;
+        }
+
+        /**
+         * Get the metrics for the source file that took the longest to generate.
+         *
+         * @return slowest file metrics, or <code>null</code> if no files have been generated
+         */
+        public ArtFileMetrics slowestFile() {
+            return slowestFile;
+        }
+
+        /**
+         * Get the totals for each generated size.
+         *
+         * @return size totals, keyed by size, largest first
+         */
+        public Map<Integer, SizeSnapshot> sizes() {
+            return sizes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "%s[elapsed=%dms,generated=%d,skipped=%d,failed=%d,deduplicated=%d,bytesLinked=%d," +
+                    "bytesRead=%d,bytesWritten=%d,decode=%dms,resize=%dms,encode=%dms,throughput=%.2f/s,sizes=%s]",
+                getClass().getSimpleName(),
+                elapsedNanos / 1000000,
+                filesGenerated,
+                filesSkipped,
+                filesFailed,
+                filesDeduplicated,
+                bytesLinked,
+                bytesRead,
+                bytesWritten,
+                decodeNanos / 1000000,
+                resizeNanos / 1000000,
+                encodeNanos / 1000000,
+                throughput,
+                sizes.values()
+            );
+        }
+    }
+
+    /**
+     * Immutable snapshot of accumulated metrics for a single generated size.
+     */
+    public static final class SizeSnapshot {
+
+        private final int size;
+        private final long count;
+        private final long resizeNanos;
+        private final long encodeNanos;
+        private final long bytesWritten;
+
+        private SizeSnapshot(int size, long count, long resizeNanos, long encodeNanos, long bytesWritten) {
+            this.size = size;
+            this.count = count;
+            this.resizeNanos = resizeNanos;
+            this.encodeNanos = encodeNanos;
+            this.bytesWritten = bytesWritten;
+        }
+
+        /**
+         * Get the generated size.
+         *
+         * @return size, in pixels
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Get the number of images generated at this size.
+         *
+         * @return number of images
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * Get the total time spent resizing images to this size.
+         *
+         * @return resize time
+         */
+        public long resizeNanos() {
+            return resizeNanos;
+        }
+
+        /**
+         * Get the total time spent encoding and writing images of this size.
+         *
+         * @return encode time
+         */
+        public long encodeNanos() {
+            return encodeNanos;
+        }
+
+        /**
+         * Get the total size of the generated images of this size.
+         *
+         * @return number of bytes
+         */
+        public long bytesWritten() {
+            return bytesWritten;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "%d[count=%d,resize=%dms,encode=%dms,bytes=%d]",
+                size,
+                count,
+                resizeNanos / 1000000,
+                encodeNanos / 1000000,
+                bytesWritten
+            );
+        }
+    }
+}
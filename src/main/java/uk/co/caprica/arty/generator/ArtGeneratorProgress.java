@@ -23,14 +23,26 @@ import java.nio.file.Path;
 
 /**
  * Specification for a component that wants to be notified of progress when generating artwork.
+ * <p>
+ * Callbacks are never invoked concurrently, even when the generator processes files in parallel, so implementations
+ * need not be thread-safe. When processing in parallel the "before" and "after" notifications for different files may
+ * be interleaved.
  */
 public interface ArtGeneratorProgress {
 
+    /**
+     * Value reported for the total number of files when the total is not yet known.
+     * <p>
+     * This happens when files are processed while the search for art files is still in progress, once the search
+     * completes the actual total is reported.
+     */
+    int UNKNOWN_TOTAL = -1;
+
     /**
      * Art generation is about to begin for a particular file.
      *
      * @param current number (1-based) of the current file within the collection
-     * @param total total number of files in the collection
+     * @param total total number of files in the collection, or {@link #UNKNOWN_TOTAL} if not yet known
      * @param filePath path of the current file being processed, relative to the source root path
      */
     void beforeGenerate(int current, int total, Path filePath);
@@ -39,8 +51,23 @@ public interface ArtGeneratorProgress {
      * Art generation is done for a particular file.
      *
      * @param current number (1-based) index of the current file within the collection
-     * @param total total number of files in the collection
+     * @param total total number of files in the collection, or {@link #UNKNOWN_TOTAL} if not yet known
      * @param filePath path of the current file being processed, relative to the source root path
      */
     void afterGenerate(int current, int total, Path filePath);
+
+    /**
+     * Art generation failed for a particular file.
+     * <p>
+     * This is only invoked when the generator is configured with {@link ArtFailurePolicy#CONTINUE}. This includes a
+     * file whose processing was cancelled part way through, in which case the exception is a
+     * {@link java.util.concurrent.CancellationException}.
+     *
+     * @param current number (1-based) index of the current file within the collection
+     * @param total total number of files in the collection, or {@link #UNKNOWN_TOTAL} if not yet known
+     * @param filePath path of the current file being processed, relative to the source root path
+     * @param exception cause of the failure
+     */
+    default void generateFailed(int current, int total, Path filePath, Exception exception) {
+    }
 }
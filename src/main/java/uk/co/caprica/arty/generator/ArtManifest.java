@@ -0,0 +1,309 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.generator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A persistent record of the source art files that have been processed, used to support incremental generation.
+ * <p>
+ * For each source file the manifest records the file size, last modified time and a hash of the file content, together
+ * with a description of the generator settings that were used to generate the art.
+ * <p>
+ * The manifest is a simple text file, one entry per line with tab-separated fields. The source file path is the last
+ * field so that it may itself contain any character other than a line separator.
+ * <p>
+ * Entries may safely be added and removed concurrently.
+ * <p>
+ * While a journal is open, each entry added is also appended to a journal file alongside the manifest file as soon as
+ * it is added. If the process ends without saving the manifest, e.g. because it crashed or was killed, the entries in
+ * the journal are restored when the manifest is next loaded, so a restarted run does not process those files again.
+ * The journal is deleted when the manifest is saved.
+ */
+final class ArtManifest {
+
+    /**
+     * Name of the manifest file, stored in the output root directory.
+     */
+    static final String FILENAME = ".arty-manifest";
+
+    /**
+     * First line of the manifest file, identifying the file format.
+     */
+    private static final String HEADER = "# arty manifest 1";
+
+    /**
+     * Suffix added to the manifest file name to get the journal file name.
+     */
+    private static final String JOURNAL_SUFFIX = ".journal";
+
+    /**
+     * Path to the manifest file.
+     */
+    private final Path manifestPath;
+
+    /**
+     * Manifest entries, keyed by source file path relative to the source root path.
+     */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Writer for the journal file, or <code>null</code> if the journal is not open.
+     */
+    private BufferedWriter journal;
+
+    /**
+     * Create an empty manifest.
+     *
+     * @param manifestPath path to the manifest file
+     */
+    private ArtManifest(Path manifestPath) {
+        this.manifestPath = manifestPath;
+    }
+
+    /**
+     * Load a manifest.
+     * <p>
+     * If the manifest file does not exist, or is not a recognised manifest file, an empty manifest is returned.
+     * <p>
+     * Any entries left in the journal file by a run that did not save the manifest are restored. An incomplete last
+     * line, e.g. one that was being written when the process ended, is ignored.
+     *
+     * @param manifestPath path to the manifest file
+     * @return manifest
+     * @throws IOException if an error occurs reading the manifest file
+     */
+    static ArtManifest load(Path manifestPath) throws IOException {
+        ArtManifest manifest = new ArtManifest(manifestPath);
+        try (BufferedReader reader = Files.newBufferedReader(manifestPath, StandardCharsets.UTF_8)) {
+            if (HEADER.equals(reader.readLine())) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    manifest.parse(line);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // A missing manifest simply means everything will be processed
+        }
+        try {
+            String journal = new String(Files.readAllBytes(manifest.journalPath()), StandardCharsets.UTF_8);
+            for (String line : journal.substring(0, journal.lastIndexOf('\n') + 1).split("\n")) {
+                manifest.parse(line);
+            }
+        } catch (NoSuchFileException e) {
+            // The manifest was saved at the end of the last run
+        }
+        return manifest;
+    }
+
+    /**
+     * Open the journal, so that each entry added from now on is recorded in the journal file straight away.
+     * <p>
+     * The journal is closed when the manifest is saved.
+     *
+     * @throws IOException if an error occurs opening the journal file
+     */
+    synchronized void openJournal() throws IOException {
+        if (journal == null) {
+            Files.createDirectories(manifestPath.toAbsolutePath().getParent());
+            journal = Files.newBufferedWriter(
+                journalPath(),
+                StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND
+            );
+        }
+    }
+
+    /**
+     * Save the manifest.
+     * <p>
+     * The manifest is written to a temporary file which then replaces the existing manifest file, so a failure part-way
+     * through saving never leaves a truncated manifest behind.
+     *
+     * @throws IOException if an error occurs writing the manifest file
+     */
+    void save() throws IOException {
+        closeJournal();
+        Files.createDirectories(manifestPath.toAbsolutePath().getParent());
+        Path tempPath = manifestPath.resolveSibling(manifestPath.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Map.Entry<String, Entry> mapEntry : new TreeMap<>(entries).entrySet()) {
+                writer.write(format(mapEntry.getKey(), mapEntry.getValue()));
+                writer.newLine();
+            }
+        }
+        try {
+            Files.move(tempPath, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempPath, manifestPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+        // Only now that every entry is in the manifest file is the journal no longer needed
+        Files.deleteIfExists(journalPath());
+    }
+
+    Entry get(String key) {
+        return entries.get(key);
+    }
+
+    boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Add an entry, replacing any existing entry for the same key.
+     * <p>
+     * If the journal is open, the entry is written to the journal file before returning.
+     *
+     * @param key manifest key
+     * @param entry manifest entry
+     * @throws IOException if an error occurs writing to the journal file
+     */
+    void put(String key, Entry entry) throws IOException {
+        entries.put(key, entry);
+        synchronized (this) {
+            if (journal != null) {
+                journal.write(format(key, entry));
+                // The line separator is always written, an incomplete line is recognised by the lack of one
+                journal.write('\n');
+                journal.flush();
+            }
+        }
+    }
+
+    Entry remove(String key) {
+        return entries.remove(key);
+    }
+
+    Set<String> keys() {
+        return entries.keySet();
+    }
+
+    private synchronized void closeJournal() throws IOException {
+        if (journal != null) {
+            try {
+                journal.close();
+            } finally {
+                journal = null;
+            }
+        }
+    }
+
+    private Path journalPath() {
+        return manifestPath.resolveSibling(manifestPath.getFileName() + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * Parse a line of the manifest (or journal) file and add the entry, lines that are not entries are ignored.
+     *
+     * @param line line to parse
+     */
+    private void parse(String line) {
+        String[] fields = line.split("\t", 5);
+        if (fields.length == 5) {
+            entries.put(fields[4], new Entry(
+                Long.parseLong(fields[0]),
+                Long.parseLong(fields[1]),
+                fields[2],
+                fields[3]
+            ));
+        }
+    }
+
+    private static String format(String key, Entry entry) {
+        return String.format("%d\t%d\t%s\t%s\t%s", entry.size, entry.lastModified, entry.hash, entry.settings, key);
+    }
+
+    /**
+     * Create a manifest entry describing the current state of a source file.
+     *
+     * @param sourceFile source art file
+     * @param settings description of the generator settings
+     * @return manifest entry
+     * @throws IOException if an error occurs reading the source file
+     */
+    static Entry describe(Path sourceFile, String settings) throws IOException {
+        return new Entry(
+            Files.size(sourceFile),
+            Files.getLastModifiedTime(sourceFile).toMillis(),
+            ArtFileHash.hash(sourceFile),
+            settings
+        );
+    }
+
+    /**
+     * A single manifest entry.
+     */
+    static final class Entry {
+
+        /**
+         * Size of the source file, in bytes.
+         */
+        final long size;
+
+        /**
+         * Last modified time of the source file, in milliseconds since the epoch.
+         */
+        final long lastModified;
+
+        /**
+         * Hash of the source file content.
+         */
+        final String hash;
+
+        /**
+         * Description of the generator settings used to generate the art.
+         */
+        final String settings;
+
+        Entry(long size, long lastModified, String hash, String settings) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.settings = settings;
+        }
+
+        /**
+         * Create a copy of this entry with updated file attributes.
+         *
+         * @param size new file size
+         * @param lastModified new last modified time
+         * @return new entry
+         */
+        Entry withAttributes(long size, long lastModified) {
+            return new Entry(size, lastModified, hash, settings);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.generator;
+
+import java.nio.file.Path;
+
+/**
+ * Wrapper for an {@link ArtGeneratorProgress} that maintains the current/total counts and serialises the callbacks.
+ * <p>
+ * This allows files to be processed concurrently while the progress implementation itself need not be thread-safe,
+ * and ensures that the reported counts are accurate and are always reported in order.
+ */
+final class ArtProgressReporter {
+
+    /**
+     * Progress callback to delegate to.
+     */
+    private final ArtGeneratorProgress progress;
+
+    /**
+     * Total number of files to be processed, or {@link ArtGeneratorProgress#UNKNOWN_TOTAL} if not yet known.
+     */
+    private int total;
+
+    /**
+     * Number of files for which processing has started.
+     */
+    private int started;
+
+    /**
+     * Number of files for which processing has finished, whether successfully or not.
+     */
+    private int finished;
+
+    /**
+     * Create a progress reporter.
+     *
+     * @param progress progress callback to delegate to
+     * @param total total number of files to be processed, or {@link ArtGeneratorProgress#UNKNOWN_TOTAL} if not yet known
+     */
+    ArtProgressReporter(ArtGeneratorProgress progress, int total) {
+        this.progress = progress;
+        this.total = total;
+    }
+
+    /**
+     * Set the total number of files to be processed, once it is known.
+     *
+     * @param total total number of files
+     */
+    synchronized void total(int total) {
+        this.total = total;
+    }
+
+    synchronized void beforeGenerate(Path filePath) {
+        progress.beforeGenerate(++started, total, filePath);
+    }
+
+    synchronized void afterGenerate(Path filePath) {
+        progress.afterGenerate(++finished, total, filePath);
+    }
+
+    synchronized void generateFailed(Path filePath, Exception exception) {
+        progress.generateFailed(++finished, total, filePath, exception);
+    }
+}
@@ -0,0 +1,435 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.generator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Component used to generate cover art for the entire source tree in the background while generating art on demand for
+ * particular source files, e.g. for an album a user has just opened, ahead of everything else.
+ * <p>
+ * Requested source files are queued by priority, and each time the generator is ready to start processing another file
+ * it takes the highest priority request (the earliest of those with equal priority) if there is one, and the next file
+ * of the bulk run otherwise. A request therefore waits only for the files already being processed, rather than for the
+ * entire bulk run. The next bulk file is fetched on a separate thread, so a request is also not held up while the bulk
+ * run is searching for (or checking) its next file. A source file is never processed twice at the same time, and a
+ * file processed on request is not processed again when the bulk run reaches it.
+ * <p>
+ * Each request can be cancelled individually, by cancelling its future. A cancelled request is not processed, or, if
+ * processing has already started, processing stops before the next size is generated - unless the file is also needed
+ * by the bulk run or another request. {@link #close()} stops the scheduler, and any run in progress, in the same way.
+ * <p>
+ * The generator's executor, failure policy and other settings apply to both bulk and requested files. Since any
+ * exception thrown by the generator ends the run, a failure policy of {@link ArtFailurePolicy#CONTINUE} is
+ * recommended so that a single bad source file does not stop the scheduler - a failed request completes its future
+ * exceptionally either way.
+ * <p>
+ * Requests made after the bulk run has finished are processed in batches, without searching the source tree again.
+ * Atlases are only rebuilt by the bulk run.
+ */
+final public class ArtScheduler implements Closeable {
+
+    /**
+     * Priority of a request when no priority is given.
+     */
+    public static final int DEFAULT_PRIORITY = 0;
+
+    private final ArtGenerator generator;
+
+    /**
+     * Token cancelled when the scheduler is closed.
+     */
+    private final ArtCancellationToken cancellation = new ArtCancellationToken();
+
+    /**
+     * Queued requests, highest priority first.
+     */
+    private final PriorityQueue<Request> queue = new PriorityQueue<>(
+        Comparator.comparingInt((Request request) -> request.priority).reversed().thenComparingLong(request -> request.sequence)
+    );
+
+    /**
+     * Source files currently being processed.
+     */
+    private final Map<Path, Task> active = new HashMap<>();
+
+    /**
+     * Source files processed on request that the bulk run has not yet reached.
+     */
+    private final Set<Path> requested = new HashSet<>();
+
+    /**
+     * <code>true</code> while the bulk run is in progress.
+     */
+    private boolean bulkRunning;
+
+    /**
+     * Sequence number for the next request, to keep requests with equal priority in order.
+     */
+    private long sequence;
+
+    /**
+     * Fetch of the next bulk file, in progress or completed but not yet taken, or <code>null</code> if there is none.
+     */
+    private CompletableFuture<Path> bulkFetch;
+
+    /**
+     * Thread used to fetch bulk files, created when first needed.
+     */
+    private ExecutorService bulkFetcher;
+
+    /**
+     * Create a scheduler.
+     *
+     * @param generator generator used to generate cover art
+     */
+    public ArtScheduler(ArtGenerator generator) {
+        this.generator = generator;
+    }
+
+    /**
+     * Request art for a source file with the default priority.
+     *
+     * @param sourceFile path to the source art file, within the source root path
+     * @return future that completes when art has been generated for the source file
+     */
+    public CompletableFuture<Void> request(Path sourceFile) {
+        return request(sourceFile, DEFAULT_PRIORITY);
+    }
+
+    /**
+     * Request art for a source file.
+     * <p>
+     * Requests are processed highest priority first, and all requests are processed before any further bulk files. A
+     * source file for which art already exists is processed according to the generator's settings, e.g. in incremental
+     * mode it is only processed if it has changed.
+     *
+     * @param sourceFile path to the source art file, within the source root path and, if the generator is generating a
+     *                   shard, in that shard
+     * @param priority priority of the request
+     * @return future that completes when art has been generated for the source file, cancelling the future cancels the
+     *         request
+     */
+    public CompletableFuture<Void> request(Path sourceFile, int priority) {
+        if (!sourceFile.startsWith(generator.sourceRootPath())) {
+            throw new IllegalArgumentException(String.format("Source file %s is not within the source root path", sourceFile));
+        }
+        if (!generator.inShard(sourceFile)) {
+            throw new IllegalArgumentException(String.format("Source file %s is not in the shard being generated", sourceFile));
+        }
+        Request request = new Request(sourceFile, priority);
+        synchronized (this) {
+            if (cancellation.isCancelled()) {
+                request.future.cancel(false);
+            } else {
+                request.sequence = sequence++;
+                queue.add(request);
+                notifyAll();
+            }
+        }
+        return request.future;
+    }
+
+    /**
+     * Generate cover art for the entire source tree, and then for requested source files as they are requested.
+     * <p>
+     * This method blocks until the scheduler is closed, or the calling thread is interrupted.
+     *
+     * @param progress callback to report image generation progress
+     * @throws IOException if an error occurs
+     */
+    public void run(ArtGeneratorProgress progress) throws IOException {
+        try {
+            synchronized (this) {
+                bulkRunning = true;
+            }
+            try {
+                generator.generateArt(progress, null, null, cancellation, this);
+            } finally {
+                synchronized (this) {
+                    bulkRunning = false;
+                    requested.clear();
+                    bulkFetch = null;
+                    if (bulkFetcher != null) {
+                        bulkFetcher.shutdownNow();
+                        bulkFetcher = null;
+                    }
+                }
+            }
+            while (awaitRequest()) {
+                generator.generateRequestedArt(progress, this);
+            }
+        } catch (CancellationException e) {
+            // The scheduler has been closed
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (this) {
+                queue.forEach(request -> request.future.cancel(false));
+                queue.clear();
+            }
+        }
+    }
+
+    /**
+     * Stop the scheduler.
+     * <p>
+     * This may be invoked from any thread, processing stops as soon as the files currently being processed reach the
+     * next size. Queued requests are cancelled.
+     */
+    @Override
+    public void close() {
+        cancellation.cancel();
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    ArtCancellationToken cancellation() {
+        return cancellation;
+    }
+
+    /**
+     * Wait until there is at least one queued request.
+     *
+     * @return <code>true</code> if there are requests; <code>false</code> if the scheduler has been closed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private synchronized boolean awaitRequest() throws InterruptedException {
+        while (queue.isEmpty() && !cancellation.isCancelled()) {
+            wait();
+        }
+        return !cancellation.isCancelled();
+    }
+
+    /**
+     * Get the next source file to process, the highest priority request if there is one, otherwise the next bulk file.
+     * <p>
+     * The file is then active until {@link #finished(Path, Exception)} is invoked for it.
+     * <p>
+     * The next bulk file is fetched in the background, and a request made while waiting for it is returned straight
+     * away, the fetched bulk file then being returned by a later invocation.
+     *
+     * @param bulkFiles source of bulk files, or <code>null</code> if only requested files are being processed
+     * @return path to the next source file, or <code>null</code> if there are no more files or the scheduler has been
+     *         closed
+     * @throws IOException if an error occurs getting the next bulk file
+     */
+    Path next(ArtFileSource bulkFiles) throws IOException {
+        for (;;) {
+            CompletableFuture<Path> fetch;
+            synchronized (this) {
+                for (;;) {
+                    Request request;
+                    while (!cancellation.isCancelled() && (request = queue.poll()) != null) {
+                        if (request.future.isCancelled()) {
+                            continue;
+                        }
+                        Task task = active.get(request.sourceFile);
+                        if (task != null) {
+                            // Already being processed, so the request completes along with that
+                            task.requests.add(request);
+                            continue;
+                        }
+                        task = new Task();
+                        task.requests.add(request);
+                        active.put(request.sourceFile, task);
+                        return request.sourceFile;
+                    }
+                    if (cancellation.isCancelled() || bulkFiles == null) {
+                        return null;
+                    }
+                    if (bulkFetch == null) {
+                        bulkFetch = fetch(bulkFiles);
+                    }
+                    if (bulkFetch.isDone()) {
+                        break;
+                    }
+                    // Woken when the fetch completes, a request is made, or the scheduler is closed
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for the next source file");
+                    }
+                }
+                fetch = bulkFetch;
+                bulkFetch = null;
+            }
+            Path sourceFile = fetched(fetch);
+            if (sourceFile == null) {
+                return null;
+            }
+            synchronized (this) {
+                Task task = active.get(sourceFile);
+                if (task != null) {
+                    task.bulk = true;
+                } else if (!requested.remove(sourceFile)) {
+                    task = new Task();
+                    task.bulk = true;
+                    active.put(sourceFile, task);
+                    return sourceFile;
+                }
+            }
+        }
+    }
+
+    /**
+     * Start fetching the next bulk file in the background.
+     * <p>
+     * Getting the next bulk file may block, e.g. while the source tree is searched, so it must not be done while holding
+     * the lock, nor hold up a request.
+     *
+     * @param bulkFiles source of bulk files
+     * @return future next bulk file
+     */
+    private CompletableFuture<Path> fetch(ArtFileSource bulkFiles) {
+        if (bulkFetcher == null) {
+            bulkFetcher = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "arty-scheduler-bulk");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        CompletableFuture<Path> result = CompletableFuture.supplyAsync(() -> {
+            try {
+                return bulkFiles.next();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, bulkFetcher);
+        result.whenComplete((sourceFile, failure) -> {
+            synchronized (this) {
+                notifyAll();
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Get the result of a completed fetch of a bulk file.
+     *
+     * @param fetch completed fetch
+     * @return next bulk file, or <code>null</code> if there are no more files
+     * @throws IOException if an error occurred getting the next bulk file
+     */
+    private static Path fetched(CompletableFuture<Path> fetch) throws IOException {
+        try {
+            return fetch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the next source file");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException && e.getCause().getCause() != null ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (RuntimeException) cause;
+        }
+    }
+
+    /**
+     * Check whether processing an active source file should stop, because every request for it has been cancelled.
+     *
+     * @param sourceFile path to the source file
+     * @return <code>true</code> if processing should stop; <code>false</code> otherwise
+     */
+    synchronized boolean isCancelled(Path sourceFile) {
+        Task task = active.get(sourceFile);
+        return task != null && !task.bulk && task.requests.stream().allMatch(request -> request.future.isCancelled());
+    }
+
+    /**
+     * Finish processing an active source file, completing the requests for it.
+     *
+     * @param sourceFile path to the source file
+     * @param failure exception if processing failed, or <code>null</code> if it succeeded
+     */
+    void finished(Path sourceFile, Exception failure) {
+        Task task;
+        synchronized (this) {
+            task = active.remove(sourceFile);
+            if (task == null) {
+                return;
+            }
+            if (failure == null && !task.bulk && bulkRunning) {
+                requested.add(sourceFile);
+            }
+        }
+        for (Request request : task.requests) {
+            if (failure == null) {
+                request.future.complete(null);
+            } else {
+                request.future.completeExceptionally(failure);
+            }
+        }
+    }
+
+    /**
+     * A request for art for a source file.
+     */
+    private static final class Request {
+
+        private final Path sourceFile;
+        private final int priority;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private long sequence;
+
+        private Request(Path sourceFile, int priority) {
+            this.sourceFile = sourceFile;
+            this.priority = priority;
+        }
+    }
+
+    /**
+     * A source file being processed.
+     */
+    private static final class Task {
+
+        /**
+         * Requests for the source file.
+         */
+        private final List<Request> requests = new ArrayList<>();
+
+        /**
+         * <code>true</code> if the source file is also needed by the bulk run.
+         */
+        private boolean bulk;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.generator;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One of a number of shards that the source art files are partitioned into, so that generation can be split across
+ * several processes or machines working against the same source and output directories.
+ * <p>
+ * A source file belongs to exactly one shard, chosen by a hash of its path relative to the source root path. The hash
+ * depends only on the relative path, with "/" as the separator, so every process agrees on the partition irrespective
+ * of platform, file system or the order in which files are found.
+ * <p>
+ * Shards are numbered from 1, and are usually given on a command line in the form <code>k/N</code>, see
+ * {@link #parse(String)}.
+ */
+final public class ArtShard {
+
+    /**
+     * FNV-1a 64-bit offset basis.
+     */
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    /**
+     * FNV-1a 64-bit prime.
+     */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int index;
+    private final int count;
+
+    /**
+     * Create a shard.
+     *
+     * @param index number of the shard, from 1 to the number of shards
+     * @param count number of shards
+     */
+    public ArtShard(int index, int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Number of shards must be at least 1");
+        }
+        if (index < 1 || index > count) {
+            throw new IllegalArgumentException(String.format("Shard number must be from 1 to %d", count));
+        }
+        this.index = index;
+        this.count = count;
+    }
+
+    /**
+     * Parse a shard given in the form <code>k/N</code>, e.g. <code>2/4</code> for the second of four shards.
+     *
+     * @param shard shard description
+     * @return shard
+     * @throws IllegalArgumentException if the description is not valid
+     */
+    public static ArtShard parse(String shard) {
+        String[] fields = shard.trim().split("/", -1);
+        if (fields.length != 2) {
+            throw new IllegalArgumentException(String.format("Shard '%s' is not of the form k/N", shard));
+        }
+        try {
+            return new ArtShard(Integer.parseInt(fields[0].trim()), Integer.parseInt(fields[1].trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Shard '%s' is not of the form k/N", shard), e);
+        }
+    }
+
+    /**
+     * Get the number of this shard.
+     *
+     * @return shard number, from 1 to the number of shards
+     */
+    public int index() {
+        return index;
+    }
+
+    /**
+     * Get the number of shards.
+     *
+     * @return number of shards
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Check whether a source file belongs to this shard.
+     *
+     * @param key path of the source file relative to the source root path, with "/" as the separator
+     * @return <code>true</code> if the source file belongs to this shard; <code>false</code> otherwise
+     */
+    public boolean contains(String key) {
+        return Long.remainderUnsigned(hash(key), count) == index - 1;
+    }
+
+    /**
+     * Get the suffix added to the names of files kept in the output root directory for this shard, so that the shards
+     * do not overwrite each other's files.
+     *
+     * @return file name suffix, e.g. <code>.2-of-4</code>
+     */
+    String fileSuffix() {
+        return "." + index + "-of-" + count;
+    }
+
+    /**
+     * Calculate the FNV-1a hash of the UTF-8 encoding of a key.
+     * <p>
+     * This is used rather than {@link String#hashCode()} since it spreads similar paths (e.g. differing only in a
+     * trailing digit) evenly over the shards.
+     *
+     * @param key key to hash
+     * @return hash
+     */
+    static long hash(String key) {
+        long result = FNV_OFFSET_BASIS;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            result ^= b & 0xff;
+            result *= FNV_PRIME;
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+}
@@ -0,0 +1,474 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.generator;
+
+import uk.co.caprica.arty.image.ArtPerceptualHash;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An index of the perceptual hashes of generated art, used to find source images that look the same or similar without
+ * decoding any images.
+ * <p>
+ * The generator records the hash of each source image in the index as a side output of generating its art, see
+ * {@link ArtGenerator#similarityIndex(boolean)}. The hash is calculated from the smallest generated image, see
+ * {@link ArtPerceptualHash}. A hash for an image that is not in the index (e.g. a new cover being considered for a
+ * collection) can be calculated directly and searched for.
+ * <p>
+ * Entries are keyed by the path of the source file relative to the source root path, with "/" as the separator.
+ * <p>
+ * Searches use a multi-index hash table built when the index is first searched, which only needs to compare a small
+ * part of the index to find all of the hashes within a small distance of the hash being searched for - even for a
+ * collection of a hundred thousand images a search takes well under a millisecond.
+ * <p>
+ * The index is a simple text file, one entry per line with tab-separated fields: the hash as 16 hexadecimal digits
+ * followed by the source file path. The source file path is the last field so that it may itself contain any character
+ * other than a line separator.
+ */
+final public class ArtSimilarityIndex {
+
+    /**
+     * Name of the index file, stored in the output root directory.
+     */
+    public static final String FILENAME = ".arty-similarity";
+
+    /**
+     * First line of the index file, identifying the file format.
+     */
+    private static final String HEADER = "# arty similarity 1";
+
+    /**
+     * Path to the index file.
+     */
+    private final Path indexPath;
+
+    /**
+     * Hashes, keyed by source file path relative to the source root path.
+     */
+    private final Map<String, Long> hashes = new ConcurrentHashMap<>();
+
+    /**
+     * Search table for the current hashes, or <code>null</code> if it has not been built since the hashes last changed.
+     */
+    private volatile Table table;
+
+    private ArtSimilarityIndex(Path indexPath) {
+        this.indexPath = indexPath;
+    }
+
+    /**
+     * Load an index.
+     * <p>
+     * If the index file does not exist, or is not a recognised index file, an empty index is returned.
+     *
+     * @param indexPath path to the index file, usually {@link #FILENAME} in the output root directory
+     * @return index
+     * @throws IOException if an error occurs reading the index file
+     */
+    public static ArtSimilarityIndex load(Path indexPath) throws IOException {
+        ArtSimilarityIndex index = new ArtSimilarityIndex(indexPath);
+        try (BufferedReader reader = Files.newBufferedReader(indexPath, StandardCharsets.UTF_8)) {
+            if (HEADER.equals(reader.readLine())) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t", 2);
+                    if (fields.length == 2) {
+                        index.hashes.put(fields[1], Long.parseUnsignedLong(fields[0], 16));
+                    }
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // A missing index is simply empty
+        }
+        return index;
+    }
+
+    /**
+     * Save the index.
+     * <p>
+     * The index is written to a temporary file which then replaces the existing index file.
+     *
+     * @throws IOException if an error occurs writing the index file
+     */
+    void save() throws IOException {
+        Files.createDirectories(indexPath.toAbsolutePath().getParent());
+        Path tempPath = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Map.Entry<String, Long> entry : new TreeMap<>(hashes).entrySet()) {
+                writer.write(String.format("%016x\t%s", entry.getValue(), entry.getKey()));
+                writer.newLine();
+            }
+        }
+        try {
+            Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    boolean contains(String key) {
+        return hashes.containsKey(key);
+    }
+
+    void put(String key, long hash) {
+        hashes.put(key, hash);
+        table = null;
+    }
+
+    /**
+     * Remove the entries for all source files other than those given.
+     *
+     * @param keys keys of the source files to keep
+     */
+    void retain(Collection<String> keys) {
+        if (hashes.keySet().retainAll(keys)) {
+            table = null;
+        }
+    }
+
+    /**
+     * Get the number of source images in the index.
+     *
+     * @return number of entries
+     */
+    public int size() {
+        return hashes.size();
+    }
+
+    /**
+     * Get the source files in the index.
+     *
+     * @return keys, paths of the source files relative to the source root path
+     */
+    public Set<String> keys() {
+        return Collections.unmodifiableSet(hashes.keySet());
+    }
+
+    /**
+     * Get the hash of a source image.
+     *
+     * @param key path of the source file relative to the source root path
+     * @return hash, or <code>null</code> if the source file is not in the index
+     */
+    public Long hash(String key) {
+        return hashes.get(key);
+    }
+
+    /**
+     * Find the source images with hashes within a particular distance of a hash.
+     *
+     * @param hash hash to search for
+     * @param maxDistance maximum distance, zero finds only images with the same hash
+     * @return matching source images, nearest first
+     */
+    public List<Match> search(long hash, int maxDistance) {
+        List<Match> result = new ArrayList<>();
+        table().search(hash, maxDistance, result);
+        result.sort(Comparator.comparingInt(Match::distance).thenComparing(Match::key));
+        return result;
+    }
+
+    /**
+     * Find the source images that are similar to a source image in the index.
+     *
+     * @param key path of the source file relative to the source root path
+     * @param maxDistance maximum distance
+     * @return matching source images other than the source image itself, nearest first, empty if the source file is
+     *         not in the index
+     */
+    public List<Match> similar(String key, int maxDistance) {
+        Long hash = hashes.get(key);
+        if (hash == null) {
+            return Collections.emptyList();
+        }
+        List<Match> result = search(hash, maxDistance);
+        result.removeIf(match -> match.key.equals(key));
+        return result;
+    }
+
+    /**
+     * Find groups of source images that are near-duplicates of each other.
+     * <p>
+     * Each source image in a group is within the maximum distance of at least one other source image in the same group.
+     *
+     * @param maxDistance maximum distance between near-duplicate images
+     * @return groups of two or more source file keys, each group and the groups themselves in key order
+     */
+    public List<List<String>> duplicates(int maxDistance) {
+        Table table = table();
+        int[] groups = new int[table.keys.length];
+        Arrays.setAll(groups, entry -> entry);
+        List<Match> matches = new ArrayList<>();
+        for (int entry = 0; entry < table.keys.length; entry++) {
+            matches.clear();
+            table.search(table.hashes[entry], maxDistance, matches);
+            for (Match match : matches) {
+                int group1 = group(groups, entry);
+                int group2 = group(groups, match.entry);
+                groups[Math.max(group1, group2)] = Math.min(group1, group2);
+            }
+        }
+        Map<Integer, List<String>> members = new TreeMap<>();
+        for (int entry = 0; entry < table.keys.length; entry++) {
+            members.computeIfAbsent(group(groups, entry), group -> new ArrayList<>()).add(table.keys[entry]);
+        }
+        List<List<String>> result = new ArrayList<>();
+        for (List<String> group : members.values()) {
+            if (group.size() > 1) {
+                result.add(group);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find the group containing an entry, flattening the path to the group as it goes.
+     *
+     * @param groups group links for each entry
+     * @param entry index entry
+     * @return group, the lowest-numbered entry in the group
+     */
+    private static int group(int[] groups, int entry) {
+        while (groups[entry] != entry) {
+            groups[entry] = groups[groups[entry]];
+            entry = groups[entry];
+        }
+        return entry;
+    }
+
+    /**
+     * Get the search table for the current hashes, building it if necessary.
+     *
+     * @return search table
+     */
+    private Table table() {
+        Table result = table;
+        if (result == null) {
+            synchronized (this) {
+                result = table;
+                if (result == null) {
+                    result = new Table(new TreeMap<>(hashes));
+                    table = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A source image found by a search.
+     */
+    public static final class Match {
+
+        private final String key;
+        private final long hash;
+        private final int distance;
+        private final int entry;
+
+        private Match(String key, long hash, int distance, int entry) {
+            this.key = key;
+            this.hash = hash;
+            this.distance = distance;
+            this.entry = entry;
+        }
+
+        /**
+         * Get the source file.
+         *
+         * @return path of the source file relative to the source root path
+         */
+        public String key() {
+            return key;
+        }
+
+        /**
+         * Get the hash of the source image.
+         *
+         * @return hash
+         */
+        public long hash() {
+            return hash;
+        }
+
+        /**
+         * Get the distance between the hash of the source image and the hash that was searched for.
+         *
+         * @return number of differing bits
+         */
+        public int distance() {
+            return distance;
+        }
+    }
+
+    /**
+     * A multi-index hash table of hashes.
+     * <p>
+     * Each hash is split into {@link #PARTS} parts, and the entries are bucketed by the value of each part in turn. If two
+     * hashes differ by at most <em>r</em> bits then at least one of their parts differs by at most <em>r</em> /
+     * {@link #PARTS} bits, so a search only needs to compare the entries in the buckets for part values within that
+     * many bits of the corresponding part of the hash being searched for. For small distances this is a tiny fraction of
+     * the index.
+     * <p>
+     * The buckets are held in flat arrays, sorted by part value with an offset for the start of each bucket, so that an
+     * index of many thousands of hashes is compact and quick to build.
+     */
+    private static final class Table {
+
+        /**
+         * Number of parts each hash is split into.
+         */
+        private static final int PARTS = 4;
+
+        /**
+         * Number of bits in each part.
+         */
+        private static final int PART_BITS = ArtPerceptualHash.BITS / PARTS;
+
+        /**
+         * Every part value, ordered by the number of bits set, the values within some number of bits of a part value are
+         * that value combined with a prefix of these.
+         */
+        private static final int[] PART_MASKS = new int[1 << PART_BITS];
+
+        /**
+         * Number of part values with at most a particular number of bits set, indexed by that number of bits.
+         */
+        private static final int[] PART_MASK_COUNTS = new int[PART_BITS + 1];
+
+        static {
+            int count = 0;
+            for (int bits = 0; bits <= PART_BITS; bits++) {
+                for (int mask = 0; mask < PART_MASKS.length; mask++) {
+                    if (Integer.bitCount(mask) == bits) {
+                        PART_MASKS[count++] = mask;
+                    }
+                }
+                PART_MASK_COUNTS[bits] = count;
+            }
+        }
+
+        private final String[] keys;
+        private final long[] hashes;
+
+        /**
+         * Entries for each part, ordered by part value.
+         */
+        private final int[][] entries = new int[PARTS][];
+
+        /**
+         * Start of the entries with each part value, for each part, with a final element for the end of the entries.
+         */
+        private final int[][] offsets = new int[PARTS][];
+
+        private Table(Map<String, Long> hashMap) {
+            int size = hashMap.size();
+            keys = new String[size];
+            hashes = new long[size];
+            int entry = 0;
+            for (Map.Entry<String, Long> mapEntry : hashMap.entrySet()) {
+                keys[entry] = mapEntry.getKey();
+                hashes[entry] = mapEntry.getValue();
+                entry++;
+            }
+            for (int part = 0; part < PARTS; part++) {
+                int[] partOffsets = new int[PART_MASKS.length + 1];
+                for (long hash : hashes) {
+                    partOffsets[part(hash, part) + 1]++;
+                }
+                for (int value = 0; value < PART_MASKS.length; value++) {
+                    partOffsets[value + 1] += partOffsets[value];
+                }
+                int[] next = Arrays.copyOf(partOffsets, PART_MASKS.length);
+                int[] partEntries = new int[size];
+                for (entry = 0; entry < size; entry++) {
+                    partEntries[next[part(hashes[entry], part)]++] = entry;
+                }
+                entries[part] = partEntries;
+                offsets[part] = partOffsets;
+            }
+        }
+
+        private void search(long hash, int maxDistance, List<Match> results) {
+            if (maxDistance < 0) {
+                return;
+            }
+            int maxPartDistance = Math.min(PART_BITS, maxDistance / PARTS);
+            for (int part = 0; part < PARTS; part++) {
+                int partValue = part(hash, part);
+                int[] partEntries = entries[part];
+                int[] partOffsets = offsets[part];
+                for (int mask = 0; mask < PART_MASK_COUNTS[maxPartDistance]; mask++) {
+                    int value = partValue ^ PART_MASKS[mask];
+                    for (int index = partOffsets[value]; index < partOffsets[value + 1]; index++) {
+                        int entry = partEntries[index];
+                        long difference = hashes[entry] ^ hash;
+                        if (!foundInEarlierPart(difference, part, maxPartDistance)) {
+                            int distance = Long.bitCount(difference);
+                            if (distance <= maxDistance) {
+                                results.add(new Match(keys[entry], hashes[entry], distance, entry));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Check whether an entry has already been visited when searching the buckets of an earlier part.
+         *
+         * @param difference bits that differ between the entry's hash and the hash being searched for
+         * @param part current part
+         * @param maxPartDistance maximum distance of the part values being searched
+         * @return <code>true</code> if the entry has already been visited; <code>false</code> otherwise
+         */
+        private static boolean foundInEarlierPart(long difference, int part, int maxPartDistance) {
+            for (int earlierPart = 0; earlierPart < part; earlierPart++) {
+                if (Integer.bitCount(part(difference, earlierPart)) <= maxPartDistance) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static int part(long hash, int part) {
+            return (int) (hash >>> (part * PART_BITS)) & ((1 << PART_BITS) - 1);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.generator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Component used to keep generated cover art up to date by watching the source directories for changes.
+ * <p>
+ * Every directory in the source tree is watched. File system events typically arrive in bursts, e.g. when a whole album
+ * is copied in, so events are collected until there has been a quiet period of the debounce time (or the maximum delay
+ * has passed since the first event), and the affected directories are then processed together as a single batch. Only
+ * new and changed source files in the affected directories are processed, and generated art is removed for source files
+ * that have been deleted.
+ * <p>
+ * If events are lost because the watcher could not keep up, the directory whose events were lost is searched again in
+ * its entirety, rather than the entire source tree, and any new sub-directories are watched.
+ * <p>
+ * The generator is used in incremental mode. The source root path itself should not be removed while watching.
+ * <p>
+ * Note that some platforms limit the number of directories that can be watched, e.g. on Linux this is the
+ * <code>fs.inotify.max_user_watches</code> setting.
+ */
+final public class ArtWatcher implements Closeable {
+
+    /**
+     * Default quiet period, in milliseconds.
+     */
+    public static final long DEFAULT_DEBOUNCE = 2000;
+
+    /**
+     * Default maximum delay between the first event of a batch and processing the batch, in milliseconds.
+     */
+    public static final long DEFAULT_MAX_DELAY = 30000;
+
+    private final ArtGenerator generator;
+    private final Path sourceRootPath;
+    private final String artFilename;
+    private final WatchService watchService;
+
+    /**
+     * Watched directories, keyed by watch key.
+     */
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+
+    private long debounce = DEFAULT_DEBOUNCE;
+    private long maxDelay = DEFAULT_MAX_DELAY;
+
+    /**
+     * Create a watcher.
+     *
+     * @param generator generator used to generate cover art
+     * @throws IOException if an error occurs creating the watch service
+     */
+    public ArtWatcher(ArtGenerator generator) throws IOException {
+        this.generator = generator.incremental(true);
+        this.sourceRootPath = generator.sourceRootPath();
+        this.artFilename = generator.artFilename();
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Set the quiet period, after which a batch of events is processed.
+     *
+     * @param debounce quiet period, in milliseconds
+     * @return this watcher
+     */
+    public ArtWatcher debounce(long debounce) {
+        if (debounce < 0) {
+            throw new IllegalArgumentException("Debounce must not be negative");
+        }
+        this.debounce = debounce;
+        return this;
+    }
+
+    /**
+     * Set the maximum delay between the first event of a batch and processing the batch, so that a continuous stream of
+     * events does not delay processing indefinitely.
+     *
+     * @param maxDelay maximum delay, in milliseconds
+     * @return this watcher
+     */
+    public ArtWatcher maxDelay(long maxDelay) {
+        if (maxDelay < 0) {
+            throw new IllegalArgumentException("Maximum delay must not be negative");
+        }
+        this.maxDelay = maxDelay;
+        return this;
+    }
+
+    /**
+     * Watch the source directories, generating cover art as they change.
+     * <p>
+     * An initial incremental generation of the entire source tree is performed first so that any changes made while
+     * not watching are picked up.
+     * <p>
+     * This method blocks until the watcher is closed, or the calling thread is interrupted.
+     * <p>
+     * Any exception thrown by the generator ends watching, so a failure policy of {@link ArtFailurePolicy#CONTINUE} is
+     * recommended so that a single bad source file does not stop the watcher.
+     *
+     * @param progress callback to report image generation progress
+     * @throws IOException if an error occurs
+     */
+    public void watch(ArtGeneratorProgress progress) throws IOException {
+        try {
+            register(sourceRootPath);
+            generator.generateArt(progress);
+            for (;;) {
+                WatchKey key = watchService.take();
+                TreeSet<Path> batch = new TreeSet<>();
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelay);
+                while (key != null) {
+                    handleEvents(key, batch);
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    key = remaining > 0 ? watchService.poll(Math.min(debounce, remaining), TimeUnit.MILLISECONDS) : null;
+                }
+                if (!batch.isEmpty()) {
+                    generator.generateArt(progress, outermost(batch));
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // The watcher has been closed
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stop watching.
+     * <p>
+     * This may be invoked from any thread, any batch currently being processed is completed first.
+     *
+     * @throws IOException if an error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    /**
+     * Handle the pending events for a watch key, adding the affected directories to a batch.
+     *
+     * @param key watch key
+     * @param batch affected directories
+     * @throws IOException if an error occurs registering a new directory
+     */
+    private void handleEvents(WatchKey key, TreeSet<Path> batch) throws IOException {
+        Path directory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (directory == null) {
+                continue;
+            }
+            WatchEvent.Kind<?> kind = event.kind();
+            if (kind == OVERFLOW) {
+                // Events were lost, so search the whole directory again, including any new sub-directories that must now
+                // be watched
+                register(directory);
+                batch.add(directory);
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (path.getFileName().toString().equals(artFilename)) {
+                batch.add(directory);
+            } else if (kind == ENTRY_CREATE && Files.isDirectory(path)) {
+                // Files may already have been created in the new directory before it was registered
+                register(path);
+                batch.add(path);
+            } else if (kind == ENTRY_DELETE) {
+                // This may have been a directory containing source files
+                batch.add(path);
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    /**
+     * Watch a directory and all of its sub-directories.
+     *
+     * @param directory directory to watch
+     * @throws IOException if an error occurs
+     */
+    private void register(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                directories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                // The directory may already have been removed again
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Remove directories that are contained within other directories in a batch, since processing a directory also
+     * processes all of its sub-directories.
+     *
+     * @param batch affected directories, sorted
+     * @return outermost directories
+     */
+    private static List<Path> outermost(TreeSet<Path> batch) {
+        List<Path> result = new ArrayList<>();
+        for (Path directory : batch) {
+            if (result.stream().noneMatch(directory::startsWith)) {
+                result.add(directory);
+            }
+        }
+        return result;
+    }
+}
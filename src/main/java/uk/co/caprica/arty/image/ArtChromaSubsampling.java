@@ -0,0 +1,51 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.image;
+
+/**
+ * Chroma subsampling used when encoding a colour JPEG image.
+ * <p>
+ * The eye is much less sensitive to detail in colour than in brightness, so the colour (chroma) components of an image
+ * can be stored at a lower resolution than the brightness (luma) component with little visible difference. This
+ * reduces the size of the encoded image, but can blur fine coloured detail such as small red text, which is more
+ * noticeable in very small images.
+ */
+public enum ArtChromaSubsampling {
+
+    /**
+     * Use the image writer's default subsampling, for the standard JPEG writer this is {@link #YUV_420}.
+     */
+    DEFAULT,
+
+    /**
+     * No subsampling, chroma is stored at full resolution.
+     */
+    YUV_444,
+
+    /**
+     * Chroma is stored at half the horizontal resolution.
+     */
+    YUV_422,
+
+    /**
+     * Chroma is stored at half the horizontal and half the vertical resolution.
+     */
+    YUV_420
+}
@@ -0,0 +1,214 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.image;
+
+import java.util.Arrays;
+
+/**
+ * Settings used to encode images, see {@link ArtImageWriter}.
+ * <p>
+ * A profile lists one or more image formats in order of preference, and the first for which an image writer is
+ * available is used. Formats such as "webp" need an additional ImageIO plugin, so e.g. a profile of "webp" then "jpg"
+ * uses WebP only where such a plugin is installed.
+ * <p>
+ * The default profile for a format uses the format's default quality, baseline (not progressive) encoding, the default
+ * chroma subsampling, and keeps the standard header metadata.
+ * <p>
+ * Optionally a maximum encoded size can be set, in which case the highest quality (no higher than the profile quality,
+ * and no lower than a minimum quality) that gives an encoded image within that size is searched for. This is useful for
+ * small images, where the size of an image encoded at a high quality can be several times that of one that looks the
+ * same at a slightly lower quality.
+ */
+final public class ArtEncodingProfile {
+
+    /**
+     * Default minimum quality when searching for a quality that meets the maximum encoded size.
+     */
+    public static final float DEFAULT_MIN_QUALITY = 0.5f;
+
+    private final String[] formats;
+
+    private float quality = ArtImageWriter.DEFAULT_QUALITY;
+    private boolean progressive;
+    private ArtChromaSubsampling chromaSubsampling = ArtChromaSubsampling.DEFAULT;
+    private boolean stripMetadata;
+    private int maxBytes;
+    private float minQuality = DEFAULT_MIN_QUALITY;
+
+    /**
+     * Create an encoding profile.
+     *
+     * @param formats image format names in order of preference, e.g. "webp" then "jpg"
+     */
+    public ArtEncodingProfile(String... formats) {
+        if (formats.length == 0) {
+            throw new IllegalArgumentException("At least one image format is required");
+        }
+        this.formats = formats.clone();
+    }
+
+    /**
+     * Set the compression quality.
+     *
+     * @param quality compression quality, from 0.0 to 1.0 with 1.0 being the highest quality, or
+     *                {@link ArtImageWriter#DEFAULT_QUALITY}
+     * @return this profile
+     */
+    public ArtEncodingProfile quality(float quality) {
+        if (!Float.isNaN(quality) && (quality < 0.0f || quality > 1.0f)) {
+            throw new IllegalArgumentException("Quality must be between 0 and 1");
+        }
+        this.quality = quality;
+        return this;
+    }
+
+    /**
+     * Use progressive rather than baseline encoding, if the format supports it.
+     * <p>
+     * A progressive JPEG image is shown at a low resolution first and then refined as the rest of it loads, and is
+     * usually slightly smaller than a baseline image, but for very small images it can be slightly larger.
+     *
+     * @param progressive <code>true</code> for progressive encoding; <code>false</code> for baseline encoding
+     * @return this profile
+     */
+    public ArtEncodingProfile progressive(boolean progressive) {
+        this.progressive = progressive;
+        return this;
+    }
+
+    /**
+     * Set the chroma subsampling used for colour JPEG images, this is ignored for other formats.
+     *
+     * @param chromaSubsampling chroma subsampling
+     * @return this profile
+     */
+    public ArtEncodingProfile chromaSubsampling(ArtChromaSubsampling chromaSubsampling) {
+        this.chromaSubsampling = chromaSubsampling;
+        return this;
+    }
+
+    /**
+     * Omit optional header metadata from encoded images.
+     * <p>
+     * Encoded images never contain metadata from the source image. For JPEG images this removes the JFIF header too,
+     * saving a few bytes on every image. The header is kept for colour images without chroma subsampling, since
+     * decoders would otherwise take the image to be RGB rather than YCbCr.
+     *
+     * @param stripMetadata <code>true</code> to omit optional metadata; <code>false</code> to keep it
+     * @return this profile
+     */
+    public ArtEncodingProfile stripMetadata(boolean stripMetadata) {
+        this.stripMetadata = stripMetadata;
+        return this;
+    }
+
+    /**
+     * Set the maximum size of an encoded image.
+     * <p>
+     * The highest quality, from the minimum quality up to the profile quality (or 1.0 if the default quality is used),
+     * that gives an encoded image no larger than the maximum size is searched for. If even the minimum quality gives a
+     * larger image, the image is encoded at the minimum quality. Each step of the search encodes the image again, so
+     * this is best used for small images. The maximum size is ignored for formats that have no compression quality.
+     *
+     * @param maxBytes maximum size of an encoded image, in bytes, or zero for no maximum
+     * @param minQuality minimum quality
+     * @return this profile
+     */
+    public ArtEncodingProfile maxBytes(int maxBytes, float minQuality) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Maximum size must not be negative");
+        }
+        if (!(minQuality >= 0.0f && minQuality <= 1.0f)) {
+            throw new IllegalArgumentException("Minimum quality must be between 0 and 1");
+        }
+        this.maxBytes = maxBytes;
+        this.minQuality = minQuality;
+        return this;
+    }
+
+    /**
+     * Get the image format that will be used, the first of the preferred formats that can be written.
+     *
+     * @return format name
+     * @throws IllegalArgumentException if none of the formats is supported
+     */
+    public String format() {
+        for (String format : formats) {
+            if (ArtImageWriter.isSupported(format)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException(String.format("No image writer available for format %s", String.join(" or ", Arrays.asList(formats))));
+    }
+
+    /**
+     * Get the compression quality.
+     *
+     * @return quality, or {@link ArtImageWriter#DEFAULT_QUALITY}
+     */
+    public float quality() {
+        return quality;
+    }
+
+    /**
+     * Check whether progressive encoding is used.
+     *
+     * @return <code>true</code> if progressive encoding is requested; <code>false</code> otherwise
+     */
+    public boolean progressive() {
+        return progressive;
+    }
+
+    /**
+     * Get the chroma subsampling.
+     *
+     * @return chroma subsampling
+     */
+    public ArtChromaSubsampling chromaSubsampling() {
+        return chromaSubsampling;
+    }
+
+    /**
+     * Check whether optional metadata is omitted.
+     *
+     * @return <code>true</code> if optional metadata is omitted; <code>false</code> otherwise
+     */
+    public boolean stripMetadata() {
+        return stripMetadata;
+    }
+
+    /**
+     * Get the maximum size of an encoded image.
+     *
+     * @return maximum size, in bytes, or zero for no maximum
+     */
+    public int maxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Get the minimum quality when searching for a quality that meets the maximum size.
+     *
+     * @return minimum quality
+     */
+    public float minQuality() {
+        return minQuality;
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.image;
+
+import net.coobird.thumbnailator.util.exif.ExifFilterUtils;
+import net.coobird.thumbnailator.util.exif.ExifUtils;
+import net.coobird.thumbnailator.util.exif.Orientation;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+
+/**
+ * Component used to decode image files, decoding at a reduced resolution when only a small image is required.
+ * <p>
+ * The image header is read first to get the image dimensions, and if the image is much larger than required it is
+ * decoded using source subsampling. This reduces both the time taken to decode the image and the memory needed to hold
+ * the decoded image, which can be very significant when a large cover image is used to generate a small thumbnail.
+ * <p>
+ * Subsampling simply skips source pixels, so the decoded image is always kept at least {@link #OVERSAMPLING} times
+ * larger than the target size, and must then be resampled with a proper filter to get the final image. This keeps the
+ * aliasing introduced by subsampling to a level that is not visible after the final resample.
+ * <p>
+ * When a decoded image is only needed briefly, e.g. to be scaled into another image, it can be decoded into an image
+ * that is reused by each thread, see {@link #readTransient(Path, int)}. This avoids allocating a new image for every
+ * decode.
+ * <p>
+ * Image files are read through a {@link FileChannel} rather than a stream. A file is read with a single channel read
+ * into a direct buffer reused by each thread (or, if it is larger than {@link #MAX_REUSED_BYTES}, a buffer used only for
+ * that file), or, if it is very large, memory-mapped, and then decoded straight from the buffer with no further copying
+ * or stream buffering.
+ * <p>
+ * The Exif orientation of a JPEG image, if any, is applied after decoding, so that e.g. a photo taken with a phone held
+ * upright is returned upright.
+ * <p>
+ * Each thread that reads images keeps at most a {@link #MAX_REUSED_BYTES} direct buffer and a transient image of
+ * {@link #MAX_TRANSIENT_PIXELS} pixels (at most 1 MiB of heap), for as long as the thread lives. Larger files and
+ * decodes use memory that is released as soon as they are finished with.
+ */
+final public class ArtImageReader {
+
+    /**
+     * Minimum ratio between the size of a subsampled decoded image and the target size.
+     */
+    public static final int OVERSAMPLING = 4;
+
+    /**
+     * Maximum number of pixels in an image reused for transient decoding, larger images are not kept.
+     * <p>
+     * This is enough for the subsampled decode of a source for a thumbnail-sized target, and bounds the heap memory held
+     * by each thread of a long-lived thread pool.
+     */
+    public static final int MAX_TRANSIENT_PIXELS = 512 * 512;
+
+    /**
+     * Maximum size of an image file read into a buffer, larger files are memory-mapped instead.
+     */
+    public static final int MAX_BUFFERED_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * Maximum capacity of the direct buffer reused by each thread for reading image files, larger files are read into a
+     * buffer that is not kept.
+     * <p>
+     * This bounds the off-heap memory held by each thread of a long-lived thread pool.
+     */
+    public static final int MAX_REUSED_BYTES = 1024 * 1024;
+
+    /**
+     * Buffer reused by each thread for reading image files.
+     */
+    private static final ThreadLocal<ByteBuffer> fileBuffers = new ThreadLocal<>();
+
+    /**
+     * Image reused by each thread for transient decoding.
+     */
+    private static final ThreadLocal<TransientImage> transientImage = new ThreadLocal<>();
+
+    private ArtImageReader() {
+    }
+
+    /**
+     * Decode an image file at full resolution.
+     *
+     * @param path path to the image file
+     * @return decoded image
+     * @throws IOException if an error occurs when reading the image file, or the image format is not supported
+     */
+    public static BufferedImage read(Path path) throws IOException {
+        return read(path, 0);
+    }
+
+    /**
+     * Decode an image file at a reduced resolution suitable for scaling to a particular target size.
+     * <p>
+     * The image is decoded at the smallest resolution that is still at least {@link #OVERSAMPLING} times the target
+     * size in each dimension, if the image is not larger than that it is decoded at full resolution.
+     *
+     * @param path path to the image file
+     * @param targetSize size the decoded image will be scaled to, or zero to decode at full resolution
+     * @return decoded image
+     * @throws IOException if an error occurs when reading the image file, or the image format is not supported
+     */
+    public static BufferedImage read(Path path, int targetSize) throws IOException {
+        return read(path, targetSize, null);
+    }
+
+    /**
+     * Decode an image file at a reduced resolution suitable for scaling to a particular target size, also getting the
+     * full resolution dimensions of the image (after applying its orientation).
+     *
+     * @param path path to the image file
+     * @param targetSize size the decoded image will be scaled to, or zero to decode at full resolution
+     * @param sourceDimensions set to the full resolution dimensions of the image, may be <code>null</code>
+     * @return decoded image
+     * @throws IOException if an error occurs when reading the image file, or the image format is not supported
+     */
+    public static BufferedImage read(Path path, int targetSize, Dimension sourceDimensions) throws IOException {
+        try (ImageInputStream input = open(path)) {
+            return read(input, targetSize, path, sourceDimensions, false);
+        }
+    }
+
+    /**
+     * Decode an image file at a reduced resolution suitable for scaling to a particular target size, into an image that
+     * is reused by the calling thread.
+     * <p>
+     * The returned image is only valid until the next transient decode on the same thread, so it must not be kept or
+     * passed to another thread.
+     *
+     * @param path path to the image file
+     * @param targetSize size the decoded image will be scaled to, or zero to decode at full resolution
+     * @return decoded image
+     * @throws IOException if an error occurs when reading the image file, or the image format is not supported
+     */
+    public static BufferedImage readTransient(Path path, int targetSize) throws IOException {
+        try (ImageInputStream input = open(path)) {
+            return read(input, targetSize, path, null, true);
+        }
+    }
+
+    /**
+     * Decode an image from a stream at a reduced resolution suitable for scaling to a particular target size.
+     *
+     * @param input image input stream, this is not closed
+     * @param targetSize size the decoded image will be scaled to, or zero to decode at full resolution
+     * @param source description of the image source, used in error messages
+     * @param sourceDimensions set to the full resolution dimensions of the image, may be <code>null</code>
+     * @param reuse <code>true</code> to decode into the image reused by the calling thread if possible
+     * @return decoded image
+     * @throws IOException if an error occurs when reading the image, or the image format is not supported
+     */
+    static BufferedImage read(ImageInputStream input, int targetSize, Object source, Dimension sourceDimensions, boolean reuse) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            throw new IOException(String.format("No image reader available for %s", source));
+        }
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(input, true, true);
+            ImageReadParam param = reader.getDefaultReadParam();
+            Orientation orientation = orientation(reader);
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            // The target size applies to the image the right way up, not as it is stored
+            int orientedWidth = transposes(orientation) ? height : width;
+            int orientedHeight = transposes(orientation) ? width : height;
+            if (sourceDimensions != null) {
+                sourceDimensions.setSize(orientedWidth, orientedHeight);
+            }
+            int subsampling = subsampling(orientedWidth, orientedHeight, targetSize);
+            if (subsampling > 1) {
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            }
+            if (reuse) {
+                int decodedWidth = (width + subsampling - 1) / subsampling;
+                int decodedHeight = (height + subsampling - 1) / subsampling;
+                BufferedImage destination = transientDestination(reader.getImageTypes(0).next(), decodedWidth, decodedHeight);
+                if (destination != null) {
+                    param.setDestination(destination);
+                    return orient(reader.read(0, param).getSubimage(0, 0, decodedWidth, decodedHeight), orientation);
+                }
+            }
+            return orient(reader.read(0, param), orientation);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Get the Exif orientation of the image being read.
+     * <p>
+     * Only JPEG images are checked. Missing or malformed Exif data is ignored, as it would be by most image viewers.
+     *
+     * @param reader image reader, with its input set
+     * @return orientation, or <code>null</code> if the image has no orientation
+     */
+    private static Orientation orientation(ImageReader reader) {
+        try {
+            if ("jpeg".equalsIgnoreCase(reader.getFormatName())) {
+                return ExifUtils.getExifOrientation(reader, 0);
+            }
+        } catch (IOException | RuntimeException e) {
+            // The image itself may still be readable
+        }
+        return null;
+    }
+
+    /**
+     * Check whether an orientation swaps the width and height of an image, i.e. it includes a rotation by 90 degrees.
+     *
+     * @param orientation Exif orientation, may be <code>null</code>
+     * @return <code>true</code> if the width and height are swapped; <code>false</code> otherwise
+     */
+    private static boolean transposes(Orientation orientation) {
+        return orientation == Orientation.LEFT_TOP || orientation == Orientation.RIGHT_TOP || orientation == Orientation.RIGHT_BOTTOM || orientation == Orientation.LEFT_BOTTOM;
+    }
+
+    /**
+     * Rotate and/or flip a decoded image so that it is the right way up.
+     * <p>
+     * A new image is returned unless no change is needed, so an image reused for transient decoding is only ever
+     * returned as is.
+     *
+     * @param image decoded image
+     * @param orientation Exif orientation of the image, may be <code>null</code>
+     * @return image the right way up
+     */
+    private static BufferedImage orient(BufferedImage image, Orientation orientation) {
+        if (orientation == null || orientation == Orientation.TOP_LEFT) {
+            return image;
+        }
+        return ExifFilterUtils.getFilterForOrientation(orientation).apply(image);
+    }
+
+    /**
+     * Open an image file for reading.
+     * <p>
+     * The returned stream reads from a buffer reused by the calling thread, so it must be closed before the next image
+     * file is opened on the same thread.
+     *
+     * @param path path to the image file
+     * @return image input stream
+     * @throws IOException if an error occurs when reading the image file
+     */
+    private static ImageInputStream open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(String.format("Image file %s is too large", path));
+            }
+            if (size > MAX_BUFFERED_BYTES) {
+                // The mapping remains valid after the channel is closed
+                return new ByteBufferImageInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            }
+            ByteBuffer buffer = fileBuffers.get();
+            if (size > MAX_REUSED_BYTES) {
+                buffer = ByteBuffer.allocate((int) size);
+            } else if (buffer == null || buffer.capacity() < size) {
+                buffer = ByteBuffer.allocateDirect((int) size);
+                fileBuffers.set(buffer);
+            }
+            buffer.clear();
+            buffer.limit((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) == -1) {
+                    break;
+                }
+            }
+            buffer.flip();
+            return new ByteBufferImageInputStream(buffer);
+        }
+    }
+
+    /**
+     * Get the image reused by the calling thread for transient decoding, creating (or replacing) it if it does not have
+     * the required type or is too small.
+     *
+     * @param type required image type
+     * @param width minimum width
+     * @param height minimum height
+     * @return reusable image, or <code>null</code> if the image would be too large to keep
+     */
+    private static BufferedImage transientDestination(ImageTypeSpecifier type, int width, int height) {
+        TransientImage current = transientImage.get();
+        if (current != null && current.type.equals(type) && current.image.getWidth() >= width && current.image.getHeight() >= height) {
+            return current.image;
+        }
+        // Grow to cover both the previous and the required size, so that images of varying shapes soon settle on one
+        int newWidth = current != null && current.type.equals(type) ? Math.max(width, current.image.getWidth()) : width;
+        int newHeight = current != null && current.type.equals(type) ? Math.max(height, current.image.getHeight()) : height;
+        if ((long) newWidth * newHeight > MAX_TRANSIENT_PIXELS) {
+            if ((long) width * height > MAX_TRANSIENT_PIXELS) {
+                // Too large to keep, the current image (if any) is kept for the next decode that fits
+                return null;
+            }
+            newWidth = width;
+            newHeight = height;
+        }
+        TransientImage result = new TransientImage(type, type.createBufferedImage(newWidth, newHeight));
+        transientImage.set(result);
+        return result.image;
+    }
+
+    /**
+     * Calculate the largest subsampling factor that still gives an image at least {@link #OVERSAMPLING} times the
+     * target size in each dimension.
+     *
+     * @param width image width
+     * @param height image height
+     * @param targetSize target size, or zero for no subsampling
+     * @return subsampling factor, 1 for no subsampling
+     */
+    static int subsampling(int width, int height, int targetSize) {
+        if (targetSize <= 0) {
+            return 1;
+        }
+        return Math.max(1, Math.min(width, height) / (targetSize * OVERSAMPLING));
+    }
+
+    /**
+     * An image reused for transient decoding, together with the image type it was created from.
+     */
+    private static final class TransientImage {
+
+        private final ImageTypeSpecifier type;
+        private final BufferedImage image;
+
+        private TransientImage(ImageTypeSpecifier type, BufferedImage image) {
+            this.type = type;
+            this.image = image;
+        }
+    }
+}
@@ -0,0 +1,456 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.image;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOInvalidTreeException;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Component used to encode images with a particular format and quality.
+ * <p>
+ * Further encoding settings, such as chroma subsampling or a maximum encoded size, can be given with an
+ * {@link ArtEncodingProfile}.
+ * <p>
+ * Encoded images can be written to an {@link OutputStream}, a {@link WritableByteChannel} or a {@link ByteBuffer}. The
+ * image is encoded entirely in memory, no temporary files are ever used irrespective of the {@link ImageIO} cache
+ * setting.
+ * <p>
+ * Encoded images can also be written to a file. The image is encoded into a direct buffer reused by each thread, which
+ * is then written to a temporary file with a single channel write and renamed over the target file, so that readers of
+ * the file never see a partially written image.
+ * <p>
+ * The underlying {@link ImageWriter} is created once per thread and then reused for each image encoded on that thread,
+ * avoiding the cost of looking up and configuring a new writer for every image.
+ * <p>
+ * Instances of this class are thread-safe.
+ */
+final public class ArtImageWriter {
+
+    /**
+     * Value for the quality to use the default quality for the image format.
+     */
+    public static final float DEFAULT_QUALITY = Float.NaN;
+
+    /**
+     * Maximum capacity of a buffer reused by a thread when writing to a file, larger buffers are not kept.
+     */
+    private static final int MAX_REUSED_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * Number of steps when searching for a quality that gives an encoded image within the maximum size, each step halves
+     * the range of qualities searched.
+     */
+    private static final int QUALITY_SEARCH_STEPS = 6;
+
+    /**
+     * Name of the native metadata format of the standard JPEG image writer.
+     */
+    private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+
+    /**
+     * Buffer reused by each thread when writing to a file.
+     */
+    private static final ThreadLocal<ByteBuffer> fileBuffers = new ThreadLocal<>();
+
+    private final String format;
+    private final float quality;
+    private final boolean progressive;
+    private final ArtChromaSubsampling chromaSubsampling;
+    private final boolean stripMetadata;
+    private final int maxBytes;
+    private final float minQuality;
+
+    /**
+     * Image writer for each thread.
+     */
+    private final ThreadLocal<ImageWriter> writers;
+
+    /**
+     * Create an image writer.
+     *
+     * @param format image format name, e.g. "jpg", "png" or "webp" (if a suitable ImageIO plugin is available)
+     * @param quality compression quality, from 0.0 to 1.0 with 1.0 being the highest quality, or {@link #DEFAULT_QUALITY}
+     * @param progressive <code>true</code> to use progressive encoding, if the format supports it
+     * @throws IllegalArgumentException if the image format is not supported
+     */
+    public ArtImageWriter(String format, float quality, boolean progressive) {
+        this(new ArtEncodingProfile(format).quality(quality).progressive(progressive));
+    }
+
+    /**
+     * Create an image writer.
+     * <p>
+     * The settings are copied from the profile, later changes to the profile do not affect the writer.
+     *
+     * @param profile encoding profile
+     * @throws IllegalArgumentException if none of the profile's image formats is supported
+     */
+    public ArtImageWriter(ArtEncodingProfile profile) {
+        this.format = profile.format();
+        this.quality = profile.quality();
+        this.progressive = profile.progressive();
+        this.chromaSubsampling = profile.chromaSubsampling();
+        this.stripMetadata = profile.stripMetadata();
+        this.maxBytes = profile.maxBytes();
+        this.minQuality = profile.minQuality();
+        this.writers = ThreadLocal.withInitial(() -> ImageIO.getImageWritersByFormatName(format).next());
+    }
+
+    /**
+     * Check whether an image format can be written.
+     *
+     * @param format image format name
+     * @return <code>true</code> if the format is supported; <code>false</code> otherwise
+     */
+    public static boolean isSupported(String format) {
+        return ImageIO.getImageWritersByFormatName(format).hasNext();
+    }
+
+    /**
+     * Get the image format name.
+     *
+     * @return format name
+     */
+    public String format() {
+        return format;
+    }
+
+    /**
+     * Get the compression quality.
+     *
+     * @return quality, or {@link #DEFAULT_QUALITY}
+     */
+    public float quality() {
+        return quality;
+    }
+
+    /**
+     * Check whether progressive encoding is used.
+     *
+     * @return <code>true</code> if progressive encoding is requested; <code>false</code> otherwise
+     */
+    public boolean progressive() {
+        return progressive;
+    }
+
+    /**
+     * Get a description of the encoding settings, used to detect when images were encoded with different settings.
+     * <p>
+     * The description starts with the format name, and contains no whitespace, ":" or "," characters.
+     *
+     * @return settings description
+     */
+    public String settings() {
+        StringBuilder sb = new StringBuilder(format);
+        if (!Float.isNaN(quality)) {
+            sb.append("/q").append(quality);
+        }
+        if (progressive) {
+            sb.append("/progressive");
+        }
+        if (chromaSubsampling != ArtChromaSubsampling.DEFAULT) {
+            sb.append('/').append(chromaSubsampling.name().toLowerCase(Locale.ROOT));
+        }
+        if (stripMetadata) {
+            sb.append("/strip");
+        }
+        if (maxBytes > 0) {
+            sb.append("/max").append(maxBytes).append('@').append(minQuality);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Encode an image to an output stream.
+     *
+     * @param image image to encode
+     * @param output stream to write to, this is not closed
+     * @throws IOException if an error occurs
+     */
+    public void write(BufferedImage image, OutputStream output) throws IOException {
+        ImageOutputStream imageOutput = new MemoryCacheImageOutputStream(output);
+        try {
+            write(image, imageOutput);
+        } finally {
+            // Closing flushes the cached image data to the stream, but does not close the stream itself
+            imageOutput.close();
+        }
+    }
+
+    /**
+     * Encode an image to a channel.
+     *
+     * @param image image to encode
+     * @param channel channel to write to, this is not closed
+     * @throws IOException if an error occurs
+     */
+    public void write(BufferedImage image, WritableByteChannel channel) throws IOException {
+        write(image, Channels.newOutputStream(channel));
+    }
+
+    /**
+     * Encode an image to a buffer.
+     * <p>
+     * The buffer is cleared before writing. If the encoded image does not fit in the buffer, a new larger buffer (direct
+     * if the original is direct) is allocated and returned instead - the returned buffer should be passed in the next
+     * time to avoid repeated allocation.
+     *
+     * @param image image to encode
+     * @param buffer buffer to reuse, may be <code>null</code>
+     * @return buffer containing the encoded image, flipped ready for reading
+     * @throws IOException if an error occurs
+     */
+    public ByteBuffer write(BufferedImage image, ByteBuffer buffer) throws IOException {
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(image.getWidth() * image.getHeight());
+        }
+        if (maxBytes <= 0 || !writers.get().getDefaultWriteParam().canWriteCompressed()) {
+            return encode(image, buffer, quality);
+        }
+        float highQuality = Float.isNaN(quality) ? 1.0f : quality;
+        ByteBuffer result = encode(image, buffer, highQuality);
+        if (result.remaining() <= maxBytes) {
+            return result;
+        }
+        // The encoded size is not strictly decreasing with quality, but close enough for a binary search
+        float lowQuality = minQuality;
+        float resultQuality = highQuality;
+        for (int step = 0; step < QUALITY_SEARCH_STEPS; step++) {
+            float stepQuality = (lowQuality + highQuality) / 2;
+            result = encode(image, result, stepQuality);
+            resultQuality = stepQuality;
+            if (result.remaining() <= maxBytes) {
+                lowQuality = stepQuality;
+            } else {
+                highQuality = stepQuality;
+            }
+        }
+        return resultQuality == lowQuality ? result : encode(image, result, lowQuality);
+    }
+
+    /**
+     * Encode an image to a file, atomically replacing any existing file.
+     * <p>
+     * The image is written to a temporary file alongside the target file, which is then renamed to the target file. The
+     * rename is atomic if the file system supports it.
+     *
+     * @param image image to encode
+     * @param path file to write to
+     * @throws IOException if an error occurs
+     */
+    public void write(BufferedImage image, Path path) throws IOException {
+        ByteBuffer buffer = fileBuffers.get();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(Math.min(MAX_REUSED_BYTES, image.getWidth() * image.getHeight()));
+        }
+        ByteBuffer encoded = write(image, buffer);
+        fileBuffers.set(encoded.capacity() <= MAX_REUSED_BYTES ? encoded : buffer);
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (encoded.hasRemaining()) {
+                    channel.write(encoded);
+                }
+            }
+            try {
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Never leave a partially written (or unrenamed) temporary file behind
+            Files.deleteIfExists(tempPath);
+            throw e;
+        }
+    }
+
+    /**
+     * Encode an image to an image output stream.
+     *
+     * @param image image to encode
+     * @param imageOutput stream to write to, this is not closed
+     * @throws IOException if an error occurs
+     */
+    public void write(BufferedImage image, ImageOutputStream imageOutput) throws IOException {
+        if (maxBytes > 0) {
+            // The image must be encoded in full to know its size
+            ByteBuffer encoded = write(image, (ByteBuffer) null);
+            imageOutput.write(encoded.array(), encoded.arrayOffset() + encoded.position(), encoded.remaining());
+            imageOutput.flush();
+        } else {
+            encode(image, imageOutput, quality);
+        }
+    }
+
+    /**
+     * Encode an image to a buffer with a particular quality.
+     *
+     * @param image image to encode
+     * @param buffer buffer to reuse
+     * @param quality compression quality
+     * @return buffer containing the encoded image, flipped ready for reading
+     * @throws IOException if an error occurs
+     */
+    private ByteBuffer encode(BufferedImage image, ByteBuffer buffer, float quality) throws IOException {
+        buffer.clear();
+        ByteBufferImageOutputStream imageOutput = new ByteBufferImageOutputStream(buffer);
+        try {
+            encode(image, imageOutput, quality);
+        } finally {
+            imageOutput.close();
+        }
+        return imageOutput.buffer();
+    }
+
+    /**
+     * Encode an image to an image output stream with a particular quality.
+     *
+     * @param image image to encode
+     * @param imageOutput stream to write to, this is not closed
+     * @param quality compression quality
+     * @throws IOException if an error occurs
+     */
+    private void encode(BufferedImage image, ImageOutputStream imageOutput, float quality) throws IOException {
+        ImageWriter writer = writers.get();
+        boolean reusable = false;
+        try {
+            BufferedImage compatibleImage = compatibleImage(image);
+            ImageWriteParam param = writeParam(writer, quality);
+            writer.setOutput(imageOutput);
+            writer.write(null, new IIOImage(compatibleImage, null, metadata(writer, compatibleImage, param)), param);
+            imageOutput.flush();
+            reusable = true;
+        } finally {
+            if (reusable) {
+                writer.reset();
+            } else {
+                // Do not reuse a writer that may be in an inconsistent state
+                writer.dispose();
+                writers.remove();
+            }
+        }
+    }
+
+    private ImageWriteParam writeParam(ImageWriter writer, float quality) {
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (param.canWriteCompressed() && !Float.isNaN(quality)) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            String[] compressionTypes = param.getCompressionTypes();
+            if (param.getCompressionType() == null && compressionTypes != null && compressionTypes.length > 0) {
+                param.setCompressionType(compressionTypes[0]);
+            }
+            param.setCompressionQuality(quality);
+        }
+        if (param.canWriteProgressive()) {
+            param.setProgressiveMode(progressive ? ImageWriteParam.MODE_DEFAULT : ImageWriteParam.MODE_DISABLED);
+        }
+        return param;
+    }
+
+    /**
+     * Get the image metadata to encode with an image.
+     * <p>
+     * Chroma subsampling and removing the JFIF header are only possible with the standard JPEG image writer, by
+     * changing its native metadata.
+     *
+     * @param writer image writer
+     * @param image image to encode
+     * @param param write parameters
+     * @return metadata, or <code>null</code> to use the default metadata
+     * @throws IOException if the metadata could not be changed
+     */
+    private IIOMetadata metadata(ImageWriter writer, BufferedImage image, ImageWriteParam param) throws IOException {
+        if (chromaSubsampling == ArtChromaSubsampling.DEFAULT && !stripMetadata) {
+            return null;
+        }
+        IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), param);
+        if (metadata == null || !JPEG_METADATA_FORMAT.equals(metadata.getNativeMetadataFormatName())) {
+            return null;
+        }
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(JPEG_METADATA_FORMAT);
+        IIOMetadataNode sof = (IIOMetadataNode) root.getElementsByTagName("sof").item(0);
+        boolean colour = sof != null && sof.getElementsByTagName("componentSpec").getLength() == 3;
+        IIOMetadataNode luma = sof != null ? (IIOMetadataNode) sof.getElementsByTagName("componentSpec").item(0) : null;
+        if (chromaSubsampling != ArtChromaSubsampling.DEFAULT && colour) {
+            // The luma component is the first, the sampling factors of the chroma components are always 1
+            luma.setAttribute("HsamplingFactor", chromaSubsampling == ArtChromaSubsampling.YUV_444 ? "1" : "2");
+            luma.setAttribute("VsamplingFactor", chromaSubsampling == ArtChromaSubsampling.YUV_420 ? "2" : "1");
+        }
+        // Without the JFIF header, decoders assume a colour image without subsampling is RGB rather than YCbCr
+        boolean subsampled = !colour || !"1".equals(luma.getAttribute("HsamplingFactor")) || !"1".equals(luma.getAttribute("VsamplingFactor"));
+        if (stripMetadata && subsampled) {
+            IIOMetadataNode variety = (IIOMetadataNode) root.getElementsByTagName("JPEGvariety").item(0);
+            while (variety != null && variety.hasChildNodes()) {
+                variety.removeChild(variety.getFirstChild());
+            }
+        }
+        try {
+            metadata.setFromTree(JPEG_METADATA_FORMAT, root);
+        } catch (IIOInvalidTreeException e) {
+            throw new IOException("Failed to set image metadata", e);
+        }
+        return metadata;
+    }
+
+    /**
+     * Get an image that is compatible with the image format.
+     * <p>
+     * JPEG and BMP do not support an alpha channel, so any alpha channel is removed for those formats.
+     *
+     * @param image image to encode
+     * @return compatible image
+     */
+    private BufferedImage compatibleImage(BufferedImage image) {
+        if (!image.getColorModel().hasAlpha() || !isOpaqueFormat(format)) {
+            return image;
+        }
+        BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = result.createGraphics();
+        g2.drawImage(image, 0, 0, null);
+        g2.dispose();
+        return result;
+    }
+
+    private static boolean isOpaqueFormat(String format) {
+        return format.equalsIgnoreCase("jpg") || format.equalsIgnoreCase("jpeg") || format.equalsIgnoreCase("bmp");
+    }
+}
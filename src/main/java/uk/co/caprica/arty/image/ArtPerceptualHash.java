@@ -0,0 +1,136 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.image;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Calculate perceptual hashes of images, used to find images that look the same (or nearly the same) even though their
+ * file content differs, e.g. the same cover art re-encoded, resized or slightly cropped.
+ * <p>
+ * The hash is a 64-bit difference hash ("dHash"). The image is reduced to a 9 by 8 grid of average luminance values,
+ * and each bit of the hash records whether one value in a row is brighter than the next. This depends only on the
+ * broad structure of the image, so it is unaffected by scaling and compression artefacts, and changes little for small
+ * changes in brightness, contrast or framing.
+ * <p>
+ * The similarity of two images is the number of bits that differ between their hashes (the Hamming distance), zero for
+ * images that look the same. Distances up to around 10 usually indicate the same image.
+ * <p>
+ * Only a few pixels from each grid cell are needed for the hash, so it is best calculated from a small image, e.g. the
+ * smallest generated thumbnail, rather than a full resolution source image.
+ */
+final public class ArtPerceptualHash {
+
+    /**
+     * Number of bits in a hash, and so the maximum distance between two hashes.
+     */
+    public static final int BITS = 64;
+
+    /**
+     * Number of luminance values in each row of the reduced image, each row gives one fewer bits.
+     */
+    private static final int COLUMNS = 9;
+
+    /**
+     * Number of rows in the reduced image.
+     */
+    private static final int ROWS = 8;
+
+    private ArtPerceptualHash() {
+    }
+
+    /**
+     * Calculate the perceptual hash of an image.
+     *
+     * @param image image
+     * @return hash
+     */
+    public static long hash(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        long[] luminance = new long[COLUMNS * ROWS];
+        int[] pixelCounts = new int[COLUMNS * ROWS];
+        int[] rowPixels = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, rowPixels, 0, width);
+            for (int x = 0; x < width; x++) {
+                int rgb = rowPixels[x];
+                long pixelLuminance = 299 * ((rgb >> 16) & 0xff) + 587 * ((rgb >> 8) & 0xff) + 114 * (rgb & 0xff);
+                for (int row = firstCell(y, height, ROWS); row <= lastCell(y, height, ROWS); row++) {
+                    for (int column = firstCell(x, width, COLUMNS); column <= lastCell(x, width, COLUMNS); column++) {
+                        int cell = row * COLUMNS + column;
+                        luminance[cell] += pixelLuminance;
+                        pixelCounts[cell]++;
+                    }
+                }
+            }
+        }
+        long result = 0;
+        for (int row = 0; row < ROWS; row++) {
+            for (int column = 0; column < COLUMNS - 1; column++) {
+                int cell = row * COLUMNS + column;
+                // Compare averages without dividing
+                long left = luminance[cell] * pixelCounts[cell + 1];
+                long right = luminance[cell + 1] * pixelCounts[cell];
+                result = (result << 1) | (left < right ? 1 : 0);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the first grid cell a pixel contributes to.
+     *
+     * @param pixel pixel position
+     * @param pixels number of pixels in the image
+     * @param cells number of grid cells
+     * @return cell
+     */
+    private static int firstCell(int pixel, int pixels, int cells) {
+        return pixel * cells / pixels;
+    }
+
+    /**
+     * Get the last grid cell a pixel contributes to.
+     * <p>
+     * When the image is smaller than the grid, each pixel covers all of the cells it overlaps so that no cell is left
+     * empty, and the image hashes the same as it would if it were enlarged to the size of the grid. Otherwise each pixel
+     * contributes only to the one cell it starts in.
+     *
+     * @param pixel pixel position
+     * @param pixels number of pixels in the image
+     * @param cells number of grid cells
+     * @return cell
+     */
+    private static int lastCell(int pixel, int pixels, int cells) {
+        return pixels < cells ? ((pixel + 1) * cells - 1) / pixels : firstCell(pixel, pixels, cells);
+    }
+
+    /**
+     * Calculate the distance between two hashes.
+     *
+     * @param hash1 first hash
+     * @param hash2 second hash
+     * @return number of differing bits, from zero (the same) to {@link #BITS}
+     */
+    public static int distance(long hash1, long hash2) {
+        return Long.bitCount(hash1 ^ hash2);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.image;
+
+import javax.imageio.stream.ImageOutputStreamImpl;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * An image output stream that writes to a {@link ByteBuffer}, replacing the buffer with a larger one as needed.
+ * <p>
+ * Image writers are given random access to the buffer (e.g. the PNG writer goes back to fill in chunk lengths), so the
+ * encoded image is written directly into the buffer rather than cached and then copied.
+ */
+final class ByteBufferImageOutputStream extends ImageOutputStreamImpl {
+
+    private ByteBuffer buffer;
+
+    /**
+     * Number of bytes written, i.e. the furthest position written to.
+     */
+    private long length;
+
+    /**
+     * Create an image output stream.
+     *
+     * @param buffer initial buffer, written from the start irrespective of its position
+     */
+    ByteBufferImageOutputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Get the buffer containing the written data.
+     * <p>
+     * This may not be the buffer originally supplied, if that buffer was not large enough.
+     *
+     * @return buffer, flipped ready for reading
+     */
+    ByteBuffer buffer() {
+        buffer.limit((int) length);
+        buffer.position(0);
+        return buffer;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        flushBits();
+        ensureCapacity(streamPos + 1);
+        buffer.put((int) streamPos++, (byte) b);
+        length = Math.max(length, streamPos);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        flushBits();
+        ensureCapacity(streamPos + len);
+        buffer.limit(buffer.capacity());
+        buffer.position((int) streamPos);
+        buffer.put(b, off, len);
+        streamPos += len;
+        length = Math.max(length, streamPos);
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (streamPos >= length) {
+            return -1;
+        }
+        return buffer.get((int) streamPos++) & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (len == 0) {
+            return 0;
+        }
+        long remaining = length - streamPos;
+        if (remaining <= 0) {
+            return -1;
+        }
+        int count = (int) Math.min(len, remaining);
+        buffer.limit(buffer.capacity());
+        buffer.position((int) streamPos);
+        buffer.get(b, off, count);
+        streamPos += count;
+        return count;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    private void ensureCapacity(long required) throws IOException {
+        if (required > buffer.capacity()) {
+            if (required > Integer.MAX_VALUE) {
+                throw new IOException("Encoded image is too large for a buffer");
+            }
+            int capacity = (int) Math.min(Integer.MAX_VALUE, Math.max((long) buffer.capacity() * 2, required));
+            ByteBuffer newBuffer = buffer.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+            buffer.limit((int) length);
+            buffer.position(0);
+            newBuffer.put(buffer);
+            buffer = newBuffer;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.compositor;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ArtCompositorAsyncTest {
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private static final int REQUESTS = 8;
+
+    private static final List<Path> PATHS = Arrays.asList(
+        Paths.get("src/test/resources/compositor/1.png"),
+        Paths.get("src/test/resources/compositor/2.png"),
+        Paths.get("src/test/resources/compositor/3.png")
+    );
+
+    public static void main(String[] args) throws Exception {
+        identicalRequestsAreCoalesced();
+        rejectedRequestsFailAndAreForgotten();
+        System.out.println("ArtCompositorAsyncTest passed");
+    }
+
+    /**
+     * Identical requests made while the first is in progress share its work, decoding each source image once, and all
+     * get the same composite image. Once the request has completed, a new identical request starts new work.
+     */
+    private static void identicalRequestsAreCoalesced() throws Exception {
+        RecordingCache cache = new RecordingCache();
+        ArtCompositor compositor = new ArtCompositor(cache);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        HeldExecutor executor = new HeldExecutor(pool);
+
+        // Make the requests concurrently, while none of the work can start
+        CountDownLatch start = new CountDownLatch(1);
+        List<CompletableFuture<CompletableFuture<BufferedImage>>> requests = new ArrayList<>();
+        for (int request = 0; request < REQUESTS; request++) {
+            requests.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new CompletionException(e);
+                }
+                return compositor.composeAsync(PATHS, 128, 2, executor);
+            }));
+        }
+        start.countDown();
+        List<CompletableFuture<BufferedImage>> futures = new ArrayList<>();
+        for (CompletableFuture<CompletableFuture<BufferedImage>> request : requests) {
+            futures.add(request.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        }
+        check(executor.held() == 1, "Identical requests should start the work once, started %d tasks", executor.held());
+
+        executor.release();
+        BufferedImage image = futures.get(0).get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        for (CompletableFuture<BufferedImage> future : futures) {
+            check(future.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS) == image, "Identical requests should share one composite image");
+        }
+        check(cache.puts.get() == PATHS.size(), "Each source image should be decoded and scaled once, scaled %d cell images", cache.puts.get());
+        int tasks = executor.executed();
+
+        // The completed request is no longer in progress, so an identical request starts again
+        pool.shutdown();
+        check(pool.awaitTermination(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS), "Executor should terminate");
+        ExecutorService nextPool = Executors.newSingleThreadExecutor();
+        try {
+            BufferedImage next = compositor.composeAsync(PATHS, 128, 2, nextPool).get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            check(next != image, "A request after the first has completed should compose a new image");
+        } finally {
+            nextPool.shutdown();
+        }
+        check(tasks == PATHS.size() + 2, "Work should be one task for the layout, one per source image and one to compose, was %d", tasks);
+    }
+
+    /**
+     * A request the executor does not accept fails straight away, and is not left in progress for identical requests to
+     * join.
+     */
+    private static void rejectedRequestsFailAndAreForgotten() throws Exception {
+        ArtCompositor compositor = new ArtCompositor();
+        Executor rejecting = task -> {
+            throw new RejectedExecutionException("Executor is shut down");
+        };
+        for (int attempt = 0; attempt < 2; attempt++) {
+            CompletableFuture<BufferedImage> future = compositor.composeAsync(PATHS, 128, 2, rejecting);
+            check(future.isCompletedExceptionally(), "Rejected request %d should fail straight away", attempt);
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                check(e.getCause() instanceof RejectedExecutionException, "Rejected request should fail with RejectedExecutionException, was %s", e.getCause());
+            }
+        }
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            BufferedImage image = compositor.composeAsync(PATHS, 128, 2, pool).get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            check(image.getWidth() == 128, "Request after a rejected request should succeed");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void check(boolean condition, String format, Object... args) {
+        if (!condition) {
+            throw new AssertionError(String.format(format, args));
+        }
+    }
+
+    /**
+     * Executor that holds the tasks it is given until released, then passes them (and any later tasks) to another
+     * executor.
+     */
+    private static final class HeldExecutor implements Executor {
+
+        private final Executor executor;
+        private final List<Runnable> held = new ArrayList<>();
+        private final AtomicInteger executed = new AtomicInteger();
+        private boolean released;
+
+        private HeldExecutor(Executor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            Runnable counted = () -> {
+                executed.incrementAndGet();
+                task.run();
+            };
+            synchronized (this) {
+                if (!released) {
+                    held.add(counted);
+                    return;
+                }
+            }
+            executor.execute(counted);
+        }
+
+        synchronized int held() {
+            return held.size();
+        }
+
+        int executed() {
+            return executed.get();
+        }
+
+        void release() {
+            List<Runnable> tasks;
+            synchronized (this) {
+                released = true;
+                tasks = new ArrayList<>(held);
+                held.clear();
+            }
+            tasks.forEach(executor::execute);
+        }
+    }
+
+    /**
+     * Cache that never returns an image, recording how many scaled grid cell images are put into it.
+     */
+    private static final class RecordingCache implements ArtImageCache {
+
+        private final AtomicInteger puts = new AtomicInteger();
+
+        @Override
+        public BufferedImage get(ArtImageCacheKey key) {
+            return null;
+        }
+
+        @Override
+        public void put(ArtImageCacheKey key, BufferedImage image) {
+            puts.incrementAndGet();
+        }
+    }
+}
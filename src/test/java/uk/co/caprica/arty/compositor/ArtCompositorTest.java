@@ -37,7 +37,7 @@ public class ArtCompositorTest {
 
         paths = new ArrayList<>();
         paths.add(Paths.get("src/test/resources/compositor/1.png"));
-        paths.add(Paths.get("src/test/resources/2.png"));
+        paths.add(Paths.get("src/test/resources/compositor/2.png"));
         ImageIO.write(
             compositor.compose(paths, targetSize, 4),
             "png",
@@ -0,0 +1,104 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.compositor;
+
+public class ArtGridLayoutTest {
+
+    /**
+     * Odd target size, so that the cell sizes do not divide it evenly.
+     */
+    private static final int TARGET_SIZE = 101;
+
+    private static final int MAX_GRID_CELLS = 5;
+
+    public static void main(String[] args) {
+        for (ArtGridStrategy strategy : ArtGridStrategy.values()) {
+            for (int maxGridCells = 1; maxGridCells <= MAX_GRID_CELLS; maxGridCells++) {
+                // Beyond a full grid of the maximum size the layout no longer changes
+                for (int itemCount = 1; itemCount <= maxGridCells * maxGridCells + 2; itemCount++) {
+                    check(ArtGridLayout.of(itemCount, TARGET_SIZE, maxGridCells, strategy), itemCount, maxGridCells, strategy);
+                }
+            }
+        }
+        System.out.println("ArtGridLayoutTest passed");
+    }
+
+    private static void check(ArtGridLayout layout, int itemCount, int maxGridCells, ArtGridStrategy strategy) {
+        String description = String.format("%s layout of %d items with at most %d grid cells", strategy, itemCount, maxGridCells);
+        int shownItems = Math.min(itemCount, maxGridCells * maxGridCells);
+        int[] itemCells = new int[shownItems];
+        for (int cell = 0; cell < layout.cellCount(); cell++) {
+            int item = layout.cellItem(cell);
+            check(item >= 0 && item < shownItems, "%s shows item %d, which is not one of the first %d items", description, item, shownItems);
+            itemCells[item]++;
+        }
+        int gridCells = layout.gridCells();
+        boolean squareFallback = layout.cellCount() == gridCells * gridCells && shownItems < gridCells * gridCells;
+        for (int item = 0; item < shownItems; item++) {
+            check(itemCells[item] > 0, "%s does not show item %d", description, item);
+            // Only the square grid repeats items, whether chosen or as the fallback for a hero layout that does not fit
+            boolean repeatsAllowed = strategy == ArtGridStrategy.SQUARE || (strategy == ArtGridStrategy.HERO && squareFallback);
+            check(repeatsAllowed || itemCells[item] == 1, "%s shows item %d %d times", description, item, itemCells[item]);
+        }
+        if (strategy == ArtGridStrategy.SQUARE) {
+            checkSquareCells(layout, description);
+        } else {
+            checkCoverage(layout, description);
+        }
+    }
+
+    /**
+     * Square cells fill a square grid, each row and column spanning the target size.
+     */
+    private static void checkSquareCells(ArtGridLayout layout, String description) {
+        int gridCells = layout.gridCells();
+        check(layout.cellCount() == gridCells * gridCells, "%s has %d cells, not a full %dx%d grid", description, layout.cellCount(), gridCells, gridCells);
+        int rowWidth = 0;
+        for (int cell = 0; cell < gridCells; cell++) {
+            check(layout.cellWidth(cell) == layout.cellHeight(cell), "%s has a cell that is not square", description);
+            rowWidth += layout.cellWidth(cell);
+        }
+        check(rowWidth == TARGET_SIZE, "%s has rows %d pixels wide", description, rowWidth);
+    }
+
+    /**
+     * Every pixel of the target image is covered by exactly one cell.
+     */
+    private static void checkCoverage(ArtGridLayout layout, String description) {
+        int[] coverage = new int[TARGET_SIZE * TARGET_SIZE];
+        for (int cell = 0; cell < layout.cellCount(); cell++) {
+            for (int y = layout.cellY(cell); y < layout.cellY(cell) + layout.cellHeight(cell); y++) {
+                for (int x = layout.cellX(cell); x < layout.cellX(cell) + layout.cellWidth(cell); x++) {
+                    check(x < TARGET_SIZE && y < TARGET_SIZE, "%s has a cell outside of the grid", description);
+                    coverage[y * TARGET_SIZE + x]++;
+                }
+            }
+        }
+        for (int i = 0; i < coverage.length; i++) {
+            check(coverage[i] == 1, "%s covers pixel (%d,%d) %d times", description, i % TARGET_SIZE, i / TARGET_SIZE, coverage[i]);
+        }
+    }
+
+    private static void check(boolean condition, String format, Object... args) {
+        if (!condition) {
+            throw new AssertionError(String.format(format, args));
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.compositor;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Random;
+
+public class ArtScalerTest {
+
+    /**
+     * Maximum difference in any colour component between the old and new scaled images.
+     */
+    private static final int MAX_DIFFERENCE = 2;
+
+    /**
+     * Minimum peak signal-to-noise ratio between the old and new scaled images, in decibels.
+     */
+    private static final double MIN_PSNR = 50.0;
+
+    public static void main(String[] args) {
+        int[][] cases = {
+            { 1000, 100 },
+            { 1000, 333 },
+            { 513, 171 },
+            { 300, 97 },
+            { 256, 256 }
+        };
+        for (int[] scale : cases) {
+            BufferedImage source = sourceImage(scale[0], scale[1]);
+            compare(source, scale[1], BufferedImage.TYPE_INT_RGB);
+            compare(convert(source, BufferedImage.TYPE_3BYTE_BGR), scale[1], BufferedImage.TYPE_3BYTE_BGR);
+        }
+        System.out.println("ArtScalerTest passed");
+    }
+
+    /**
+     * Scale an image with both the old compositor scaling, i.e. {@link Image#getScaledInstance(int, int, int)} with
+     * {@link Image#SCALE_SMOOTH}, and {@link ArtScaler} with area averaging, and check the results are the same to
+     * within rounding.
+     */
+    private static void compare(BufferedImage source, int size, int type) {
+        BufferedImage expected = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = expected.createGraphics();
+        g2.drawImage(source.getScaledInstance(size, size, Image.SCALE_SMOOTH), 0, 0, null);
+        g2.dispose();
+        int[] actual = new int[size * size];
+        ArtScaler.scale(source, size, actual, size, size, 0, 0, ArtScalingQuality.AREA_AVERAGING, false);
+        int[] expectedPixels = ((DataBufferInt) expected.getRaster().getDataBuffer()).getData();
+        int maxDifference = 0;
+        double squaredError = 0;
+        for (int i = 0; i < actual.length; i++) {
+            for (int shift = 0; shift <= 16; shift += 8) {
+                int difference = Math.abs(((actual[i] >> shift) & 0xff) - ((expectedPixels[i] >> shift) & 0xff));
+                maxDifference = Math.max(maxDifference, difference);
+                squaredError += difference * difference;
+            }
+        }
+        double mse = squaredError / (actual.length * 3);
+        double psnr = mse == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255 * 255 / mse);
+        String description = String.format("%dpx type %d to %dpx", source.getWidth(), type, size);
+        check(maxDifference <= MAX_DIFFERENCE, "Scaling %s differs by up to %d from the old scaling", description, maxDifference);
+        check(psnr >= MIN_PSNR, "Scaling %s has PSNR %.1f dB against the old scaling", description, psnr);
+        System.out.printf("%s: max difference %d, PSNR %.1f dB%n", description, maxDifference, psnr);
+    }
+
+    /**
+     * Create a source image with smooth gradients, hard edges and noise, so that both flat areas and detail are
+     * compared.
+     */
+    private static BufferedImage sourceImage(int size, long seed) {
+        Random random = new Random(seed);
+        BufferedImage result = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int r = x * 255 / size;
+                int g = y * 255 / size;
+                int b = ((x / 37 + y / 23) & 1) * 200 + random.nextInt(56);
+                result.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return result;
+    }
+
+    private static BufferedImage convert(BufferedImage image, int type) {
+        BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), type);
+        Graphics2D g2 = result.createGraphics();
+        g2.drawImage(image, 0, 0, null);
+        g2.dispose();
+        return result;
+    }
+
+    private static void check(boolean condition, String format, Object... args) {
+        if (!condition) {
+            throw new AssertionError(String.format(format, args));
+        }
+    }
+}
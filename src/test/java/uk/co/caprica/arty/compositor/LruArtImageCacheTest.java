@@ -0,0 +1,102 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.compositor;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Paths;
+
+public class LruArtImageCacheTest {
+
+    public static void main(String[] args) {
+        // Room for exactly three 10x10 INT_RGB images, 400 bytes each
+        LruArtImageCache cache = new LruArtImageCache(1200);
+        BufferedImage a = image(10, 10, BufferedImage.TYPE_INT_RGB);
+        BufferedImage b = image(10, 10, BufferedImage.TYPE_INT_RGB);
+        BufferedImage c = image(10, 10, BufferedImage.TYPE_INT_RGB);
+        BufferedImage d = image(10, 10, BufferedImage.TYPE_INT_RGB);
+        cache.put(key("a"), a);
+        cache.put(key("b"), b);
+        cache.put(key("c"), c);
+        checkState(cache, 3, 1200, 0, 0, 0);
+
+        // Using "a" makes "b" the least recently used, so adding "d" evicts "b"
+        check(cache.get(key("a")) == a, "Cached image should be returned");
+        cache.put(key("d"), d);
+        checkState(cache, 3, 1200, 1, 0, 1);
+        check(cache.get(key("b")) == null, "Least recently used image should be evicted");
+        check(cache.get(key("a")) == a && cache.get(key("c")) == c && cache.get(key("d")) == d, "Recently used images should be kept");
+        checkState(cache, 3, 1200, 4, 1, 1);
+
+        // Replacing "c" with a larger image accounts for the difference, evicting the least recently used "a" to fit
+        BufferedImage wide = image(20, 10, BufferedImage.TYPE_INT_RGB);
+        cache.put(key("c"), wide);
+        checkState(cache, 2, 1200, 4, 1, 2);
+        check(cache.get(key("c")) == wide, "Replaced image should be returned");
+        check(cache.get(key("a")) == null, "Least recently used image should be evicted to fit a larger replacement");
+
+        // Replacing with a smaller image of a different type gives back the difference
+        BufferedImage gray = image(10, 10, BufferedImage.TYPE_BYTE_GRAY);
+        cache.put(key("c"), gray);
+        checkState(cache, 2, 500, 5, 2, 2);
+        BufferedImage bgr = image(10, 10, BufferedImage.TYPE_3BYTE_BGR);
+        cache.put(key("e"), bgr);
+        checkState(cache, 3, 800, 5, 2, 2);
+
+        // An image larger than the whole cache is not cached, and evicts nothing
+        cache.put(key("f"), image(40, 10, BufferedImage.TYPE_INT_RGB));
+        check(cache.get(key("f")) == null, "Image larger than the cache should not be cached");
+        checkState(cache, 3, 800, 5, 3, 2);
+
+        // Clearing empties the cache but keeps the counters
+        cache.clear();
+        checkState(cache, 0, 0, 5, 3, 2);
+        check(cache.get(key("d")) == null, "Cleared cache should be empty");
+
+        // Different sizes and modification times of the same file are different entries
+        cache.put(new ArtImageCacheKey(Paths.get("x.png"), 1, 10), a);
+        check(cache.get(new ArtImageCacheKey(Paths.get("x.png"), 2, 10)) == null, "Changed file should not be served from the cache");
+        check(cache.get(new ArtImageCacheKey(Paths.get("x.png"), 1, 20)) == null, "Different size should not be served from the cache");
+        check(cache.get(new ArtImageCacheKey(Paths.get("x.png"), 1, 10)) == a, "Same file and size should be served from the cache");
+
+        System.out.println("LruArtImageCacheTest passed");
+    }
+
+    private static void checkState(LruArtImageCache cache, int count, long bytes, long hits, long misses, long evictions) {
+        check(cache.count() == count, "Count should be %d, was %d", count, cache.count());
+        check(cache.bytes() == bytes, "Bytes should be %d, was %d", bytes, cache.bytes());
+        check(cache.hits() == hits, "Hits should be %d, was %d", hits, cache.hits());
+        check(cache.misses() == misses, "Misses should be %d, was %d", misses, cache.misses());
+        check(cache.evictions() == evictions, "Evictions should be %d, was %d", evictions, cache.evictions());
+    }
+
+    private static ArtImageCacheKey key(String name) {
+        return new ArtImageCacheKey(Paths.get(name + ".png"), 0, 10);
+    }
+
+    private static BufferedImage image(int width, int height, int type) {
+        return new BufferedImage(width, height, type);
+    }
+
+    private static void check(boolean condition, String format, Object... args) {
+        if (!condition) {
+            throw new AssertionError(String.format(format, args));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.generator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+public class ArtAtlasBuilderTest {
+
+    private static final Path OUTPUT = Paths.get("target/output/atlas-test");
+
+    private static final int SIZE = 16;
+
+    private static final int MAX_GRID_CELLS = 3;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = clean();
+        ArtAtlasBuilder builder = new ArtAtlasBuilder(directory, SIZE, MAX_GRID_CELLS, "png");
+        Map<String, Path> thumbnails = new TreeMap<>();
+        for (int album = 1; album <= 3; album++) {
+            thumbnails.put("album" + album, thumbnail(directory, album));
+        }
+        check(builder.build(thumbnails) == 1, "First build should build one atlas");
+        Map<String, Integer> slots = slots(directory);
+
+        // Adding albums must not move the existing albums, even though fewer grid cells would fit the first three
+        thumbnails.put("album4", thumbnail(directory, 4));
+        thumbnails.put("album5", thumbnail(directory, 5));
+        check(builder.build(thumbnails) == 1, "Adding albums should rebuild only their atlas");
+        Map<String, Integer> grown = slots(directory);
+        for (Map.Entry<String, Integer> slot : slots.entrySet()) {
+            check(slot.getValue().equals(grown.get(slot.getKey())), "Album %s should keep its position", slot.getKey());
+        }
+        check(grown.size() == 5, "Every album should be in the index, was %s", grown);
+
+        // Filling the first atlas starts a second one, leaving the first one alone
+        for (int album = 6; album <= 10; album++) {
+            thumbnails.put("album" + album, thumbnail(directory, 1 + album % 5));
+        }
+        check(builder.build(thumbnails) == 2, "Filling the atlas should rebuild it and build one more");
+        thumbnails.put("album11", thumbnail(directory, 1));
+        check(builder.build(thumbnails) == 1, "Adding an album to the second atlas should rebuild only that atlas");
+        check(Files.exists(directory.resolve(ArtAtlasIndex.atlasFilename(SIZE, 1, "png"))), "Second atlas should exist");
+
+        // Nothing changed, nothing to rebuild
+        check(builder.build(thumbnails) == 0, "Unchanged albums should not rebuild any atlas");
+
+        // A removed atlas image is rebuilt even though none of its albums changed
+        Path atlas = directory.resolve(ArtAtlasIndex.atlasFilename(SIZE, 0, "png"));
+        Files.delete(atlas);
+        check(builder.build(thumbnails) == 1, "Removed atlas should be rebuilt");
+        check(Files.exists(atlas), "Removed atlas should exist again");
+
+        System.out.println("ArtAtlasBuilderTest passed");
+    }
+
+    private static Map<String, Integer> slots(Path directory) throws IOException {
+        ArtAtlasIndex index = ArtAtlasIndex.load(directory.resolve(ArtAtlasIndex.filename(SIZE)), "png", SIZE);
+        check(index.gridCells() == MAX_GRID_CELLS, "Grid should use the maximum number of cells, was %d", index.gridCells());
+        Map<String, Integer> result = new HashMap<>();
+        for (Map.Entry<String, ArtAtlasIndex.Entry> entry : index.entries().entrySet()) {
+            result.put(entry.getKey(), entry.getValue().atlas * MAX_GRID_CELLS * MAX_GRID_CELLS + entry.getValue().cell);
+        }
+        return result;
+    }
+
+    private static Path thumbnail(Path directory, int image) throws IOException {
+        Path result = directory.resolve("thumbnails").resolve(String.format("%d-%d.png", image, System.nanoTime()));
+        Files.createDirectories(result.getParent());
+        return Files.copy(Paths.get(String.format("src/test/resources/compositor/%d.png", image)), result);
+    }
+
+    private static Path clean() throws IOException {
+        if (Files.exists(OUTPUT)) {
+            try (Stream<Path> paths = Files.walk(OUTPUT)) {
+                for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(path);
+                }
+            }
+        }
+        return Files.createDirectories(OUTPUT);
+    }
+
+    private static void check(boolean condition, String format, Object... args) {
+        if (!condition) {
+            throw new AssertionError(String.format(format, args));
+        }
+    }
+}
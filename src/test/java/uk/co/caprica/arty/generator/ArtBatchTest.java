@@ -0,0 +1,171 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.generator;
+
+import uk.co.caprica.arty.compositor.ArtCompositor;
+import uk.co.caprica.arty.image.ArtImageReader;
+import uk.co.caprica.arty.image.ArtImageWriter;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+public class ArtBatchTest {
+
+    private static final Path OUTPUT = Paths.get("target/output/batch-test");
+
+    private static final int TARGET_SIZE = 129;
+
+    public static void main(String[] args) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (long maxResidentBytes : new long[] { ArtBatch.DEFAULT_MAX_RESIDENT_BYTES, 0 }) {
+                compositesAreWrittenOnce("sequential-" + maxResidentBytes, null, maxResidentBytes);
+                compositesAreWrittenOnce("parallel-" + maxResidentBytes, executor, maxResidentBytes);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        System.out.println("ArtBatchTest passed");
+    }
+
+    /**
+     * Every composite is written exactly once, whether its source files are decoded by the generator, are duplicates of
+     * other source files (so are not decoded by the generator), are outside the source tree, or fail to decode - and
+     * the composites that could be written look the same as separately composed ones.
+     */
+    private static void compositesAreWrittenOnce(String name, ExecutorService executor, long maxResidentBytes) throws Exception {
+        Path source = clean(name + "-source");
+        Path output = clean(name + "-output");
+        for (int album = 1; album <= 3; album++) {
+            Path albumDirectory = Files.createDirectories(source.resolve("album" + album));
+            Files.copy(Paths.get(String.format("src/test/resources/compositor/%d.png", album)), albumDirectory.resolve("cover.png"));
+        }
+        Files.copy(source.resolve("album1/cover.png"), Files.createDirectories(source.resolve("duplicate")).resolve("cover.png"));
+        Files.write(Files.createDirectories(source.resolve("broken")).resolve("cover.png"), "not an image".getBytes(StandardCharsets.US_ASCII));
+        Path album1 = source.resolve("album1/cover.png");
+        Path album2 = source.resolve("album2/cover.png");
+        Path album3 = source.resolve("album3/cover.png");
+        Path duplicate = source.resolve("duplicate/cover.png");
+        Path broken = source.resolve("broken/cover.png");
+        Path outside = Paths.get("src/test/resources/compositor/5.png");
+
+        ArtGeneratorMetrics metrics = new ArtGeneratorMetrics();
+        ArtGenerator generator = new ArtGenerator(source, output, new int[] { 256, 64 }, "cover.png", "png", true)
+            .deduplicate(true)
+            .failurePolicy(ArtFailurePolicy.CONTINUE)
+            .metrics(metrics);
+        if (executor != null) {
+            generator.executor(executor, 4);
+        }
+        List<List<Path>> composites = Arrays.asList(
+            Arrays.asList(album1, duplicate),
+            Arrays.asList(album2, album3, broken),
+            Collections.singletonList(album1),
+            Arrays.asList(album3, album2, album1, duplicate, album2),
+            Arrays.asList(duplicate, outside),
+            Collections.singletonList(outside)
+        );
+        ArtBatch batch = new ArtBatch(generator).maxResidentBytes(maxResidentBytes);
+        ArtImageWriter writer = new ArtImageWriter("png", ArtImageWriter.DEFAULT_QUALITY, false);
+        List<Path> outputFiles = new ArrayList<>();
+        for (int composite = 0; composite < composites.size(); composite++) {
+            Path outputFile = output.resolve(String.format("composites/%d.png", composite));
+            batch.composite(composites.get(composite), TARGET_SIZE, 2, null, writer, outputFile);
+            outputFiles.add(outputFile);
+        }
+
+        ArtBatchPlan plan = batch.plan();
+        try {
+            batch.run(new ArtGeneratorProgress() {
+                @Override
+                public void beforeGenerate(int current, int total, Path filePath) {
+                }
+
+                @Override
+                public void afterGenerate(int current, int total, Path filePath) {
+                }
+            }, plan);
+            throw new AssertionError("Composite with a broken source file should fail");
+        } catch (IOException e) {
+            check(e.getSuppressed().length == 0, "%s: only the composite with the broken source file should fail, failed %s", name, e);
+        }
+        check(metrics.snapshot().filesDeduplicated() == 1, "%s: duplicate source file should be deduplicated", name);
+        check(metrics.snapshot().filesFailed() == 1, "%s: broken source file should fail", name);
+        check(plan.writes().equals(Collections.nCopies(composites.size(), 1)), "%s: each composite should be written once, written %s", name, plan.writes());
+
+        ArtCompositor compositor = new ArtCompositor();
+        for (int composite = 0; composite < composites.size(); composite++) {
+            Path outputFile = outputFiles.get(composite);
+            if (composites.get(composite).contains(broken)) {
+                check(!Files.exists(outputFile), "%s: composite %d with a broken source file should not be written", name, composite);
+                continue;
+            }
+            BufferedImage expected = compositor.compose(composites.get(composite), TARGET_SIZE, 2);
+            BufferedImage actual = ArtImageReader.read(outputFile);
+            double difference = meanDifference(expected, actual);
+            check(difference < 1.0, "%s: composite %d should look like a separate composite, mean difference %.2f", name, composite, difference);
+        }
+    }
+
+    private static double meanDifference(BufferedImage expected, BufferedImage actual) {
+        check(expected.getWidth() == actual.getWidth() && expected.getHeight() == actual.getHeight(), "Composite sizes should match");
+        long total = 0;
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int expectedRgb = expected.getRGB(x, y);
+                int actualRgb = actual.getRGB(x, y);
+                for (int shift = 0; shift < 32; shift += 8) {
+                    total += Math.abs(((expectedRgb >> shift) & 0xff) - ((actualRgb >> shift) & 0xff));
+                }
+            }
+        }
+        return (double) total / (expected.getWidth() * expected.getHeight() * 4);
+    }
+
+    private static Path clean(String name) throws IOException {
+        Path directory = OUTPUT.resolve(name);
+        if (Files.exists(directory)) {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(path);
+                }
+            }
+        }
+        return Files.createDirectories(directory);
+    }
+
+    private static void check(boolean condition, String format, Object... args) {
+        if (!condition) {
+            throw new AssertionError(String.format(format, args));
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.generator;
+
+import uk.co.caprica.arty.image.ArtImageReader;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class ArtGeneratorTest {
+
+    private static final Path OUTPUT = Paths.get("target/output/generator-test");
+
+    public static void main(String[] args) throws Exception {
+        orientationIsApplied();
+        duplicatesAreLinked();
+        duplicatesAreCopiedWithoutHardLinks();
+        incrementalRunsSkipUnchangedFiles();
+        interruptedRunResumesFromJournal();
+        shardsPartitionFiles();
+        System.out.println("ArtGeneratorTest passed");
+    }
+
+    /**
+     * A source image with Exif orientation 6 must generate upright art, as it did when the source file was given
+     * straight to Thumbnailator.
+     */
+    private static void orientationIsApplied() throws IOException {
+        Path output = clean("orientation");
+        new ArtGenerator(Paths.get("src/test/resources/orientation"), output, new int[] { 64 }, "cover.jpg", "png", true).generateArt(new RecordingProgress());
+        BufferedImage image = ArtImageReader.read(output.resolve("album/cover-64.png"));
+        Color top = new Color(image.getRGB(32, 8));
+        Color bottom = new Color(image.getRGB(32, 56));
+        check(top.getRed() > 200 && top.getBlue() < 60, "Top of generated image should be red, was %s", top);
+        check(bottom.getBlue() > 200 && bottom.getRed() < 60, "Bottom of generated image should be blue, was %s", bottom);
+    }
+
+    /**
+     * The two source files in the generator test resources are identical, so with deduplication the images for the
+     * second are hard links to the images for the first.
+     */
+    private static void duplicatesAreLinked() throws IOException {
+        Path output = clean("duplicates-linked");
+        ArtGeneratorMetrics metrics = new ArtGeneratorMetrics();
+        newDuplicateGenerator(output).metrics(metrics).generateArt(new RecordingProgress());
+        for (int size : new int[] { 64, 256 }) {
+            Path a = output.resolve(String.format("a/cover-%d.png", size));
+            Path b = output.resolve(String.format("b/cover-%d.png", size));
+            check(Files.isSameFile(a, b), "Duplicate images %s and %s should be hard-linked", a, b);
+        }
+        check(metrics.snapshot().filesDeduplicated() == 1, "One file should be deduplicated, was %d", metrics.snapshot().filesDeduplicated());
+        checkNoTemporaryFiles(output);
+    }
+
+    /**
+     * When hard links can not be used, the images for a duplicate are copies of the images for the first source file.
+     */
+    private static void duplicatesAreCopiedWithoutHardLinks() throws IOException {
+        Path output = clean("duplicates-copied");
+        newDuplicateGenerator(output).hardLinks(false).generateArt(new RecordingProgress());
+        for (int size : new int[] { 64, 256 }) {
+            Path a = output.resolve(String.format("a/cover-%d.png", size));
+            Path b = output.resolve(String.format("b/cover-%d.png", size));
+            check(!Files.isSameFile(a, b), "Duplicate images %s and %s should be copies, not links", a, b);
+            check(Arrays.equals(Files.readAllBytes(a), Files.readAllBytes(b)), "Duplicate images %s and %s should have the same content", a, b);
+        }
+        checkNoTemporaryFiles(output);
+    }
+
+    /**
+     * An incremental run only processes new and changed source files, and removes the generated images of source files
+     * that have been deleted.
+     */
+    private static void incrementalRunsSkipUnchangedFiles() throws IOException {
+        Path source = sourceTree("incremental-source", 3);
+        Path output = clean("incremental");
+
+        RecordingProgress progress = new RecordingProgress();
+        newIncrementalGenerator(source, output).generateArt(progress);
+        check(progress.generated().size() == 3, "First run should process every file, processed %s", progress.generated());
+
+        progress = new RecordingProgress();
+        newIncrementalGenerator(source, output).generateArt(progress);
+        check(progress.generated().isEmpty(), "Second run should skip unchanged files, processed %s", progress.generated());
+
+        // Replace the content of one source file, its generated image must be replaced too
+        byte[] before = Files.readAllBytes(output.resolve("album2/cover-64.png"));
+        Files.copy(Paths.get("src/test/resources/compositor/5.png"), source.resolve("album2/cover.png"), StandardCopyOption.REPLACE_EXISTING);
+        progress = new RecordingProgress();
+        newIncrementalGenerator(source, output).generateArt(progress);
+        check(progress.generated().equals(Collections.singletonList(Paths.get("album2/cover.png"))), "Changed file should be processed, processed %s", progress.generated());
+        check(!Arrays.equals(before, Files.readAllBytes(output.resolve("album2/cover-64.png"))), "Image for changed file should be regenerated");
+
+        // Delete a source file, its generated images and (now empty) output directory must be removed
+        Files.delete(source.resolve("album3/cover.png"));
+        progress = new RecordingProgress();
+        newIncrementalGenerator(source, output).generateArt(progress);
+        check(progress.generated().isEmpty(), "Deleting a file should not process any files, processed %s", progress.generated());
+        check(!Files.exists(output.resolve("album3")), "Images for deleted file should be removed");
+        check(manifestKeys(output.resolve(ArtManifest.FILENAME)).equals(Arrays.asList("album1/cover.png", "album2/cover.png")), "Deleted file should be removed from the manifest");
+    }
+
+    /**
+     * A run that ended without saving its manifest resumes from the entries in the journal, ignoring a last entry that
+     * was only partly written.
+     */
+    private static void interruptedRunResumesFromJournal() throws IOException {
+        Path source = sourceTree("journal-source", 3);
+        Path output = clean("journal");
+        newIncrementalGenerator(source, output).generateArt(new RecordingProgress());
+
+        // Recreate the state left by a run that was killed while recording the third file: the first file is in the
+        // saved manifest, the second is in the journal, and the third is only partly written to the journal
+        Path manifestFile = output.resolve(ArtManifest.FILENAME);
+        List<String> lines = Files.readAllLines(manifestFile);
+        Files.write(manifestFile, Arrays.asList(lines.get(0), lines.get(1)));
+        String journal = lines.get(2) + "\n" + lines.get(3).substring(0, lines.get(3).length() - "cover.png".length());
+        Files.write(output.resolve(ArtManifest.FILENAME + ".journal"), journal.getBytes(StandardCharsets.UTF_8));
+
+        Set<String> recovered = new TreeSet<>(ArtManifest.load(manifestFile).keys());
+        check(recovered.equals(new TreeSet<>(Arrays.asList("album1/cover.png", "album2/cover.png"))), "Manifest should recover the complete journal entries only, recovered %s", recovered);
+
+        RecordingProgress progress = new RecordingProgress();
+        newIncrementalGenerator(source, output).generateArt(progress);
+        check(progress.generated().equals(Collections.singletonList(Paths.get("album3/cover.png"))), "Resumed run should only process the unrecorded file, processed %s", progress.generated());
+        check(manifestKeys(manifestFile).equals(Arrays.asList("album1/cover.png", "album2/cover.png", "album3/cover.png")), "Manifest should have each file exactly once, had %s", manifestKeys(manifestFile));
+        check(!Files.exists(output.resolve(ArtManifest.FILENAME + ".journal")), "Journal should be deleted when the manifest is saved");
+    }
+
+    /**
+     * Each source file belongs to exactly one shard, and each shard keeps its own manifest.
+     */
+    private static void shardsPartitionFiles() throws IOException {
+        Path source = sourceTree("shard-source", 5);
+        Path output = clean("shards");
+        List<Path> generated = new ArrayList<>();
+        for (int index = 1; index <= 2; index++) {
+            RecordingProgress progress = new RecordingProgress();
+            newIncrementalGenerator(source, output).shard(new ArtShard(index, 2)).generateArt(progress);
+            generated.addAll(progress.generated());
+            check(Files.exists(output.resolve(ArtManifest.FILENAME + "." + index + "-of-2")), "Shard %d should have its own manifest", index);
+        }
+        check(generated.size() == 5 && new HashSet<>(generated).size() == 5, "Shards should process each file exactly once, processed %s", generated);
+        check(!Files.exists(output.resolve(ArtManifest.FILENAME)), "Shards should not write the unsharded manifest");
+    }
+
+    private static ArtGenerator newIncrementalGenerator(Path source, Path output) {
+        return new ArtGenerator(source, output, new int[] { 64, 256 }, "cover.png", "png", true).incremental(true);
+    }
+
+    /**
+     * Create a source tree with a number of albums, each with a different cover image.
+     */
+    private static Path sourceTree(String name, int albums) throws IOException {
+        Path directory = clean(name);
+        for (int album = 1; album <= albums; album++) {
+            Path albumDirectory = Files.createDirectories(directory.resolve("album" + album));
+            Files.copy(Paths.get(String.format("src/test/resources/compositor/%d.png", album)), albumDirectory.resolve("cover.png"));
+        }
+        return directory;
+    }
+
+    /**
+     * Get the keys in a manifest file, in the order they appear.
+     */
+    private static List<String> manifestKeys(Path manifestFile) throws IOException {
+        return Files.readAllLines(manifestFile).stream().skip(1).map(line -> line.substring(line.lastIndexOf('\t') + 1)).collect(Collectors.toList());
+    }
+
+    private static ArtGenerator newDuplicateGenerator(Path output) {
+        return new ArtGenerator(Paths.get("src/test/resources/generator"), output, new int[] { 64, 256 }, "cover.png", "png", true).deduplicate(true);
+    }
+
+    private static void checkNoTemporaryFiles(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            List<Path> temporaryFiles = paths.filter(path -> path.getFileName().toString().endsWith(".tmp")).collect(Collectors.toList());
+            check(temporaryFiles.isEmpty(), "Temporary files should not be left behind: %s", temporaryFiles);
+        }
+    }
+
+    private static Path clean(String name) throws IOException {
+        Path directory = OUTPUT.resolve(name);
+        if (Files.exists(directory)) {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(path);
+                }
+            }
+        }
+        Files.createDirectories(directory);
+        return directory;
+    }
+
+    private static void check(boolean condition, String format, Object... args) {
+        if (!condition) {
+            throw new AssertionError(String.format(format, args));
+        }
+    }
+
+    /**
+     * Progress callback that records the source files that were processed.
+     */
+    private static final class RecordingProgress implements ArtGeneratorProgress {
+
+        private final List<Path> generated = new ArrayList<>();
+
+        @Override
+        public void beforeGenerate(int current, int total, Path filePath) {
+        }
+
+        @Override
+        public synchronized void afterGenerate(int current, int total, Path filePath) {
+            generated.add(filePath);
+        }
+
+        synchronized List<Path> generated() {
+            return new ArrayList<>(generated);
+        }
+    }
+}
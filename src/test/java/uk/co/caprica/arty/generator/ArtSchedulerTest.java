@@ -0,0 +1,284 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.generator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+public class ArtSchedulerTest {
+
+    private static final Path OUTPUT = Paths.get("target/output/scheduler-test");
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    public static void main(String[] args) throws Exception {
+        requestsAreProcessedByPriority();
+        cancelledRequestsAreSkipped();
+        requestIsNotHeldUpByBulkSearch();
+        cancellationTokenStopsRun();
+        cancelledFileIsReportedByPolicy(ArtFailurePolicy.ABORT);
+        cancelledFileIsReportedByPolicy(ArtFailurePolicy.CONTINUE);
+        System.out.println("ArtSchedulerTest passed");
+    }
+
+    /**
+     * Requests queued before the run are processed ahead of the bulk run, highest priority first and otherwise in the
+     * order they were made, and no file is processed twice.
+     */
+    private static void requestsAreProcessedByPriority() throws Exception {
+        Path source = sourceTree("priority-source", 5);
+        RecordingProgress progress = new RecordingProgress();
+        ArtScheduler scheduler = new ArtScheduler(newGenerator(source, clean("priority")));
+        Thread runner;
+        try {
+            CompletableFuture<Void> low1 = scheduler.request(source.resolve("album4/cover.png"));
+            CompletableFuture<Void> high = scheduler.request(source.resolve("album2/cover.png"), 10);
+            CompletableFuture<Void> low2 = scheduler.request(source.resolve("album5/cover.png"));
+            runner = start(scheduler, progress);
+            CompletableFuture.allOf(low1, high, low2).get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            progress.await(5);
+        } finally {
+            scheduler.close();
+        }
+        runner.join(TIMEOUT_MILLIS);
+        check(!runner.isAlive(), "Closing the scheduler should end the run");
+        List<Path> generated = progress.generated();
+        check(generated.subList(0, 3).equals(Arrays.asList(Paths.get("album2/cover.png"), Paths.get("album4/cover.png"), Paths.get("album5/cover.png"))), "Requests should be processed first, in priority order, processed %s", generated);
+        check(generated.size() == 5 && new HashSet<>(generated).size() == 5, "Each file should be processed once, processed %s", generated);
+    }
+
+    /**
+     * A cancelled request is not processed ahead of the bulk run, and requests made after the scheduler is closed are
+     * cancelled straight away.
+     */
+    private static void cancelledRequestsAreSkipped() throws Exception {
+        Path source = sourceTree("cancel-source", 3);
+        RecordingProgress progress = new RecordingProgress();
+        ArtScheduler scheduler = new ArtScheduler(newGenerator(source, clean("cancel")));
+        CompletableFuture<Void> cancelled = scheduler.request(source.resolve("album3/cover.png"), 10);
+        CompletableFuture<Void> requested = scheduler.request(source.resolve("album2/cover.png"));
+        cancelled.cancel(false);
+        Thread runner = start(scheduler, progress);
+        requested.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        check(progress.generated().get(0).equals(Paths.get("album2/cover.png")), "Cancelled request should be skipped, processed %s", progress.generated());
+        scheduler.close();
+        runner.join(TIMEOUT_MILLIS);
+        check(!runner.isAlive(), "Closing the scheduler should end the run");
+        check(scheduler.request(source.resolve("album1/cover.png")).isCancelled(), "Request after closing should be cancelled");
+    }
+
+    /**
+     * A request made while the bulk run is waiting for its next file (e.g. because the source tree is still being
+     * searched) is returned straight away, rather than after the bulk file.
+     */
+    private static void requestIsNotHeldUpByBulkSearch() throws Exception {
+        Path source = sourceTree("blocking-source", 2);
+        Path bulkFile = source.resolve("album1/cover.png");
+        Path requestedFile = source.resolve("album2/cover.png");
+        CountDownLatch releaseBulkFile = new CountDownLatch(1);
+        ArtFileSource bulkFiles = new ArtFileSource() {
+            private boolean done;
+
+            @Override
+            public Path next() throws IOException {
+                if (done) {
+                    return null;
+                }
+                try {
+                    releaseBulkFile.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                done = true;
+                return bulkFile;
+            }
+        };
+        try (ArtScheduler scheduler = new ArtScheduler(newGenerator(source, clean("blocking")))) {
+            CompletableFuture<Path> first = CompletableFuture.supplyAsync(() -> next(scheduler, bulkFiles));
+            Thread.sleep(100);
+            check(!first.isDone(), "Next file should wait for the bulk file");
+            long requestNanos = System.nanoTime();
+            scheduler.request(requestedFile);
+            Path next = first.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            long waitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - requestNanos);
+            check(next.equals(requestedFile), "Requested file should be returned while the bulk file is pending, was %s", next);
+            check(waitMillis < 1000, "Requested file should be returned straight away, took %d ms", waitMillis);
+            scheduler.finished(next, null);
+            releaseBulkFile.countDown();
+            next = scheduler.next(bulkFiles);
+            check(bulkFile.equals(next), "Bulk file should be returned once it is found, was %s", next);
+            scheduler.finished(next, null);
+            check(scheduler.next(bulkFiles) == null, "No more files should be returned");
+        }
+    }
+
+    /**
+     * Cancelling the token stops a run before the next file.
+     */
+    private static void cancellationTokenStopsRun() throws Exception {
+        Path source = sourceTree("token-source", 4);
+        ArtCancellationToken cancellation = new ArtCancellationToken();
+        List<Path> generated = new ArrayList<>();
+        try {
+            newGenerator(source, clean("token")).generateArt(new ArtGeneratorProgress() {
+                @Override
+                public void beforeGenerate(int current, int total, Path filePath) {
+                }
+
+                @Override
+                public void afterGenerate(int current, int total, Path filePath) {
+                    generated.add(filePath);
+                    cancellation.cancel();
+                }
+            }, cancellation);
+            throw new AssertionError("Cancelled run should throw CancellationException");
+        } catch (CancellationException e) {
+            check(generated.size() == 1, "Cancelled run should stop after the first file, processed %s", generated);
+        }
+    }
+
+    /**
+     * A file whose processing is cancelled part way through is counted as failed, and reported as failed only with the
+     * failure policy that reports failures.
+     */
+    private static void cancelledFileIsReportedByPolicy(ArtFailurePolicy failurePolicy) throws Exception {
+        Path source = sourceTree("policy-source", 2);
+        ArtCancellationToken cancellation = new ArtCancellationToken();
+        ArtGeneratorMetrics metrics = new ArtGeneratorMetrics();
+        List<Exception> failures = new ArrayList<>();
+        ArtGenerator generator = newGenerator(source, clean("policy")).failurePolicy(failurePolicy).metrics(metrics);
+        try {
+            generator.generateArt(new ArtGeneratorProgress() {
+                @Override
+                public void beforeGenerate(int current, int total, Path filePath) {
+                    cancellation.cancel();
+                }
+
+                @Override
+                public void afterGenerate(int current, int total, Path filePath) {
+                }
+
+                @Override
+                public void generateFailed(int current, int total, Path filePath, Exception exception) {
+                    failures.add(exception);
+                }
+            }, cancellation);
+            throw new AssertionError("Cancelled run should throw CancellationException");
+        } catch (CancellationException e) {
+            int expected = failurePolicy == ArtFailurePolicy.CONTINUE ? 1 : 0;
+            check(failures.size() == expected, "%s should report %d cancelled files, reported %s", failurePolicy, expected, failures);
+            check(failures.stream().allMatch(failure -> failure instanceof CancellationException), "Cancelled file should be reported with CancellationException, was %s", failures);
+            check(metrics.snapshot().filesFailed() == 1, "Cancelled file should be counted as failed, was %d", metrics.snapshot().filesFailed());
+        }
+    }
+
+    private static Path next(ArtScheduler scheduler, ArtFileSource bulkFiles) {
+        try {
+            return scheduler.next(bulkFiles);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Thread start(ArtScheduler scheduler, ArtGeneratorProgress progress) {
+        Thread result = new Thread(() -> {
+            try {
+                scheduler.run(progress);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        result.start();
+        return result;
+    }
+
+    private static ArtGenerator newGenerator(Path source, Path output) {
+        return new ArtGenerator(source, output, new int[] { 64 }, "cover.png", "png", true);
+    }
+
+    private static Path sourceTree(String name, int albums) throws IOException {
+        Path directory = clean(name);
+        for (int album = 1; album <= albums; album++) {
+            Path albumDirectory = Files.createDirectories(directory.resolve("album" + album));
+            Files.copy(Paths.get(String.format("src/test/resources/compositor/%d.png", album)), albumDirectory.resolve("cover.png"));
+        }
+        return directory;
+    }
+
+    private static Path clean(String name) throws IOException {
+        Path directory = OUTPUT.resolve(name);
+        if (Files.exists(directory)) {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(path);
+                }
+            }
+        }
+        Files.createDirectories(directory);
+        return directory;
+    }
+
+    private static void check(boolean condition, String format, Object... args) {
+        if (!condition) {
+            throw new AssertionError(String.format(format, args));
+        }
+    }
+
+    /**
+     * Progress callback that records the source files that were processed.
+     */
+    private static final class RecordingProgress implements ArtGeneratorProgress {
+
+        private final List<Path> generated = new ArrayList<>();
+
+        @Override
+        public void beforeGenerate(int current, int total, Path filePath) {
+        }
+
+        @Override
+        public synchronized void afterGenerate(int current, int total, Path filePath) {
+            generated.add(filePath);
+            notifyAll();
+        }
+
+        synchronized List<Path> generated() {
+            return new ArrayList<>(generated);
+        }
+
+        synchronized void await(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (generated.size() < count && System.currentTimeMillis() < deadline) {
+                wait(Math.max(1, deadline - System.currentTimeMillis()));
+            }
+        }
+    }
+}
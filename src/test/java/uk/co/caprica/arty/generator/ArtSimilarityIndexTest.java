@@ -0,0 +1,177 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.generator;
+
+import uk.co.caprica.arty.image.ArtPerceptualHash;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+public class ArtSimilarityIndexTest {
+
+    private static final Path OUTPUT = Paths.get("target/output/similarity-test");
+
+    private static final int MAX_DISTANCE = 12;
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(19);
+        Map<String, Long> hashes = clusteredHashes(random);
+        Files.createDirectories(OUTPUT);
+        Path indexPath = OUTPUT.resolve(ArtSimilarityIndex.FILENAME);
+        Files.deleteIfExists(indexPath);
+        ArtSimilarityIndex index = ArtSimilarityIndex.load(indexPath);
+        check(index.size() == 0, "Missing index should be empty");
+        hashes.forEach(index::put);
+        searchMatchesBruteForce(index, hashes, random);
+        duplicatesMatchBruteForce(index, hashes);
+        saveAndLoadRoundTrip(index, indexPath, hashes);
+        System.out.println("ArtSimilarityIndexTest passed");
+    }
+
+    /**
+     * Clusters of hashes around random centres, each hash a random number of bits up to a little more than the maximum
+     * search distance away from its centre, so that every search distance finds some but not all of a cluster.
+     */
+    private static Map<String, Long> clusteredHashes(Random random) {
+        Map<String, Long> result = new TreeMap<>();
+        for (int cluster = 0; cluster < 100; cluster++) {
+            long centre = random.nextLong();
+            result.put(String.format("cluster%03d/centre.png", cluster), centre);
+            int members = random.nextInt(8);
+            for (int member = 0; member < members; member++) {
+                result.put(String.format("cluster%03d/member%d.png", cluster, member), flipBits(centre, random.nextInt(MAX_DISTANCE + 4), random));
+            }
+        }
+        for (int single = 0; single < 200; single++) {
+            result.put(String.format("single%03d.png", single), random.nextLong());
+        }
+        return result;
+    }
+
+    /**
+     * Every search, of hashes in the index and near them, finds exactly the hashes a scan of the whole index finds.
+     */
+    private static void searchMatchesBruteForce(ArtSimilarityIndex index, Map<String, Long> hashes, Random random) {
+        List<Long> queries = new ArrayList<>(hashes.values());
+        for (int query = 0; query < 200; query++) {
+            queries.add(flipBits(queries.get(random.nextInt(hashes.size())), random.nextInt(MAX_DISTANCE + 1), random));
+        }
+        for (int maxDistance = 0; maxDistance <= MAX_DISTANCE; maxDistance++) {
+            for (long query : queries) {
+                List<String> expected = new ArrayList<>();
+                for (Map.Entry<String, Long> entry : hashes.entrySet()) {
+                    int distance = ArtPerceptualHash.distance(query, entry.getValue());
+                    if (distance <= maxDistance) {
+                        expected.add(distance + " " + entry.getKey());
+                    }
+                }
+                expected.sort(Comparator.comparingInt((String match) -> Integer.parseInt(match.substring(0, match.indexOf(' ')))).thenComparing(match -> match.substring(match.indexOf(' ') + 1)));
+                List<String> actual = index.search(query, maxDistance).stream().map(match -> match.distance() + " " + match.key()).collect(Collectors.toList());
+                check(actual.equals(expected), "Search for %016x within %d should find %s, found %s", query, maxDistance, expected, actual);
+            }
+        }
+        String key = "cluster000/centre.png";
+        check(index.similar(key, MAX_DISTANCE).stream().noneMatch(match -> match.key().equals(key)), "Similar images should not include the image itself");
+        check(index.similar("missing.png", MAX_DISTANCE).isEmpty(), "Similar images to a missing image should be empty");
+    }
+
+    /**
+     * The near-duplicate groups are the connected components of the graph linking every pair of hashes within the
+     * maximum distance, found by scanning every pair.
+     */
+    private static void duplicatesMatchBruteForce(ArtSimilarityIndex index, Map<String, Long> hashes) {
+        List<String> keys = new ArrayList<>(hashes.keySet());
+        for (int maxDistance = 0; maxDistance <= MAX_DISTANCE; maxDistance++) {
+            Map<String, Integer> component = new HashMap<>();
+            for (int start = 0; start < keys.size(); start++) {
+                if (component.containsKey(keys.get(start))) {
+                    continue;
+                }
+                List<String> pending = new ArrayList<>();
+                pending.add(keys.get(start));
+                component.put(keys.get(start), start);
+                while (!pending.isEmpty()) {
+                    long hash = hashes.get(pending.remove(pending.size() - 1));
+                    for (String other : keys) {
+                        if (!component.containsKey(other) && ArtPerceptualHash.distance(hash, hashes.get(other)) <= maxDistance) {
+                            component.put(other, start);
+                            pending.add(other);
+                        }
+                    }
+                }
+            }
+            Map<Integer, List<String>> groups = new TreeMap<>();
+            for (String key : keys) {
+                groups.computeIfAbsent(component.get(key), group -> new ArrayList<>()).add(key);
+            }
+            List<List<String>> expected = groups.values().stream().filter(group -> group.size() > 1).collect(Collectors.toList());
+            List<List<String>> actual = index.duplicates(maxDistance);
+            check(actual.equals(expected), "Duplicates within %d should be %s, were %s", maxDistance, expected, actual);
+        }
+    }
+
+    /**
+     * Saving and loading an index keeps every key and hash, including keys with unusual characters and hashes with the
+     * top bit set.
+     */
+    private static void saveAndLoadRoundTrip(ArtSimilarityIndex index, Path indexPath, Map<String, Long> hashes) throws IOException {
+        Map<String, Long> expected = new TreeMap<>(hashes);
+        expected.put("tab\tand space/cover.png", 0x8000000000000001L);
+        expected.put("\u00e9l\u00e8ve/\u65e5\u672c/cover.png", -1L);
+        expected.put("zero.png", 0L);
+        expected.forEach(index::put);
+        index.save();
+        check(!Files.exists(indexPath.resolveSibling(indexPath.getFileName() + ".tmp")), "Temporary index file should not be left behind");
+        ArtSimilarityIndex loaded = ArtSimilarityIndex.load(indexPath);
+        check(loaded.keys().equals(expected.keySet()), "Loaded keys should be %s, were %s", expected.keySet(), loaded.keys());
+        for (Map.Entry<String, Long> entry : expected.entrySet()) {
+            check(entry.getValue().equals(loaded.hash(entry.getKey())), "Loaded hash for %s should be %016x, was %s", entry.getKey(), entry.getValue(), loaded.hash(entry.getKey()));
+        }
+        check(loaded.search(-1L, 0).get(0).key().equals("\u00e9l\u00e8ve/\u65e5\u672c/cover.png"), "Loaded index should be searchable");
+
+        loaded.retain(hashes.keySet());
+        loaded.save();
+        check(ArtSimilarityIndex.load(indexPath).keys().equals(hashes.keySet()), "Retained keys should be saved");
+    }
+
+    private static long flipBits(long hash, int bits, Random random) {
+        long result = hash;
+        while (ArtPerceptualHash.distance(result, hash) < bits) {
+            result ^= 1L << random.nextInt(ArtPerceptualHash.BITS);
+        }
+        return result;
+    }
+
+    private static void check(boolean condition, String format, Object... args) {
+        if (!condition) {
+            throw new AssertionError(String.format(format, args));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.generator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
+
+public class ArtWatcherTest {
+
+    private static final Path OUTPUT = Paths.get("target/output/watcher-test");
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    public static void main(String[] args) throws Exception {
+        Path source = clean("source");
+        Path output = clean("output");
+        copyCover(1, Files.createDirectories(source.resolve("album1")));
+        ArtGenerator generator = new ArtGenerator(source, output, new int[] { 64 }, "cover.png", "png", true)
+            .failurePolicy(ArtFailurePolicy.CONTINUE);
+        ArtWatcher watcher = new ArtWatcher(generator).debounce(100).maxDelay(1000);
+        Thread thread = new Thread(() -> {
+            try {
+                watcher.watch(new ArtGeneratorProgress() {
+                    @Override
+                    public void beforeGenerate(int current, int total, Path filePath) {
+                    }
+
+                    @Override
+                    public void afterGenerate(int current, int total, Path filePath) {
+                    }
+                });
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.start();
+        try {
+            Path album1 = output.resolve("album1/cover-64.png");
+            await(() -> Files.exists(album1), "Initial run should generate art for the existing album");
+
+            // A new album is generated
+            Path album2 = output.resolve("album2/cover-64.png");
+            copyCover(2, Files.createDirectories(source.resolve("album2")));
+            await(() -> Files.exists(album2), "Art should be generated for a new album");
+
+            // A changed album is generated again
+            byte[] before = Files.readAllBytes(album2);
+            copyCover(3, source.resolve("album2"));
+            await(() -> Files.exists(album2) && !Arrays.equals(before, Files.readAllBytes(album2)), "Art should be regenerated for a changed album");
+
+            // A deleted album is pruned
+            Files.delete(source.resolve("album2/cover.png"));
+            Files.delete(source.resolve("album2"));
+            await(() -> !Files.exists(output.resolve("album2")), "Art should be removed for a deleted album");
+
+            // A nested directory created inside a new directory is generated, and watched for later changes
+            Path album3 = output.resolve("artist/album3/cover-64.png");
+            copyCover(4, Files.createDirectories(source.resolve("artist/album3")));
+            await(() -> Files.exists(album3), "Art should be generated for an album in a new nested directory");
+            byte[] nestedBefore = Files.readAllBytes(album3);
+            copyCover(5, source.resolve("artist/album3"));
+            await(() -> !Arrays.equals(nestedBefore, Files.readAllBytes(album3)), "Art should be regenerated for a changed album in a nested directory");
+
+            check(Files.exists(album1), "Art for an unchanged album should be kept");
+        } finally {
+            watcher.close();
+            thread.join(TIMEOUT_MILLIS);
+        }
+        check(!thread.isAlive(), "Closing the watcher should stop watching");
+        System.out.println("ArtWatcherTest passed");
+    }
+
+    private static void copyCover(int image, Path albumDirectory) throws IOException {
+        Files.copy(Paths.get(String.format("src/test/resources/compositor/%d.png", image)), albumDirectory.resolve("cover.png"), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void await(Callable<Boolean> condition, String message) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.call()) {
+            check(System.currentTimeMillis() < deadline, message);
+            Thread.sleep(20);
+        }
+    }
+
+    private static Path clean(String name) throws IOException {
+        Path directory = OUTPUT.resolve(name);
+        if (Files.exists(directory)) {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(path);
+                }
+            }
+        }
+        return Files.createDirectories(directory);
+    }
+
+    private static void check(boolean condition, String format, Object... args) {
+        if (!condition) {
+            throw new AssertionError(String.format(format, args));
+        }
+    }
+}
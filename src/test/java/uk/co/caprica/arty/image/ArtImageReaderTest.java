@@ -0,0 +1,67 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.image;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class ArtImageReaderTest {
+
+    /**
+     * A 200x100 JPEG, red on the left and blue on the right, with Exif orientation 6 (rotate 90 degrees clockwise to
+     * display), i.e. it should be displayed 100x200 with red at the top.
+     */
+    private static final Path ROTATED = Paths.get("src/test/resources/orientation/album/cover.jpg");
+
+    public static void main(String[] args) throws Exception {
+        BufferedImage image = ArtImageReader.read(ROTATED);
+        check(image.getWidth() == 100 && image.getHeight() == 200, "Rotated image should be 100x200, was %dx%d", image.getWidth(), image.getHeight());
+        checkUpright(image);
+
+        image = ArtImageReader.readTransient(ROTATED, 0);
+        check(image.getWidth() == 100 && image.getHeight() == 200, "Transient rotated image should be 100x200, was %dx%d", image.getWidth(), image.getHeight());
+        checkUpright(image);
+
+        // The dimensions are those of the image the right way up, and the subsampled image is still rotated
+        Dimension dimensions = new Dimension();
+        image = ArtImageReader.read(ROTATED, 10, dimensions);
+        check(dimensions.width == 100 && dimensions.height == 200, "Rotated source dimensions should be 100x200, were %dx%d", dimensions.width, dimensions.height);
+        check(image.getWidth() == 50 && image.getHeight() == 100, "Subsampled rotated image should be 50x100, was %dx%d", image.getWidth(), image.getHeight());
+        checkUpright(image);
+
+        System.out.println("ArtImageReaderTest passed");
+    }
+
+    private static void checkUpright(BufferedImage image) {
+        Color top = new Color(image.getRGB(image.getWidth() / 2, image.getHeight() / 4));
+        Color bottom = new Color(image.getRGB(image.getWidth() / 2, image.getHeight() * 3 / 4));
+        check(top.getRed() > 200 && top.getBlue() < 60, "Top of rotated image should be red, was %s", top);
+        check(bottom.getBlue() > 200 && bottom.getRed() < 60, "Bottom of rotated image should be blue, was %s", bottom);
+    }
+
+    private static void check(boolean condition, String format, Object... args) {
+        if (!condition) {
+            throw new AssertionError(String.format(format, args));
+        }
+    }
+}
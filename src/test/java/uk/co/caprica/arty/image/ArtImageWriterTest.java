@@ -0,0 +1,104 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.image;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+public class ArtImageWriterTest {
+
+    private static final Path OUTPUT = Paths.get("target/output/writer-test");
+
+    private static final float QUALITY = 0.9f;
+
+    private static final float MIN_QUALITY = 0.3f;
+
+    public static void main(String[] args) throws Exception {
+        BufferedImage image = noise(256, 256);
+        byte[] full = encode(new ArtImageWriter("jpg", QUALITY, false), image);
+        byte[] smallest = encode(new ArtImageWriter("jpg", MIN_QUALITY, false), image);
+        check(smallest.length < full.length, "Lower quality should give a smaller image, %d >= %d bytes", smallest.length, full.length);
+
+        // Budget larger than the image, the requested quality is used as-is
+        byte[] unconstrained = encode(budgetWriter(full.length), image);
+        check(Arrays.equals(unconstrained, full), "Image within budget should be encoded at the requested quality");
+
+        // Reachable budget, the image must fit
+        int budget = (full.length + smallest.length) / 2;
+        byte[] budgeted = encode(budgetWriter(budget), image);
+        check(budgeted.length <= budget, "Image should fit the budget, %d > %d bytes", budgeted.length, budget);
+        check(budgeted.length >= smallest.length, "Image should use no less than the minimum quality, %d < %d bytes", budgeted.length, smallest.length);
+
+        // Unreachable budget, the image falls back to the minimum quality
+        ArtImageWriter unreachable = budgetWriter(smallest.length / 2);
+        check(Arrays.equals(encode(unreachable, image), smallest), "Image over budget should be encoded at the minimum quality");
+        check(Arrays.equals(encodeToStream(unreachable, image), smallest), "Image over budget should be streamed at the minimum quality");
+        Files.createDirectories(OUTPUT);
+        Path path = OUTPUT.resolve("unreachable.jpg");
+        unreachable.write(image, path);
+        check(Arrays.equals(Files.readAllBytes(path), smallest), "Image over budget should be written at the minimum quality");
+
+        System.out.println("ArtImageWriterTest passed");
+    }
+
+    private static ArtImageWriter budgetWriter(int maxBytes) {
+        return new ArtImageWriter(new ArtEncodingProfile("jpg").quality(QUALITY).maxBytes(maxBytes, MIN_QUALITY));
+    }
+
+    private static byte[] encode(ArtImageWriter writer, BufferedImage image) throws IOException {
+        ByteBuffer encoded = writer.write(image, (ByteBuffer) null);
+        byte[] result = new byte[encoded.remaining()];
+        encoded.get(result);
+        return result;
+    }
+
+    private static byte[] encodeToStream(ArtImageWriter writer, BufferedImage image) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        writer.write(image, output);
+        return output.toByteArray();
+    }
+
+    /**
+     * Random noise compresses poorly, so the encoded size depends strongly on the quality.
+     */
+    private static BufferedImage noise(int width, int height) {
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                result.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+        return result;
+    }
+
+    private static void check(boolean condition, String format, Object... args) {
+        if (!condition) {
+            throw new AssertionError(String.format(format, args));
+        }
+    }
+}
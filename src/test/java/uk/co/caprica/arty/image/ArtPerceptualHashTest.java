@@ -0,0 +1,121 @@
+/*
+ * This file is part of Arty.
+ *
+ * Arty is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Arty is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Arty.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2021 Caprica Software Limited.
+ */
+
+package uk.co.caprica.arty.image;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+public class ArtPerceptualHashTest {
+
+    private static final Path OUTPUT = Paths.get("target/output/hash-test");
+
+    /**
+     * Maximum distance between the hashes of an image and a resized or re-encoded copy of it.
+     */
+    private static final int MAX_COPY_DISTANCE = 4;
+
+    public static void main(String[] args) throws Exception {
+        copiesHashNearOriginal();
+        smallImagesHashLikeEnlargedImages();
+        System.out.println("ArtPerceptualHashTest passed");
+    }
+
+    /**
+     * Resizing or re-encoding an image changes its hash by only a few bits.
+     */
+    private static void copiesHashNearOriginal() throws Exception {
+        Files.createDirectories(OUTPUT);
+        for (int image = 1; image <= 5; image++) {
+            BufferedImage original = ArtImageReader.read(Paths.get(String.format("src/test/resources/compositor/%d.png", image)));
+            long hash = ArtPerceptualHash.hash(original);
+
+            long resized = ArtPerceptualHash.hash(resize(original, 64));
+            check(ArtPerceptualHash.distance(hash, resized) <= MAX_COPY_DISTANCE, "Resized image %d should hash near the original, distance %d", image, ArtPerceptualHash.distance(hash, resized));
+
+            Path jpeg = OUTPUT.resolve(image + ".jpg");
+            new ArtImageWriter("jpg", 0.5f, false).write(rgb(original), jpeg);
+            long reencoded = ArtPerceptualHash.hash(ArtImageReader.read(jpeg));
+            check(ArtPerceptualHash.distance(hash, reencoded) <= MAX_COPY_DISTANCE, "Re-encoded image %d should hash near the original, distance %d", image, ArtPerceptualHash.distance(hash, reencoded));
+        }
+        check(ArtPerceptualHash.distance(0L, -1L) == ArtPerceptualHash.BITS, "Distance between complementary hashes should be %d", ArtPerceptualHash.BITS);
+    }
+
+    /**
+     * An image narrower or shorter than the hash grid has the same hash as the image enlarged by repeating pixels to a
+     * multiple of the grid size, rather than one that depends on empty grid cells.
+     */
+    private static void smallImagesHashLikeEnlargedImages() {
+        Random random = new Random(7);
+        int[][] sizes = { { 1, 8 }, { 3, 8 }, { 9, 1 }, { 9, 2 }, { 9, 4 }, { 3, 4 }, { 1, 1 } };
+        for (int trial = 0; trial < 20; trial++) {
+            for (int[] size : sizes) {
+                BufferedImage small = new BufferedImage(size[0], size[1], BufferedImage.TYPE_INT_RGB);
+                for (int y = 0; y < size[1]; y++) {
+                    for (int x = 0; x < size[0]; x++) {
+                        small.setRGB(x, y, random.nextInt(0x1000000));
+                    }
+                }
+                BufferedImage enlarged = new BufferedImage(9, 8, BufferedImage.TYPE_INT_RGB);
+                for (int y = 0; y < 8; y++) {
+                    for (int x = 0; x < 9; x++) {
+                        enlarged.setRGB(x, y, small.getRGB(x * size[0] / 9, y * size[1] / 8));
+                    }
+                }
+                long smallHash = ArtPerceptualHash.hash(small);
+                long enlargedHash = ArtPerceptualHash.hash(enlarged);
+                check(smallHash == enlargedHash, "%dx%d image should hash as its enlargement, %016x != %016x", size[0], size[1], smallHash, enlargedHash);
+            }
+        }
+    }
+
+    private static BufferedImage resize(BufferedImage image, int size) {
+        BufferedImage result = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = result.createGraphics();
+        try {
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2.drawImage(image, 0, 0, size, size, null);
+        } finally {
+            g2.dispose();
+        }
+        return result;
+    }
+
+    private static BufferedImage rgb(BufferedImage image) {
+        BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = result.createGraphics();
+        try {
+            g2.drawImage(image, 0, 0, null);
+        } finally {
+            g2.dispose();
+        }
+        return result;
+    }
+
+    private static void check(boolean condition, String format, Object... args) {
+        if (!condition) {
+            throw new AssertionError(String.format(format, args));
+        }
+    }
+}